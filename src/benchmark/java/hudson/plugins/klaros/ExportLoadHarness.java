@@ -0,0 +1,320 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+/**
+ * End-to-end load test of the export against a {@link StubImporter}. A number of free style projects is
+ * built concurrently, each build creating a synthetic workspace of result files and exporting all of them.
+ * After one warm-up build per project the harness reports the export throughput, the upload latencies seen by
+ * the stub, the build durations and the peak heap usage.
+ * <p>
+ * The harness is part of the <tt>benchmarks</tt> profile and is run explicitly:
+ *
+ * <pre>
+ * mvn -Pbenchmarks test -Dtest=ExportLoadHarness -Dklaros.load.projects=16 -Dklaros.load.errorRate=0.01
+ * </pre>
+ *
+ * It is configured by the following system properties, prefixed with <tt>klaros.load.</tt>:
+ * <ul>
+ * <li><tt>projects</tt> - the number of concurrently built projects, default 8</li>
+ * <li><tt>builds</tt> - the number of measured builds per project, default 5</li>
+ * <li><tt>files</tt> - the number of result files per build, default 200</li>
+ * <li><tt>fileSize</tt> - the size of a result file in bytes, default 16384</li>
+ * <li><tt>uploadThreads</tt> - the upload threads of the result set, default 1</li>
+ * <li><tt>bundle</tt> - whether to upload the result set as a single archive, default false</li>
+ * <li><tt>compress</tt> - whether to compress the uploads, default false</li>
+ * <li><tt>latency</tt> - the stub latency per upload in milliseconds, default 20</li>
+ * <li><tt>errorRate</tt> - the share of failed imports, default 0</li>
+ * <li><tt>burstInterval</tt> - the interval between 503 bursts in milliseconds, default 0 for none</li>
+ * <li><tt>burstLength</tt> - the length of a 503 burst in milliseconds, default 1000</li>
+ * </ul>
+ */
+public class ExportLoadHarness {
+
+    private static final String PREFIX = "klaros.load.";
+
+    private static final int PROJECTS = Integer.getInteger(PREFIX + "projects", 8);
+
+    private static final int BUILDS = Integer.getInteger(PREFIX + "builds", 5);
+
+    private static final int FILES = Integer.getInteger(PREFIX + "files", 200);
+
+    private static final int FILE_SIZE = Integer.getInteger(PREFIX + "fileSize", 16384);
+
+    private static final int UPLOAD_THREADS = Integer.getInteger(PREFIX + "uploadThreads", 1);
+
+    private static final boolean BUNDLE = Boolean.getBoolean(PREFIX + "bundle");
+
+    private static final boolean COMPRESS = Boolean.getBoolean(PREFIX + "compress");
+
+    private static final long LATENCY = Long.getLong(PREFIX + "latency", 20L);
+
+    private static final double ERROR_RATE = Double.parseDouble(System.getProperty(PREFIX + "errorRate", "0"));
+
+    private static final long BURST_INTERVAL = Long.getLong(PREFIX + "burstInterval", 0L);
+
+    private static final long BURST_LENGTH = Long.getLong(PREFIX + "burstLength", 1000L);
+
+    /** The Jenkins instance, without the default test timeout. */
+    @Rule
+    public JenkinsRule j = createRule();
+
+    /**
+     * Run the load test and report the results.
+     *
+     * @throws Exception if the load test could not be run
+     */
+    @Test
+    public void run() throws Exception {
+
+        final StubImporter importer = new StubImporter(LATENCY, ERROR_RATE, BURST_INTERVAL, BURST_LENGTH);
+        final ExecutorService drivers = Executors.newFixedThreadPool(PROJECTS);
+        try {
+            j.jenkins.setNumExecutors(PROJECTS);
+            // Only configured installations are exported to
+            j.jenkins.getDescriptorByType(KlarosTestResultPublisher.DescriptorImpl.class).setUrls(
+                Collections.singletonList(importer.getUrl()));
+            final List<FreeStyleProject> projects = new ArrayList<>();
+            for (int i = 0; i < PROJECTS; i++) {
+                projects.add(createProject("load" + i, importer.getUrl()));
+            }
+
+            // The warm-up builds create the workspaces and load the export classes
+            for (FreeStyleProject project : projects) {
+                project.scheduleBuild2(0).get();
+            }
+            importer.reset();
+            resetPeakHeap();
+
+            final long start = System.nanoTime();
+            final List<Future<List<FreeStyleBuild>>> futures = new ArrayList<>();
+            for (final FreeStyleProject project : projects) {
+                futures.add(drivers.submit(new Callable<List<FreeStyleBuild>>() {
+
+                    @Override
+                    public List<FreeStyleBuild> call() throws Exception {
+
+                        final List<FreeStyleBuild> builds = new ArrayList<>();
+                        for (int i = 0; i < BUILDS; i++) {
+                            builds.add(project.scheduleBuild2(0).get());
+                        }
+                        return builds;
+                    }
+                }));
+            }
+            final List<Long> durations = new ArrayList<>();
+            int failedBuilds = 0;
+            for (Future<List<FreeStyleBuild>> future : futures) {
+                for (FreeStyleBuild build : future.get()) {
+                    durations.add(build.getDuration());
+                    if (build.getResult() != Result.SUCCESS) {
+                        failedBuilds++;
+                    }
+                }
+            }
+            final double seconds = (System.nanoTime() - start) / 1e9;
+
+            report(importer, durations, failedBuilds, seconds);
+        } finally {
+            drivers.shutdownNow();
+            importer.stop();
+        }
+    }
+
+    /**
+     * Create a project exporting its synthetic result files to the stub importer.
+     *
+     * @param name the project name
+     * @param url the Klaros application url
+     * @return the project
+     * @throws IOException if the project could not be created
+     */
+    private FreeStyleProject createProject(final String name, final String url) throws IOException {
+
+        final FreeStyleProject project = j.createFreeStyleProject(name);
+        project.getBuildersList().add(new ResultFileBuilder());
+
+        final ResultSet resultSet = new ResultSet("reports/**/*.xml", "junit");
+        resultSet.setUploadThreads(UPLOAD_THREADS);
+        resultSet.setBundle(BUNDLE);
+        final KlarosTestResultPublisher publisher =
+            new KlarosTestResultPublisher("P00001", "", "ENV00001", "SUT00001", false, null, null,
+                new ResultSet[]{resultSet }, url, "", "");
+        publisher.setForceFullExport(true);
+        publisher.setCompressUploads(COMPRESS);
+        project.getPublishersList().add(publisher);
+        return project;
+    }
+
+    /**
+     * Print the results of the load test.
+     *
+     * @param importer the stub importer
+     * @param durations the build durations in milliseconds
+     * @param failedBuilds the number of builds not successful
+     * @param seconds the wall clock time of all measured builds in seconds
+     */
+    private static void report(final StubImporter importer, final List<Long> durations, final int failedBuilds,
+        final double seconds) {
+
+        Collections.sort(durations);
+        final long files = (long) PROJECTS * BUILDS * FILES;
+        System.out.println("Klaros export load test");
+        System.out.printf("  projects %d, builds %d, files per build %d of %d bytes, upload threads %d%s%s%n",
+            PROJECTS, durations.size(), FILES, FILE_SIZE, UPLOAD_THREADS, BUNDLE ? ", bundled" : "",
+            COMPRESS ? ", compressed" : "");
+        System.out.printf("  stub latency %d ms, error rate %.3f, 503 bursts of %d ms every %d ms%n", LATENCY,
+            ERROR_RATE, BURST_INTERVAL > 0 ? BURST_LENGTH : 0, BURST_INTERVAL);
+        System.out.printf("  wall time %.2f s, %.1f files/s, %.2f MiB/s received%n", seconds, files / seconds,
+            importer.getBytes() / seconds / (1024 * 1024));
+        System.out.printf("  uploads %d, accepted %d, failed %d, unavailable %d, builds not successful %d%n",
+            importer.getRequests(), importer.getAccepted(), importer.getFailed(), importer.getUnavailable(),
+            failedBuilds);
+        System.out.printf("  upload latency p50 %.1f ms, p99 %.1f ms%n", importer.getLatency(50),
+            importer.getLatency(99));
+        System.out.printf("  build duration p50 %d ms, p99 %d ms%n", percentile(durations, 50),
+            percentile(durations, 99));
+        System.out.printf("  peak heap %.1f MiB%n", getPeakHeap() / (1024.0 * 1024));
+    }
+
+    /**
+     * Gets a percentile of sorted values.
+     *
+     * @param sorted the sorted values
+     * @param percentile the percentile, between 0 and 100
+     * @return the value or zero if there are no values
+     */
+    private static long percentile(final List<Long> sorted, final double percentile) {
+
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        final int index = (int) Math.ceil(percentile / 100 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index));
+    }
+
+    /**
+     * Reset the peak usage of all heap memory pools.
+     */
+    private static void resetPeakHeap() {
+
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Gets the sum of the peak usage of all heap memory pools since the last reset.
+     *
+     * @return the peak heap usage in bytes
+     */
+    private static long getPeakHeap() {
+
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Creates the Jenkins rule without the default test timeout, which a long running load test would exceed.
+     *
+     * @return the rule
+     */
+    private static JenkinsRule createRule() {
+
+        final JenkinsRule rule = new JenkinsRule();
+        rule.timeout = 0;
+        return rule;
+    }
+
+    /**
+     * Creates the synthetic result files in the workspace unless they already exist.
+     */
+    public static class ResultFileBuilder extends TestBuilder {
+
+        @Override
+        public boolean perform(final AbstractBuild<?, ?> build, final Launcher launcher,
+            final BuildListener listener) throws InterruptedException, IOException {
+
+            final FilePath reports = build.getWorkspace().child("reports");
+            if (reports.exists()) {
+                return true;
+            }
+            final String content = createContent(build.getProject().getName());
+            for (int i = 0; i < FILES; i++) {
+                reports.child("module" + i % 10).child("TEST-Load" + i + ".xml").write(content, "UTF-8");
+            }
+            return true;
+        }
+
+        /**
+         * Creates a JUnit result file of about the configured size.
+         *
+         * @param name the suite name
+         * @return the file content
+         */
+        private static String createContent(final String name) {
+
+            final StringBuilder content = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            content.append("<testsuite name=\"").append(name).append("\">\n");
+            for (int i = 0; content.length() < FILE_SIZE; i++) {
+                content.append("  <testcase classname=\"").append(name).append("\" name=\"test").append(i)
+                    .append("\" time=\"0.").append(i % 1000).append("\"/>\n");
+            }
+            return content.append("</testsuite>\n").toString();
+        }
+    }
+}
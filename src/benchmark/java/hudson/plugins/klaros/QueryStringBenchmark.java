@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the construction of the upload query string, both from scratch and from the prefix and suffix
+ * cached per export.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryStringBenchmark {
+
+    private static final String BUILD_SERVER_URL = "https://jenkins.example.com/jenkins/";
+
+    private String prefix;
+
+    private String suffix;
+
+    private String credentials;
+
+    /**
+     * Build the cached query parts.
+     */
+    @Setup
+    public void setup() {
+
+        prefix = createPrefix().toString();
+        suffix = createSuffix().toString();
+        credentials = createCredentials().toString();
+    }
+
+    /**
+     * Build the complete query string from scratch.
+     *
+     * @return the query string
+     */
+    @Benchmark
+    public String build() {
+
+        final QueryString query = createPrefix().add("type", "junit");
+        query.addEncoded(createSuffix().toString()).addEncoded(createCredentials().toString());
+        return query.toString();
+    }
+
+    /**
+     * Build the query string from the cached parts, as done per result set.
+     *
+     * @return the query string
+     */
+    @Benchmark
+    public String buildCached() {
+
+        return new QueryString().addEncoded(prefix).add("type", "junit").addEncoded(suffix)
+            .addEncoded(credentials).toString();
+    }
+
+    /**
+     * Creates the configuration dependent part of the query.
+     *
+     * @return the query
+     */
+    private static QueryString createPrefix() {
+
+        return new QueryString().add("config", "P00001").add("iteration", "ITR00003").add("env", "ENV00001")
+            .add("sut", "Release 2.1 (Build #42)");
+    }
+
+    /**
+     * Creates the build dependent part of the query.
+     *
+     * @return the query
+     */
+    private static QueryString createSuffix() {
+
+        return new QueryString().add("createTestSuiteResults", "true").add("buildServerUrl", BUILD_SERVER_URL)
+            .add("buildJobId", "folder/klaros export").add("buildId", "42");
+    }
+
+    /**
+     * Creates the login part of the query.
+     *
+     * @return the query
+     */
+    private static QueryString createCredentials() {
+
+        return new QueryString().add("username", "jenkins").add("password", "s3cr3t&p@ss=word");
+    }
+}
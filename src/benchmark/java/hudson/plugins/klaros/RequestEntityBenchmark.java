@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import hudson.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of streaming result files into a request body, without any network involved. The
+ * result files are synthetic JUnit reports of about the given size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestEntityBenchmark {
+
+    /** The number of result files in a bundle. */
+    static final int BUNDLE_FILES = 50;
+
+    /** The size of a single result file in bytes. */
+    @Param({"65536", "4194304" })
+    private int size;
+
+    /** Whether to compress single result files. */
+    @Param({"false", "true" })
+    private boolean compress;
+
+    private File directory;
+
+    private File file;
+
+    private List<File> bundle;
+
+    private final OutputStream out = new NullOutputStream();
+
+    /**
+     * Create the result files.
+     *
+     * @throws IOException if the result files could not be created
+     */
+    @Setup
+    public void setup() throws IOException {
+
+        directory = Util.createTempDir();
+        file = createResultFile(new File(directory, "TEST-Single.xml"));
+        bundle = new ArrayList<>();
+        for (int i = 0; i < BUNDLE_FILES; i++) {
+            bundle.add(createResultFile(new File(directory, "TEST-Bundle" + i + ".xml")));
+        }
+    }
+
+    /**
+     * Remove the result files.
+     *
+     * @throws IOException if the result files could not be removed
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+
+        Util.deleteRecursive(directory);
+    }
+
+    /**
+     * Stream a single result file.
+     *
+     * @return the number of bytes sent
+     * @throws IOException if the result file could not be read
+     */
+    @Benchmark
+    public long single() throws IOException {
+
+        final ResultFileRequestEntity entity =
+            new ResultFileRequestEntity(file, KlarosTestResultPublisher.RESULT_CONTENT_TYPE, compress);
+        entity.writeRequest(out);
+        return entity.getSentLength();
+    }
+
+    /**
+     * Stream all bundled result files as a single archive.
+     *
+     * @return the number of bytes sent
+     * @throws IOException if a result file could not be read
+     */
+    @Benchmark
+    public long bundle() throws IOException {
+
+        final ZipBundleRequestEntity entity = new ZipBundleRequestEntity(directory, bundle);
+        entity.writeRequest(out);
+        return entity.getCompressedLength();
+    }
+
+    /**
+     * Creates a synthetic JUnit result file of about the benchmark size.
+     *
+     * @param target the file to create
+     * @return the file
+     * @throws IOException if the file could not be written
+     */
+    private File createResultFile(final File target) throws IOException {
+
+        try (PrintWriter writer = new PrintWriter(target, "UTF-8")) {
+            writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            writer.println("<testsuite name=\"hudson.plugins.klaros.Benchmark\" tests=\"0\">");
+            long written = 0;
+            for (int i = 0; written < size; i++) {
+                final String line =
+                    "  <testcase classname=\"hudson.plugins.klaros.Benchmark\" name=\"test" + i + "\" time=\""
+                        + (i % 1000) / 1000.0 + "\"><system-out>" + Integer.toHexString(i * 31) + "</system-out>"
+                        + "</testcase>";
+                writer.println(line);
+                written += line.length() + 1;
+            }
+            writer.println("</testsuite>");
+        }
+        return target;
+    }
+}
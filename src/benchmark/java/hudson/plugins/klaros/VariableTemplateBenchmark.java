@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import hudson.EnvVars;
+import hudson.Util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the expansion of build variables in the result set properties against build environments of
+ * realistic sizes. A typical slave environment holds about one hundred variables, environments injected by
+ * matrix or pipeline jobs may hold a thousand.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VariableTemplateBenchmark {
+
+    /** The number of variables in the build environment. */
+    @Param({"10", "100", "1000" })
+    private int variables;
+
+    /** The value to expand. */
+    @Param({"Klaros-${BUILD_NUMBER}", "${JOB_NAME}/${BUILD_ID} on ${NODE_NAME} ${UNDEFINED}", "SUT-01" })
+    private String value;
+
+    private EnvVars environment;
+
+    private Map<String, String> buildVariables;
+
+    private VariableTemplate template;
+
+    /**
+     * Populate the build environment and the build variables.
+     */
+    @Setup
+    public void setup() {
+
+        environment = new EnvVars();
+        for (int i = 0; i < variables; i++) {
+            environment.put("VARIABLE_" + i, "value-" + i);
+        }
+        environment.put("JOB_NAME", "klaros-export");
+        environment.put("BUILD_ID", "2019-04-06_12-00-00");
+        environment.put("NODE_NAME", "slave-01");
+
+        buildVariables = new HashMap<>();
+        buildVariables.put("BUILD_NUMBER", "42");
+        template = VariableTemplate.compile(value);
+    }
+
+    /**
+     * Compile and expand the value, as done once per result set property and export.
+     *
+     * @return the expanded value
+     */
+    @Benchmark
+    public String compileAndExpand() {
+
+        return VariableTemplate.compile(value).expand(environment, buildVariables);
+    }
+
+    /**
+     * Expand a value compiled in advance.
+     *
+     * @return the expanded value
+     */
+    @Benchmark
+    public String expand() {
+
+        return template.expand(environment, buildVariables);
+    }
+
+    /**
+     * Expand the value the way the core macro replacement does, as a baseline.
+     *
+     * @return the expanded value
+     */
+    @Benchmark
+    public String replaceMacro() {
+
+        return Util.replaceMacro(Util.replaceMacro(value, environment), buildVariables);
+    }
+}
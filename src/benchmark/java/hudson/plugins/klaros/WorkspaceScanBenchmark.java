@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import hudson.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tools.ant.DirectoryScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the scanning of a workspace for result files. The synthetic workspace holds the given number of
+ * empty files in directories of {@value #FILES_PER_DIRECTORY} files each, half of them matching the result
+ * file pattern. It is created below the directory given by the <tt>benchmark.dir</tt> system property, or the
+ * temporary directory, and removed afterwards.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WorkspaceScanBenchmark {
+
+    /** The number of files per directory. */
+    static final int FILES_PER_DIRECTORY = 1000;
+
+    /** The number of files in the workspace. */
+    @Param({"10000", "100000", "1000000" })
+    private int files;
+
+    /** The result file pattern. */
+    @Param({"**/TEST-*.xml", "reports/**/*.xml" })
+    private String spec;
+
+    private File workspace;
+
+    /**
+     * Create the synthetic workspace.
+     *
+     * @throws IOException if the workspace could not be created
+     */
+    @Setup
+    public void setup() throws IOException {
+
+        workspace = File.createTempFile("workspace", "", new File(System.getProperty("benchmark.dir", System
+            .getProperty("java.io.tmpdir"))));
+        if (!workspace.delete() || !workspace.mkdir()) {
+            throw new IOException("Unable to create workspace " + workspace);
+        }
+        File directory = null;
+        for (int i = 0; i < files; i++) {
+            if (i % FILES_PER_DIRECTORY == 0) {
+                final int index = i / FILES_PER_DIRECTORY;
+                directory = new File(workspace, (index % 2 == 0 ? "reports" : "sources") + "/module" + index);
+                if (!directory.mkdirs()) {
+                    throw new IOException("Unable to create directory " + directory);
+                }
+            }
+            final String name = i % 2 == 0 ? "TEST-Test" + i + ".xml" : "Test" + i + ".java";
+            if (!new File(directory, name).createNewFile()) {
+                throw new IOException("Unable to create file " + name);
+            }
+        }
+    }
+
+    /**
+     * Remove the synthetic workspace.
+     *
+     * @throws IOException if the workspace could not be removed
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+
+        Util.deleteRecursive(workspace);
+    }
+
+    /**
+     * Scan the workspace using Ant, the way the publisher did before the workspace scanner was introduced.
+     *
+     * @return the number of matching files
+     */
+    @Benchmark
+    public int scanAnt() {
+
+        final DirectoryScanner ds = Util.createFileSet(workspace, spec).getDirectoryScanner();
+        return ds.getIncludedFiles().length;
+    }
+
+    /**
+     * Scan the workspace the way the publisher does.
+     *
+     * @return the number of matching files
+     * @throws IOException if the workspace could not be read
+     * @throws InterruptedException if interrupted while scanning
+     */
+    @Benchmark
+    public int scan() throws IOException, InterruptedException {
+
+        final int[] count = new int[1];
+        new WorkspaceScanner(spec).scan(workspace, new WorkspaceScanner.Listener() {
+
+            @Override
+            public void found(final String path, final File file) {
+
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+}
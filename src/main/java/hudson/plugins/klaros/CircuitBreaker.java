@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the availability of a Klaros-Testmanagement application URL. After a number of consecutive
+ * failures the breaker opens and requests fail immediately instead of each waiting for its own timeout.
+ * Once the open duration has passed a single probe request is let through; its success closes the breaker,
+ * its failure opens it again. Like the {@link HttpClientPool}, one breaker is kept per URL and JVM, so it
+ * is shared by all builds exporting from the same node.
+ */
+final class CircuitBreaker {
+
+    /** The breaker states. */
+    enum State {
+        /** Requests pass. */
+        CLOSED,
+        /** Requests fail fast. */
+        OPEN,
+        /** A single probe request is in flight. */
+        HALF_OPEN
+    }
+
+    private static final Map<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    private State state = State.CLOSED;
+
+    private int failures;
+
+    private long openedAt;
+
+    private volatile int failureThreshold;
+
+    private volatile long openDuration;
+
+    /**
+     * Instantiates a new circuit breaker.
+     */
+    private CircuitBreaker() {
+
+    }
+
+    /**
+     * Gets the circuit breaker of a Klaros application URL and applies the current settings.
+     *
+     * @param applicationURL the Klaros application url
+     * @param policy the retry policy holding the breaker settings
+     * @return the circuit breaker
+     */
+    static CircuitBreaker get(final String applicationURL, final RetryPolicy policy) {
+
+        final String key = applicationURL != null ? applicationURL : "";
+        CircuitBreaker breaker = BREAKERS.get(key);
+        if (breaker == null) {
+            synchronized (BREAKERS) {
+                breaker = BREAKERS.get(key);
+                if (breaker == null) {
+                    breaker = new CircuitBreaker();
+                    BREAKERS.put(key, breaker);
+                }
+            }
+        }
+        breaker.failureThreshold = policy.getFailureThreshold();
+        breaker.openDuration = policy.getOpenDuration();
+        return breaker;
+    }
+
+    /**
+     * Checks whether a request may be sent. An open breaker whose open duration has passed lets exactly
+     * one probe request through, the caller must report its result.
+     *
+     * @return true, if the request may be sent
+     */
+    synchronized boolean allowRequest() {
+
+        if (failureThreshold <= 0) {
+            return true;
+        }
+        switch (state) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            if (System.currentTimeMillis() - openedAt >= openDuration) {
+                state = State.HALF_OPEN;
+                return true;
+            }
+            return false;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Report a request reaching the server, which closes the breaker.
+     */
+    synchronized void recordSuccess() {
+
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    /**
+     * Report a request failing due to an unavailable server.
+     */
+    synchronized void recordFailure() {
+
+        failures++;
+        if (state == State.HALF_OPEN || failureThreshold > 0 && failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Report a request which failed before reaching the server. A pending probe is given up so the next
+     * request can probe again.
+     */
+    synchronized void release() {
+
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis() - openDuration;
+        }
+    }
+
+    /**
+     * Gets the current state.
+     *
+     * @return the state
+     */
+    synchronized State getState() {
+
+        return state;
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import hudson.util.AtomicFileWriter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The content addressed index of result files already accepted by Klaros-Testmanagement. A result file is
+ * identified by the digest of its content combined with the identity of the import parameters it was
+ * exported with. To avoid hashing files before they are sent, the index also remembers the digest of each
+ * exported file by its path, size and modification time. The index is persisted per job on the master as an
+ * append only log, which is compacted once it holds more outdated lines than entries. The exporter only
+ * receives the entries of the files it finds, which it looks up on the master.
+ */
+final class ExportIndex implements Serializable {
+
+    /**
+     * Looks up the entries of found files in the index of a job, which may be used remotely.
+     */
+    interface Lookup {
+
+        /**
+         * Look up the given files.
+         *
+         * @param statusKeys the status keys of the files
+         * @param identity the import parameter identity
+         * @return the known digests of the files and which of them have been accepted for the identity
+         * @throws IOException if the master could not be reached
+         */
+        ExportIndex lookup(List<String> statusKeys, String identity) throws IOException;
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    /** The name of the index file within the job directory. */
+    static final String FILE_NAME = "klaros-export-index.txt";
+
+    /** The maximum number of entries kept per index section, the least recently used entries are dropped. */
+    static final int MAX_ENTRIES = 100000;
+
+    /** The number of outdated lines tolerated in the index file in addition to one per entry. */
+    private static final int COMPACT_SLACK = 1000;
+
+    /** The number of hex digits of a content digest. */
+    private static final int DIGEST_LENGTH = ResultFileRequestEntity.createDigest().getDigestLength() * 2;
+
+    private static final String ENCODING = "UTF-8";
+    private static final char DIGEST_PREFIX = 'F';
+    private static final char ACCEPTED_PREFIX = 'A';
+    private static final char SEPARATOR = '\t';
+
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    /** The loaded index of each job, released when memory gets low. Guarded by the lock of the job. */
+    private static final Map<String, SoftReference<ExportIndex>> CACHE = new ConcurrentHashMap<>();
+
+    /** The content digests by file status key. */
+    private final Map<String, String> digests = new BoundedMap<>(MAX_ENTRIES);
+
+    /** The accepted content and parameter identity keys. */
+    private final Map<String, Boolean> accepted = new BoundedMap<>(MAX_ENTRIES);
+
+    /** The number of lines of the index file. */
+    private transient int lines;
+
+    /**
+     * Gets the status key of a file, which changes whenever the file is replaced or modified.
+     *
+     * @param file the file
+     * @return the status key
+     */
+    static String statusKey(final File file) {
+
+        return file.getPath() + '|' + file.length() + '|' + file.lastModified();
+    }
+
+    /**
+     * Gets the previously computed content digest of a file.
+     *
+     * @param file the file
+     * @return the digest or null if unknown or the file changed since
+     */
+    synchronized String getDigest(final File file) {
+
+        return digests.get(statusKey(file));
+    }
+
+    /**
+     * Checks if content with the given digest has been accepted for the given import parameters.
+     *
+     * @param digest the content digest
+     * @param identity the import parameter identity
+     * @return true, if accepted
+     */
+    synchronized boolean isAccepted(final String digest, final String identity) {
+
+        return accepted.get(digest + ':' + identity) != null;
+    }
+
+    /**
+     * Record an accepted file.
+     *
+     * @param file the file
+     * @param digest the content digest
+     * @param identity the import parameter identity
+     */
+    synchronized void add(final File file, final String digest, final String identity) {
+
+        add(statusKey(file), digest, identity);
+    }
+
+    /**
+     * Record an accepted file by its status key.
+     *
+     * @param statusKey the status key of the file
+     * @param digest the content digest
+     * @param identity the import parameter identity
+     */
+    synchronized void add(final String statusKey, final String digest, final String identity) {
+
+        digests.put(statusKey, digest);
+        accepted.put(digest + ':' + identity, Boolean.TRUE);
+    }
+
+    /**
+     * Add all entries of another index.
+     *
+     * @param entries the entries to add
+     */
+    void addAll(final ExportIndex entries) {
+
+        synchronized (entries) {
+            synchronized (this) {
+                digests.putAll(entries.digests);
+                accepted.putAll(entries.accepted);
+            }
+        }
+    }
+
+    /**
+     * Checks if the index is empty.
+     *
+     * @return true, if empty
+     */
+    synchronized boolean isEmpty() {
+
+        return digests.isEmpty() && accepted.isEmpty();
+    }
+
+    /**
+     * Open the index of a job for looking up the files found by an export.
+     *
+     * @param jobDir the job directory
+     * @return the lookup
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    static Lookup open(final File jobDir) throws IOException {
+
+        final ExportIndex index;
+        synchronized (lock(jobDir)) {
+            index = get(jobDir);
+        }
+        return new IndexLookup(index);
+    }
+
+    /**
+     * Load the index of a job.
+     *
+     * @param jobDir the job directory
+     * @return the index, empty if none has been stored yet
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    static ExportIndex load(final File jobDir) throws IOException {
+
+        final ExportIndex index = new ExportIndex();
+        final File file = new File(jobDir, FILE_NAME);
+        if (!file.exists()) {
+            return index;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                index.lines++;
+                if (line.length() < 2 || line.charAt(1) != SEPARATOR) {
+                    continue;
+                }
+                final String entry = line.substring(2);
+                if (line.charAt(0) == DIGEST_PREFIX) {
+                    // Lines cut off by a crash while appending are skipped
+                    final int pos = entry.lastIndexOf(SEPARATOR);
+                    if (pos > 0 && entry.length() - pos - 1 == DIGEST_LENGTH) {
+                        index.digests.put(entry.substring(0, pos), entry.substring(pos + 1));
+                    }
+                } else if (line.charAt(0) == ACCEPTED_PREFIX) {
+                    index.accepted.put(entry, Boolean.TRUE);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Merge the given entries into the stored index of a job. Only the given entries are appended to the
+     * index file. Concurrent builds of the same job are serialized.
+     *
+     * @param jobDir the job directory
+     * @param entries the entries to add
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    static void record(final File jobDir, final ExportIndex entries) throws IOException {
+
+        if (entries.isEmpty()) {
+            return;
+        }
+        synchronized (lock(jobDir)) {
+            final ExportIndex index = get(jobDir);
+            final File file = new File(jobDir, FILE_NAME);
+            try {
+                index.addAll(entries);
+                index.append(file, entries);
+                if (index.lines > 2 * index.size() + COMPACT_SLACK) {
+                    index.save(file);
+                }
+            } catch (IOException e) {
+                // The file may no longer match the cached index, read it again next time
+                CACHE.remove(jobDir.getAbsolutePath());
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Gets the lock serializing the updates of the index of a job.
+     *
+     * @param jobDir the job directory
+     * @return the lock
+     */
+    private static Object lock(final File jobDir) {
+
+        final String key = jobDir.getAbsolutePath();
+        LOCKS.putIfAbsent(key, new Object());
+        return LOCKS.get(key);
+    }
+
+    /**
+     * Gets the cached index of a job, loading it if needed. Called with the lock of the job held.
+     *
+     * @param jobDir the job directory
+     * @return the index
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static ExportIndex get(final File jobDir) throws IOException {
+
+        final String key = jobDir.getAbsolutePath();
+        final SoftReference<ExportIndex> ref = CACHE.get(key);
+        ExportIndex index = ref != null ? ref.get() : null;
+        if (index == null) {
+            index = load(jobDir);
+            CACHE.put(key, new SoftReference<>(index));
+        }
+        return index;
+    }
+
+    /**
+     * Gets the number of entries of both index sections.
+     *
+     * @return the number of entries
+     */
+    private synchronized int size() {
+
+        return digests.size() + accepted.size();
+    }
+
+    /**
+     * Append the given entries to the index file.
+     *
+     * @param file the index file
+     * @param entries the entries to append
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private synchronized void append(final File file, final ExportIndex entries) throws IOException {
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), ENCODING)) {
+            synchronized (entries) {
+                lines += entries.write(writer);
+            }
+        }
+    }
+
+    /**
+     * Save this index, replacing the index file.
+     *
+     * @param file the index file
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private synchronized void save(final File file) throws IOException {
+
+        final AtomicFileWriter writer = new AtomicFileWriter(file, ENCODING);
+        try {
+            lines = write(writer);
+            writer.commit();
+        } finally {
+            writer.abort();
+        }
+    }
+
+    /**
+     * Write the entries of this index, the least recently used first. Called with the lock of this index
+     * held.
+     *
+     * @param writer the writer
+     * @return the number of lines written
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private int write(final Writer writer) throws IOException {
+
+        for (Map.Entry<String, String> entry : digests.entrySet()) {
+            writer.append(DIGEST_PREFIX).append(SEPARATOR).append(entry.getKey()).append(SEPARATOR).append(
+                entry.getValue()).append('\n');
+        }
+        for (String entry : accepted.keySet()) {
+            writer.append(ACCEPTED_PREFIX).append(SEPARATOR).append(entry).append('\n');
+        }
+        return digests.size() + accepted.size();
+    }
+
+    /**
+     * Looks up files in the cached index of a job. Each hit counts as a use of the entry, so the entries of
+     * files found by every export are kept.
+     */
+    private static final class IndexLookup implements Lookup {
+
+        private final ExportIndex index;
+
+        /**
+         * Instantiates a new index lookup.
+         *
+         * @param index the index of the job
+         */
+        private IndexLookup(final ExportIndex index) {
+
+            this.index = index;
+        }
+
+        @Override
+        public ExportIndex lookup(final List<String> statusKeys, final String identity) {
+
+            final ExportIndex found = new ExportIndex();
+            synchronized (index) {
+                for (String statusKey : statusKeys) {
+                    final String digest = index.digests.get(statusKey);
+                    if (digest != null) {
+                        found.digests.put(statusKey, digest);
+                        if (index.isAccepted(digest, identity)) {
+                            found.accepted.put(digest + ':' + identity, Boolean.TRUE);
+                        }
+                    }
+                }
+            }
+            return found;
+        }
+    }
+
+    /**
+     * A map dropping its least recently used entries once its capacity is exceeded.
+     *
+     * @param <K> the key type
+     * @param <V> the value type
+     */
+    private static final class BoundedMap<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        /**
+         * Instantiates a new bounded map.
+         *
+         * @param capacity the maximum number of entries
+         */
+        private BoundedMap(final int capacity) {
+
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+
+            return size() > capacity;
+        }
+    }
+}
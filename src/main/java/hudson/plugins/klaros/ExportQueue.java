@@ -0,0 +1,616 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import hudson.Util;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Job;
+import hudson.model.Run;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletResponse;
+
+import jenkins.model.Jenkins;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.InputStreamRequestEntity;
+import org.apache.commons.httpclient.methods.PutMethod;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.tools.tar.TarEntry;
+import org.apache.tools.tar.TarInputStream;
+
+/**
+ * The durable queue of asynchronous test result exports. Spooled exports are stored below
+ * <code>JENKINS_HOME/klaros-testmanagement/spool</code> and uploaded by a bounded number of background
+ * threads on the master. Pending exports are resumed after a restart. Exports failing with connection
+ * problems or server errors are retried with growing delays until they are older than {@link #MAX_AGE}.
+ */
+public final class ExportQueue {
+
+    private static final Logger LOGGER = Logger.getLogger(ExportQueue.class.getName());
+
+    /** The maximum number of exports uploaded concurrently. */
+    static final int MAX_CONCURRENT_EXPORTS = Integer.getInteger(ExportQueue.class.getName()
+        + ".maxConcurrentExports", 2);
+
+    /** The delay before the first retry of a failed export in milliseconds. */
+    static final long RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    /** The maximum delay between retries in milliseconds. */
+    static final long MAX_RETRY_DELAY = TimeUnit.MINUTES.toMillis(30);
+
+    /** Exports still failing after this many milliseconds are given up. */
+    static final long MAX_AGE = TimeUnit.DAYS.toMillis(1);
+
+    /** The number of handled files after which the entry and the build are saved. */
+    private static final int SAVE_INTERVAL = 100;
+
+    private static final ExportQueue INSTANCE = new ExportQueue();
+
+    private ScheduledExecutorService executor;
+
+    /** The listeners waiting for the end of a spooled export, by spool entry id. */
+    private final Map<String, List<Listener>> listeners = new HashMap<>();
+
+    /**
+     * Receives the final state of a spooled export.
+     */
+    interface Listener {
+
+        /**
+         * Called once the spooled export is finished.
+         *
+         * @param state the final export state
+         * @param message the failure reason, if any
+         */
+        void finished(KlarosExportAction.State state, String message);
+    }
+
+    /**
+     * Hide the singleton constructor.
+     */
+    private ExportQueue() {
+
+    }
+
+    /**
+     * Gets the export queue.
+     *
+     * @return the export queue
+     */
+    static ExportQueue get() {
+
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the spool directory.
+     *
+     * @return the spool directory
+     */
+    private static File getSpoolDir() {
+
+        return new File(Jenkins.getInstance().getRootDir(), "klaros-testmanagement/spool");
+    }
+
+    /**
+     * Start the export queue once all jobs have been loaded.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void init() {
+
+        get().start();
+    }
+
+    /**
+     * Start the background uploader and resume all spooled exports.
+     */
+    synchronized void start() {
+
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newScheduledThreadPool(MAX_CONCURRENT_EXPORTS, new KlarosTestResultPublisher.UploadThreadFactory());
+        final File[] dirs = getSpoolDir().listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                try {
+                    submit(ExportSpoolEntry.load(dir));
+                } catch (IOException e) {
+                    // Entries without a readable descriptor cannot be resumed, they age out like failing ones
+                    if (System.currentTimeMillis() - dir.lastModified() > MAX_AGE) {
+                        LOGGER.log(Level.WARNING, "Discarding the unreadable Klaros-Testmanagement export " + dir,
+                            e);
+                        delete(dir);
+                    } else {
+                        LOGGER.log(Level.WARNING, "Unable to resume the Klaros-Testmanagement export " + dir, e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop the background uploader. Spooled exports are resumed on the next start.
+     */
+    synchronized void stop() {
+
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Create a new spool entry for a build.
+     *
+     * @param build the build
+     * @return the spool entry
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    ExportSpoolEntry create(final Run<?, ?> build) throws IOException {
+
+        final String name =
+            Util.getDigestOf(build.getParent().getFullName()).substring(0, 8) + '-' + build.getNumber() + '-'
+                + System.currentTimeMillis();
+        final File dir = new File(getSpoolDir(), name);
+        if (!dir.mkdirs()) {
+            throw new IOException("Unable to create the export spool directory " + dir);
+        }
+        return new ExportSpoolEntry(dir, build.getParent().getFullName(), build.getNumber());
+    }
+
+    /**
+     * Queue a spooled export for uploading.
+     *
+     * @param entry the spool entry
+     */
+    void submit(final ExportSpoolEntry entry) {
+
+        schedule(entry, 0);
+    }
+
+    /**
+     * Discard a spool entry.
+     *
+     * @param entry the spool entry
+     */
+    void discard(final ExportSpoolEntry entry) {
+
+        delete(entry.getDir());
+    }
+
+    /**
+     * Delete a spool directory, logging failures.
+     *
+     * @param dir the spool directory
+     */
+    private static void delete(final File dir) {
+
+        try {
+            Util.deleteRecursive(dir);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to delete the export spool directory " + dir, e);
+        }
+    }
+
+    /**
+     * Register a listener for the end of a spooled export. The listener is called right away if the export
+     * is already finished.
+     *
+     * @param run the run the export belongs to
+     * @param id the id of the spooled export
+     * @param listener the listener
+     * @return false if the run holds no such export
+     */
+    boolean addListener(final Run<?, ?> run, final String id, final Listener listener) {
+
+        final KlarosExportAction action = KlarosExportAction.find(run, id);
+        if (action == null) {
+            return false;
+        }
+        synchronized (listeners) {
+            // The state is updated before the listeners are notified, so no notification is missed
+            if (action.getState() == KlarosExportAction.State.PENDING) {
+                List<Listener> pending = listeners.get(id);
+                if (pending == null) {
+                    pending = new ArrayList<>();
+                    listeners.put(id, pending);
+                }
+                pending.add(listener);
+                return true;
+            }
+        }
+        listener.finished(action.getState(), action.getMessage());
+        return true;
+    }
+
+    /**
+     * Remove a listener registered for the end of a spooled export.
+     *
+     * @param id the id of the spooled export
+     * @param listener the listener
+     */
+    void removeListener(final String id, final Listener listener) {
+
+        synchronized (listeners) {
+            final List<Listener> pending = listeners.get(id);
+            if (pending != null) {
+                pending.remove(listener);
+                if (pending.isEmpty()) {
+                    listeners.remove(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedule the upload of a spooled export.
+     *
+     * @param entry the spool entry
+     * @param delay the delay in milliseconds
+     */
+    private synchronized void schedule(final ExportSpoolEntry entry, final long delay) {
+
+        if (executor == null) {
+            // Not started yet or shutting down, the entry is picked up on the next start
+            return;
+        }
+        executor.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+
+                export(entry);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Upload a spooled export. Files already handled by a previous attempt are skipped.
+     *
+     * @param entry the spool entry
+     */
+    private void export(final ExportSpoolEntry entry) {
+
+        final ExportIndex accepted = new ExportIndex();
+        final ExportStatistics statistics = new ExportStatistics();
+        final ExportReport report = new ExportReport();
+        final long started = System.currentTimeMillis();
+        try {
+            upload(entry, accepted, statistics, report);
+            recordAccepted(entry, accepted);
+            recordReport(entry, report, started, true);
+            if (entry.getRejected() == 0) {
+                finish(entry, KlarosExportAction.State.EXPORTED, null);
+            } else {
+                finish(entry, KlarosExportAction.State.FAILED, entry.getRejected() + " test result file(s) rejected: "
+                    + entry.getMessage());
+            }
+        } catch (IOException | RuntimeException e) {
+            recordAccepted(entry, accepted);
+            final int attempts = entry.attemptFailed(e.getMessage());
+            if (System.currentTimeMillis() - entry.getCreated() > MAX_AGE) {
+                LOGGER.log(Level.WARNING, "Giving up the Klaros-Testmanagement export " + entry.getId(), e);
+                recordReport(entry, report, started, true);
+                finish(entry, KlarosExportAction.State.FAILED, e.getMessage());
+            } else {
+                LOGGER.log(Level.FINE, "Klaros-Testmanagement export " + entry.getId() + " failed", e);
+                recordReport(entry, report, started, false);
+                saveQuietly(entry);
+                updateAction(entry, KlarosExportAction.State.PENDING, e.getMessage());
+                final long delay = Math.min(MAX_RETRY_DELAY, RETRY_DELAY << Math.min(attempts - 1, 16));
+                // Spread the retries of exports which failed together
+                schedule(entry, delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+            }
+        } finally {
+            KlarosMetricsAction.record(statistics);
+        }
+    }
+
+    /**
+     * Upload the result files of a spooled export.
+     *
+     * @param entry the spool entry
+     * @param accepted the index to record the accepted files in
+     * @param statistics the statistics to record the requests in
+     * @param report the report to record the requests in
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private void upload(final ExportSpoolEntry entry, final ExportIndex accepted,
+        final ExportStatistics statistics, final ExportReport report) throws IOException {
+
+        final String strURL = KlarosTestResultPublisher.buildServletURL(entry.getKlarosUrl());
+        final KlarosTestResultPublisher.DescriptorImpl descriptor = getDescriptor();
+        final int readTimeout =
+            descriptor != null ? (int) TimeUnit.SECONDS.toMillis(descriptor.getReadTimeout())
+                : HttpClientPool.DEFAULT_READ_TIMEOUT;
+        final HttpClient httpclient =
+            descriptor != null ? descriptor.getClient(entry.getKlarosUrl()) : HttpClientPool.getClient(entry
+                .getKlarosUrl(), HttpClientPool.DEFAULT_CONNECT_TIMEOUT, readTimeout);
+        final CircuitBreaker breaker = CircuitBreaker.get(entry.getKlarosUrl(), getRetryPolicy());
+        final UploadThrottle.Session leases =
+            descriptor != null ? descriptor.openThrottle(entry.getKlarosUrl(), entry.getJob(), entry.getPriority(),
+                entry.getWeight()) : null;
+        final List<ExportSpoolEntry.SpooledFile> files = entry.getFiles();
+
+        try (TarInputStream tar = new TarInputStream(new GZIPInputStream(new FileInputStream(entry.getArchive())))) {
+            int index = 0;
+            TarEntry tarEntry;
+            while ((tarEntry = tar.getNextEntry()) != null && index < files.size()) {
+                final ExportSpoolEntry.SpooledFile file = files.get(index++);
+                if (index <= entry.getExported()) {
+                    continue;
+                }
+
+                final String format = entry.getFormat(file.getBatch());
+                final ExportStatistics.Series series = statistics.get(entry.getKlarosUrl(), format);
+                if (!breaker.allowRequest()) {
+                    series.request(ExportStatistics.STATUS_UNAVAILABLE, 0, 0, 0, 0, -1);
+                    report.add(new ExportReport.Entry(file.getName(), format,
+                        ExportStatistics.STATUS_UNAVAILABLE, 1, tarEntry.getSize(), 0, -1, 0, null));
+                    throw new IOException("The Klaros-Testmanagement server at " + entry.getKlarosUrl()
+                        + " is unavailable");
+                }
+                final PutMethod put = new PutMethod(strURL);
+                put.setQueryString(entry.getQuery(file.getBatch()));
+                put.getParams().setSoTimeout(readTimeout);
+                if (file.getDigest() != null) {
+                    put.setRequestHeader(ResultFileRequestEntity.DIGEST_HEADER, file.getDigest());
+                }
+                put.setRequestEntity(new InputStreamRequestEntity(new CloseShieldInputStream(tar), tarEntry
+                    .getSize(), KlarosTestResultPublisher.RESULT_CONTENT_TYPE));
+                if (leases != null) {
+                    try {
+                        leases.acquire(tarEntry.getSize(), 0L);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for an upload lease");
+                    }
+                }
+                try {
+                    final int result;
+                    final long start = System.currentTimeMillis();
+                    try {
+                        result = httpclient.executeMethod(put);
+                    } catch (IOException e) {
+                        breaker.recordFailure();
+                        series.request(ExportStatistics.STATUS_ERROR, 0, 0, 0, 0, -1);
+                        report.add(new ExportReport.Entry(file.getName(), format, ExportStatistics.STATUS_ERROR, 1,
+                            tarEntry.getSize(), 0, System.currentTimeMillis() - start, 0, e.toString()));
+                        if (RetryPolicy.isTransient(e)) {
+                            throw e;
+                        }
+                        // The server may have imported the file already, so it is not sent again
+                        entry.fileExported("Export of " + file.getName() + " failed - " + e);
+                        entry.saveProgress();
+                        continue;
+                    }
+                    final long duration = System.currentTimeMillis() - start;
+                    final boolean ok = result == HttpServletResponse.SC_OK;
+                    series.request(String.valueOf(result), ok ? 1 : 0, ok ? tarEntry.getSize() : 0,
+                        ok ? tarEntry.getSize() : 0, 0, duration);
+                    final String response = ok ? null : put.getResponseBodyAsString();
+                    report.add(new ExportReport.Entry(file.getName(), format, String.valueOf(result), 1, tarEntry
+                        .getSize(), tarEntry.getSize(), duration, 0, response));
+                    if (RetryPolicy.isServerFailure(result)) {
+                        breaker.recordFailure();
+                    } else {
+                        breaker.recordSuccess();
+                    }
+                    if (RetryPolicy.isTransient(result)) {
+                        throw new IOException("Export of " + file.getName() + " failed - Response status code: "
+                            + result);
+                    } else if (result != HttpServletResponse.SC_OK) {
+                        // Permanent failures are not repeated, the server may have imported the file anyway
+                        entry.fileExported("Export of " + file.getName() + " failed - Response status code: "
+                            + result + " Reason: " + response);
+                    } else {
+                        entry.fileExported(null);
+                        accepted.add(file.getStatusKey(), file.getDigest(), entry.getIdentities().get(
+                            file.getBatch()));
+                    }
+                } finally {
+                    put.releaseConnection();
+                    if (leases != null) {
+                        leases.release();
+                    }
+                }
+
+                // Files accepted before a restart must not be sent again
+                entry.saveProgress();
+                if (entry.getExported() % SAVE_INTERVAL == 0) {
+                    entry.save();
+                    updateAction(entry, KlarosExportAction.State.PENDING, null);
+                }
+            }
+        } finally {
+            if (leases != null) {
+                leases.close();
+            }
+        }
+    }
+
+    /**
+     * Gets the descriptor holding the global configuration.
+     *
+     * @return the descriptor or null if Jenkins is not available
+     */
+    private static KlarosTestResultPublisher.DescriptorImpl getDescriptor() {
+
+        final Jenkins jenkins = Jenkins.getInstance();
+        return jenkins != null ? jenkins.getDescriptorByType(KlarosTestResultPublisher.DescriptorImpl.class) : null;
+    }
+
+    /**
+     * Gets the globally configured retry policy.
+     *
+     * @return the retry policy
+     */
+    private static RetryPolicy getRetryPolicy() {
+
+        final KlarosTestResultPublisher.DescriptorImpl descriptor = getDescriptor();
+        if (descriptor != null) {
+            return descriptor.createRetryPolicy();
+        }
+        return new RetryPolicy(RetryPolicy.DEFAULT_RETRIES, RetryPolicy.DEFAULT_RETRY_DELAY,
+            RetryPolicy.DEFAULT_FAILURE_THRESHOLD, RetryPolicy.DEFAULT_OPEN_DURATION);
+    }
+
+    /**
+     * Record the files accepted by an export attempt in the export index of the job.
+     *
+     * @param entry the spool entry
+     * @param accepted the accepted files
+     */
+    private void recordAccepted(final ExportSpoolEntry entry, final ExportIndex accepted) {
+
+        final Job<?, ?> job = getJob(entry);
+        if (job != null) {
+            try {
+                ExportIndex.record(job.getRootDir(), accepted);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to update the export index of " + entry.getJob(), e);
+            }
+        }
+    }
+
+    /**
+     * Record the requests of an export attempt in the export report of the build. Once the export has ended,
+     * it is appended to the export trend of the job.
+     *
+     * @param entry the spool entry
+     * @param report the report of the attempt
+     * @param started the time the attempt was started
+     * @param finished true, if the export has ended
+     */
+    private void recordReport(final ExportSpoolEntry entry, final ExportReport report, final long started,
+        final boolean finished) {
+
+        report.setDuration(System.currentTimeMillis() - started);
+        final Job<?, ?> job = getJob(entry);
+        final Run<?, ?> build = job != null ? job.getBuildByNumber(entry.getBuild()) : null;
+        if (build == null) {
+            return;
+        }
+        KlarosReportAction.record(build, report);
+        final KlarosReportAction action = build.getAction(KlarosReportAction.class);
+        if (finished && action != null) {
+            try {
+                ExportTrend.append(job.getRootDir(), build.getNumber(), System.currentTimeMillis(), action
+                    .getReport());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to update the export trend of " + entry.getJob(), e);
+            }
+        }
+    }
+
+    /**
+     * Finish a spooled export and remove it from the spool.
+     *
+     * @param entry the spool entry
+     * @param state the final state
+     * @param message the failure reason, if any
+     */
+    private void finish(final ExportSpoolEntry entry, final KlarosExportAction.State state, final String message) {
+
+        updateAction(entry, state, message);
+        discard(entry);
+
+        final List<Listener> pending;
+        synchronized (listeners) {
+            pending = listeners.remove(entry.getId());
+        }
+        if (pending != null) {
+            for (Listener listener : pending) {
+                listener.finished(state, message);
+            }
+        }
+    }
+
+    /**
+     * Save a spool entry, logging failures.
+     *
+     * @param entry the spool entry
+     */
+    private void saveQuietly(final ExportSpoolEntry entry) {
+
+        try {
+            entry.save();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to save the export spool entry " + entry.getId(), e);
+        }
+    }
+
+    /**
+     * Update the export action of the build of a spool entry.
+     *
+     * @param entry the spool entry
+     * @param state the export state
+     * @param message the failure reason, if any
+     */
+    private void updateAction(final ExportSpoolEntry entry, final KlarosExportAction.State state,
+        final String message) {
+
+        final Job<?, ?> job = getJob(entry);
+        final Run<?, ?> build = job != null ? job.getBuildByNumber(entry.getBuild()) : null;
+        final KlarosExportAction action = build != null ? KlarosExportAction.find(build, entry.getId()) : null;
+        if (action != null) {
+            action.update(state, entry.getExported(), message);
+            try {
+                build.save();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to save " + build, e);
+            }
+        }
+    }
+
+    /**
+     * Gets the job of a spool entry.
+     *
+     * @param entry the spool entry
+     * @return the job or null if it no longer exists
+     */
+    private static Job<?, ?> getJob(final ExportSpoolEntry entry) {
+
+        final Jenkins jenkins = Jenkins.getInstance();
+        return jenkins != null ? jenkins.getItemByFullName(entry.getJob(), Job.class) : null;
+    }
+}
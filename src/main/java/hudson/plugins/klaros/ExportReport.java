@@ -0,0 +1,328 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The report of the requests sent by a test result export: one entry per uploaded file or archive with its
+ * status, size, latency, retries and the response of the Klaros-Testmanagement server. Reports are stored
+ * with the build, so at most {@link #MAX_ENTRIES} entries are kept and the rest are only counted.
+ */
+public final class ExportReport implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The maximum number of entries kept per report. */
+    static final int MAX_ENTRIES = 1000;
+
+    /** The maximum length of a kept server response. */
+    static final int MAX_RESPONSE = 500;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private int omitted;
+    private int files;
+    private int failed;
+    private long rawBytes;
+    private long sentBytes;
+    private long duration;
+
+    /**
+     * Add the entry of a request.
+     *
+     * @param entry the entry
+     */
+    synchronized void add(final Entry entry) {
+
+        if (entry.isAccepted()) {
+            files += entry.files;
+            rawBytes += entry.rawBytes;
+            sentBytes += entry.sentBytes;
+        } else {
+            failed += entry.files;
+        }
+        if (entries.size() < MAX_ENTRIES) {
+            entries.add(entry);
+        } else {
+            omitted++;
+        }
+    }
+
+    /**
+     * Add the entries and the duration of another report to this one.
+     *
+     * @param other the other report
+     */
+    synchronized void add(final ExportReport other) {
+
+        for (Entry entry : other.getEntries()) {
+            add(entry);
+        }
+        synchronized (other) {
+            omitted += other.omitted;
+            duration += other.duration;
+        }
+    }
+
+    /**
+     * Record the time the export took.
+     *
+     * @param millis the duration in milliseconds
+     */
+    synchronized void setDuration(final long millis) {
+
+        duration = millis;
+    }
+
+    /**
+     * Gets the kept entries.
+     *
+     * @return the entries in the order the requests ended
+     */
+    public synchronized List<Entry> getEntries() {
+
+        return Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    /**
+     * Gets the number of entries not kept.
+     *
+     * @return the number of omitted entries
+     */
+    public synchronized int getOmitted() {
+
+        return omitted;
+    }
+
+    /**
+     * Gets the number of accepted result files.
+     *
+     * @return the number of accepted files
+     */
+    public synchronized int getFiles() {
+
+        return files;
+    }
+
+    /**
+     * Gets the number of result files which were not accepted.
+     *
+     * @return the number of failed files
+     */
+    public synchronized int getFailed() {
+
+        return failed;
+    }
+
+    /**
+     * Gets the uncompressed size of the accepted result files.
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getRawBytes() {
+
+        return rawBytes;
+    }
+
+    /**
+     * Gets the number of bytes sent for the accepted result files.
+     *
+     * @return the size in bytes
+     */
+    public synchronized long getSentBytes() {
+
+        return sentBytes;
+    }
+
+    /**
+     * Gets the time the export took.
+     *
+     * @return the duration in milliseconds
+     */
+    public synchronized long getDuration() {
+
+        return duration;
+    }
+
+    /**
+     * Gets the export throughput.
+     *
+     * @return the uncompressed bytes accepted per second, 0 if unknown
+     */
+    public synchronized long getThroughput() {
+
+        return duration > 0 ? rawBytes * 1000L / duration : 0L;
+    }
+
+    /**
+     * The report of a single request.
+     */
+    public static final class Entry implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final String format;
+        private final String status;
+        private final int files;
+        private final long rawBytes;
+        private final long sentBytes;
+        private final long duration;
+        private final int retries;
+        private final String response;
+
+        /**
+         * Instantiates a new entry.
+         *
+         * @param name the name of the uploaded file or archive
+         * @param format the result format
+         * @param status the http return code or one of the {@link ExportStatistics} status labels
+         * @param files the number of result files sent with the request
+         * @param rawBytes the uncompressed size in bytes
+         * @param sentBytes the number of bytes sent
+         * @param duration the duration of the last attempt in milliseconds, -1 if not sent
+         * @param retries the number of retries
+         * @param response the response of the server, may be null
+         */
+        Entry(final String name, final String format, final String status, final int files,
+            final long rawBytes, final long sentBytes, final long duration, final int retries,
+            final String response) {
+
+            this.name = name;
+            this.format = format;
+            this.status = status;
+            this.files = files;
+            this.rawBytes = rawBytes;
+            this.sentBytes = sentBytes;
+            this.duration = duration;
+            this.retries = retries;
+            this.response = StringUtils.abbreviate(StringUtils.trimToNull(response), MAX_RESPONSE);
+        }
+
+        /**
+         * Checks if the server accepted the request.
+         *
+         * @return true, if accepted
+         */
+        public boolean isAccepted() {
+
+            return "200".equals(status);
+        }
+
+        /**
+         * Gets the name of the uploaded file or archive.
+         *
+         * @return the name
+         */
+        public String getName() {
+
+            return name;
+        }
+
+        /**
+         * Gets the result format.
+         *
+         * @return the format
+         */
+        public String getFormat() {
+
+            return format;
+        }
+
+        /**
+         * Gets the http return code or the reason why no response was received.
+         *
+         * @return the status
+         */
+        public String getStatus() {
+
+            return status;
+        }
+
+        /**
+         * Gets the number of result files sent with the request.
+         *
+         * @return the number of files
+         */
+        public int getFiles() {
+
+            return files;
+        }
+
+        /**
+         * Gets the uncompressed size.
+         *
+         * @return the size in bytes
+         */
+        public long getRawBytes() {
+
+            return rawBytes;
+        }
+
+        /**
+         * Gets the number of bytes sent.
+         *
+         * @return the size in bytes
+         */
+        public long getSentBytes() {
+
+            return sentBytes;
+        }
+
+        /**
+         * Gets the duration of the last attempt.
+         *
+         * @return the duration in milliseconds, -1 if not sent
+         */
+        public long getDuration() {
+
+            return duration;
+        }
+
+        /**
+         * Gets the number of retries.
+         *
+         * @return the number of retries
+         */
+        public int getRetries() {
+
+            return retries;
+        }
+
+        /**
+         * Gets the response of the server.
+         *
+         * @return the response, may be null
+         */
+        public String getResponse() {
+
+            return response;
+        }
+    }
+}
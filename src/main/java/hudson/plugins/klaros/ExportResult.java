@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The result of a test result export, returned from the exporting node to the master.
+ */
+final class ExportResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ExportIndex accepted = new ExportIndex();
+    private final List<String> spoolQueries = new ArrayList<>();
+    private final List<String> spoolIdentities = new ArrayList<>();
+    private final List<String> spoolFormats = new ArrayList<>();
+    private final ExportStatistics statistics = new ExportStatistics();
+    private final List<ExportSpoolEntry.SpooledFile> spooledFiles = new ArrayList<>();
+    private final ResultSummary summary = new ResultSummary();
+    private final ExportReport report = new ExportReport();
+
+    /**
+     * Gets the index entries of the files accepted by this export.
+     *
+     * @return the accepted files
+     */
+    ExportIndex getAccepted() {
+
+        return accepted;
+    }
+
+    /**
+     * Gets the query strings without credentials of the spooled result sets.
+     *
+     * @return the spool queries, one per result set
+     */
+    List<String> getSpoolQueries() {
+
+        return spoolQueries;
+    }
+
+    /**
+     * Gets the import parameter identities of the spooled result sets.
+     *
+     * @return the spool identities, one per result set
+     */
+    List<String> getSpoolIdentities() {
+
+        return spoolIdentities;
+    }
+
+    /**
+     * Gets the expanded result formats of the spooled result sets.
+     *
+     * @return the spool formats, one per result set
+     */
+    List<String> getSpoolFormats() {
+
+        return spoolFormats;
+    }
+
+    /**
+     * Gets the statistics of the requests sent by this export.
+     *
+     * @return the export statistics
+     */
+    ExportStatistics getStatistics() {
+
+        return statistics;
+    }
+
+    /**
+     * Gets the result files written to the spool archive, in archive order.
+     *
+     * @return the spooled files
+     */
+    List<ExportSpoolEntry.SpooledFile> getSpooledFiles() {
+
+        return spooledFiles;
+    }
+
+    /**
+     * Gets the summary of the tests in the exported or spooled result files.
+     *
+     * @return the result summary
+     */
+    ResultSummary getSummary() {
+
+        return summary;
+    }
+
+    /**
+     * Gets the report of the requests sent by this export.
+     *
+     * @return the export report
+     */
+    ExportReport getReport() {
+
+        return report;
+    }
+}
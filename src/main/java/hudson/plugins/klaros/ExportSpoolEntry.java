@@ -0,0 +1,466 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import hudson.XmlFile;
+import hudson.util.AtomicFileWriter;
+import hudson.util.Secret;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * A build export waiting in the spool of the {@link ExportQueue}. The result files are stored in a gzip
+ * compressed tar archive next to the entry descriptor, in the order they are listed here.
+ */
+final class ExportSpoolEntry {
+
+    /** The name of the entry descriptor file. */
+    static final String DESCRIPTOR_NAME = "entry.xml";
+
+    /** The name of the file holding the number of handled files, saved after each file. */
+    static final String PROGRESS_NAME = "progress.txt";
+
+    /** The name of the result file archive. */
+    static final String ARCHIVE_NAME = "results.tar.gz";
+
+    private String job;
+    private int build;
+    private String klarosUrl;
+    private String username;
+    private Secret password;
+    private long created;
+
+    /** The query strings without credentials, one per result set. */
+    private List<String> queries = new ArrayList<>();
+
+    /** The import parameter identities, one per result set. */
+    private List<String> identities = new ArrayList<>();
+
+    /** The expanded result formats, one per result set. */
+    private List<String> formats = new ArrayList<>();
+
+    /** The spooled result files in archive order. */
+    private List<SpooledFile> files = new ArrayList<>();
+
+    /** The number of files already handled, successfully or not. */
+    private int exported;
+
+    /** The number of files rejected by the server. */
+    private int rejected;
+
+    /** The number of export attempts. */
+    private int attempts;
+
+    /** The last failure reason. */
+    private String message;
+
+    /** The priority class of the uploads, null for entries spooled by an older version. */
+    private String priority;
+
+    /** The share of the uploads within the priority class, zero for entries spooled by an older version. */
+    private int weight;
+
+    private transient File dir;
+
+    /**
+     * Instantiates a new export spool entry.
+     *
+     * @param dir the entry directory
+     * @param job the full name of the job
+     * @param build the build number
+     */
+    ExportSpoolEntry(final File dir, final String job, final int build) {
+
+        this.dir = dir;
+        this.job = job;
+        this.build = build;
+        this.created = System.currentTimeMillis();
+    }
+
+    /**
+     * Load a spool entry.
+     *
+     * @param dir the entry directory
+     * @return the spool entry
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    static ExportSpoolEntry load(final File dir) throws IOException {
+
+        final ExportSpoolEntry entry = (ExportSpoolEntry) new XmlFile(new File(dir, DESCRIPTOR_NAME)).read();
+        entry.dir = dir;
+        entry.loadProgress();
+        return entry;
+    }
+
+    /**
+     * Apply the progress saved after the descriptor.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private void loadProgress() throws IOException {
+
+        final File file = new File(dir, PROGRESS_NAME);
+        if (!file.exists()) {
+            return;
+        }
+        final String[] lines = FileUtils.readFileToString(file, "UTF-8").split("\n", 3);
+        final String[] counts = lines[0].trim().split(" ");
+        try {
+            if (counts.length == 2 && Integer.parseInt(counts[0]) > exported) {
+                exported = Integer.parseInt(counts[0]);
+                rejected = Integer.parseInt(counts[1]);
+                message = lines.length > 1 && !lines[1].isEmpty() ? lines[1] : message;
+            }
+        } catch (NumberFormatException e) {
+            // Keep the progress of the descriptor
+        }
+    }
+
+    /**
+     * Save the number of handled files. Unlike the descriptor, which lists all spooled files, the progress
+     * file is small enough to be written after each file.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    synchronized void saveProgress() throws IOException {
+
+        final AtomicFileWriter writer = new AtomicFileWriter(new File(dir, PROGRESS_NAME), "UTF-8");
+        try {
+            writer.write(exported + " " + rejected + "\n"
+                + (message != null ? message.replace('\n', ' ').replace('\r', ' ') : "") + "\n");
+            writer.commit();
+        } finally {
+            writer.abort();
+        }
+    }
+
+    /**
+     * Save this entry descriptor.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    synchronized void save() throws IOException {
+
+        new XmlFile(new File(dir, DESCRIPTOR_NAME)).write(this);
+    }
+
+    /**
+     * Gets the entry id.
+     *
+     * @return the id
+     */
+    String getId() {
+
+        return dir.getName();
+    }
+
+    /**
+     * Gets the result file archive.
+     *
+     * @return the archive
+     */
+    File getArchive() {
+
+        return new File(dir, ARCHIVE_NAME);
+    }
+
+    /**
+     * Gets the entry directory.
+     *
+     * @return the directory
+     */
+    File getDir() {
+
+        return dir;
+    }
+
+    /**
+     * Gets the full name of the job.
+     *
+     * @return the job name
+     */
+    String getJob() {
+
+        return job;
+    }
+
+    /**
+     * Gets the build number.
+     *
+     * @return the build number
+     */
+    int getBuild() {
+
+        return build;
+    }
+
+    /**
+     * Gets the Klaros application url.
+     *
+     * @return the url
+     */
+    String getKlarosUrl() {
+
+        return klarosUrl;
+    }
+
+    /**
+     * Gets the creation time.
+     *
+     * @return the creation time in milliseconds
+     */
+    long getCreated() {
+
+        return created;
+    }
+
+    /**
+     * Gets the spooled result files in archive order.
+     *
+     * @return the spooled files
+     */
+    List<SpooledFile> getFiles() {
+
+        return files;
+    }
+
+    /**
+     * Gets the import parameter identities, one per result set.
+     *
+     * @return the identities
+     */
+    List<String> getIdentities() {
+
+        return identities;
+    }
+
+    /**
+     * Gets the expanded result format of a result set.
+     *
+     * @param batch the result set index
+     * @return the format, "unknown" for entries spooled by an older version
+     */
+    String getFormat(final int batch) {
+
+        return formats != null && batch < formats.size() ? formats.get(batch) : "unknown";
+    }
+
+    /**
+     * Gets the number of files already handled.
+     *
+     * @return the number of handled files
+     */
+    synchronized int getExported() {
+
+        return exported;
+    }
+
+    /**
+     * Gets the number of files rejected by the server.
+     *
+     * @return the number of rejected files
+     */
+    synchronized int getRejected() {
+
+        return rejected;
+    }
+
+    /**
+     * Gets the last failure reason.
+     *
+     * @return the message
+     */
+    synchronized String getMessage() {
+
+        return message;
+    }
+
+    /**
+     * Sets the export target and the content of this entry.
+     *
+     * @param url the Klaros application url
+     * @param user the expanded user name
+     * @param pass the expanded password
+     * @param result the result of spooling the files
+     */
+    void setContent(final String url, final String user, final String pass, final ExportResult result) {
+
+        this.klarosUrl = url;
+        this.username = user;
+        this.password = Secret.fromString(pass);
+        this.queries = new ArrayList<>(result.getSpoolQueries());
+        this.identities = new ArrayList<>(result.getSpoolIdentities());
+        this.formats = new ArrayList<>(result.getSpoolFormats());
+        this.files = new ArrayList<>(result.getSpooledFiles());
+    }
+
+    /**
+     * Sets the scheduling parameters of the uploads of this entry.
+     *
+     * @param value the priority class
+     * @param share the share of the uploads within the priority class
+     */
+    void setScheduling(final String value, final int share) {
+
+        this.priority = value;
+        this.weight = share;
+    }
+
+    /**
+     * Gets the priority class of the uploads.
+     *
+     * @return the priority class
+     */
+    String getPriority() {
+
+        return priority != null ? priority : UploadThrottle.PRIORITY_NORMAL;
+    }
+
+    /**
+     * Gets the share of the uploads within the priority class.
+     *
+     * @return the weight, at least 1
+     */
+    int getWeight() {
+
+        return weight > 0 ? weight : UploadThrottle.DEFAULT_WEIGHT;
+    }
+
+    /**
+     * Gets the complete query string of a result set, including the credentials.
+     *
+     * @param batch the result set index
+     * @return the query string
+     */
+    String getQuery(final int batch) {
+
+        final QueryString query = new QueryString().addEncoded(queries.get(batch));
+        if (StringUtils.isNotBlank(username)) {
+            query.add("username", username).add("password", Secret.toString(password));
+        }
+        return query.toString();
+    }
+
+    /**
+     * Record a handled file.
+     *
+     * @param failure the rejection reason or null if the file was accepted
+     */
+    synchronized void fileExported(final String failure) {
+
+        exported++;
+        if (failure != null) {
+            rejected++;
+            message = failure;
+        }
+    }
+
+    /**
+     * Record a failed export attempt.
+     *
+     * @param reason the failure reason
+     * @return the number of attempts so far
+     */
+    synchronized int attemptFailed(final String reason) {
+
+        message = reason;
+        return ++attempts;
+    }
+
+    /**
+     * A single spooled result file.
+     */
+    static final class SpooledFile implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int batch;
+        private final String name;
+        private final String statusKey;
+        private final String digest;
+
+        /**
+         * Instantiates a new spooled file.
+         *
+         * @param batch the result set index
+         * @param name the archive entry name
+         * @param statusKey the export index status key of the original file
+         * @param digest the content digest
+         */
+        SpooledFile(final int batch, final String name, final String statusKey, final String digest) {
+
+            this.batch = batch;
+            this.name = name;
+            this.statusKey = statusKey;
+            this.digest = digest;
+        }
+
+        /**
+         * Gets the result set index.
+         *
+         * @return the result set index
+         */
+        int getBatch() {
+
+            return batch;
+        }
+
+        /**
+         * Gets the archive entry name.
+         *
+         * @return the name
+         */
+        String getName() {
+
+            return name;
+        }
+
+        /**
+         * Gets the export index status key of the original file.
+         *
+         * @return the status key
+         */
+        String getStatusKey() {
+
+            return statusKey;
+        }
+
+        /**
+         * Gets the content digest.
+         *
+         * @return the digest
+         */
+        String getDigest() {
+
+            return digest;
+        }
+    }
+}
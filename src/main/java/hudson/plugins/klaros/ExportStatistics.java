@@ -0,0 +1,359 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counters and latency histograms of test result exports, labelled by Klaros URL and result format. The
+ * exporting node collects the statistics of a single export and returns them to the master, which merges
+ * them into the statistics shown by the {@link KlarosMetricsAction}.
+ */
+final class ExportStatistics implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The upper bounds of the histogram buckets in seconds. */
+    static final double[] BUCKETS = {0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300, 900};
+
+    /** The status label of requests which failed without a response. */
+    static final String STATUS_ERROR = "error";
+
+    /** The status label of requests not sent because the server is unavailable. */
+    static final String STATUS_UNAVAILABLE = "unavailable";
+
+    /** The status label of requests cancelled by the export deadline. */
+    static final String STATUS_CANCELLED = "cancelled";
+
+    private final Map<String, Series> series = new TreeMap<>();
+
+    /**
+     * A cumulative histogram of durations.
+     */
+    static final class Histogram implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long[] counts = new long[BUCKETS.length + 1];
+
+        private double sum;
+
+        private long count;
+
+        /**
+         * Record a duration.
+         *
+         * @param millis the duration in milliseconds
+         */
+        void observe(final long millis) {
+
+            final double seconds = millis / 1000.0;
+            int bucket = 0;
+            while (bucket < BUCKETS.length && seconds > BUCKETS[bucket]) {
+                bucket++;
+            }
+            counts[bucket]++;
+            sum += seconds;
+            count++;
+        }
+
+        /**
+         * Add the observations of another histogram.
+         *
+         * @param other the other histogram
+         */
+        void merge(final Histogram other) {
+
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            sum += other.sum;
+            count += other.count;
+        }
+
+        /**
+         * Gets the number of observations per bucket, the last bucket holding the observations above the
+         * largest bound.
+         *
+         * @return the bucket counts, not cumulative
+         */
+        long[] getCounts() {
+
+            return counts.clone();
+        }
+
+        /**
+         * Gets the sum of all observations.
+         *
+         * @return the sum in seconds
+         */
+        double getSum() {
+
+            return sum;
+        }
+
+        /**
+         * Gets the number of observations.
+         *
+         * @return the count
+         */
+        long getCount() {
+
+            return count;
+        }
+    }
+
+    /**
+     * The statistics of a single Klaros URL and result format.
+     */
+    static final class Series implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String url;
+        private final String format;
+        private long files;
+        private long rawBytes;
+        private long sentBytes;
+        private long retries;
+        private final Map<String, Long> statusCodes = new TreeMap<>();
+        private final Histogram uploadDuration = new Histogram();
+        private final Histogram resultSetDuration = new Histogram();
+
+        /**
+         * Instantiates a new series.
+         *
+         * @param url the Klaros application url
+         * @param format the result format
+         */
+        private Series(final String url, final String format) {
+
+            this.url = url;
+            this.format = format;
+        }
+
+        /**
+         * Record a request.
+         *
+         * @param status the http status code or one of the status labels
+         * @param files the number of result files accepted by the request
+         * @param rawBytes the uncompressed size of the accepted files
+         * @param sentBytes the number of bytes sent for the accepted files
+         * @param retries the number of retries of the request
+         * @param millis the duration of the last attempt in milliseconds
+         */
+        void request(final String status, final int files, final long rawBytes, final long sentBytes,
+            final int retries, final long millis) {
+
+            final Long count = statusCodes.get(status);
+            statusCodes.put(status, count != null ? count + 1 : 1L);
+            this.files += files;
+            this.rawBytes += rawBytes;
+            this.sentBytes += sentBytes;
+            this.retries += retries;
+            if (millis >= 0) {
+                uploadDuration.observe(millis);
+            }
+        }
+
+        /**
+         * Record the duration of a result set export.
+         *
+         * @param millis the duration in milliseconds
+         */
+        void resultSet(final long millis) {
+
+            resultSetDuration.observe(millis);
+        }
+
+        /**
+         * Add the values of another series.
+         *
+         * @param other the other series
+         */
+        private void merge(final Series other) {
+
+            files += other.files;
+            rawBytes += other.rawBytes;
+            sentBytes += other.sentBytes;
+            retries += other.retries;
+            for (Map.Entry<String, Long> status : other.statusCodes.entrySet()) {
+                final Long count = statusCodes.get(status.getKey());
+                statusCodes.put(status.getKey(), count != null ? count + status.getValue() : status.getValue());
+            }
+            uploadDuration.merge(other.uploadDuration);
+            resultSetDuration.merge(other.resultSetDuration);
+        }
+
+        /**
+         * Creates a copy of this series.
+         *
+         * @return the copy
+         */
+        private Series copy() {
+
+            final Series copy = new Series(url, format);
+            copy.merge(this);
+            return copy;
+        }
+
+        /**
+         * Gets the Klaros URL.
+         *
+         * @return the url
+         */
+        String getUrl() {
+
+            return url;
+        }
+
+        /**
+         * Gets the result format.
+         *
+         * @return the format
+         */
+        String getFormat() {
+
+            return format;
+        }
+
+        /**
+         * Gets the number of accepted result files.
+         *
+         * @return the number of files
+         */
+        long getFiles() {
+
+            return files;
+        }
+
+        /**
+         * Gets the uncompressed size of the accepted result files.
+         *
+         * @return the number of bytes
+         */
+        long getRawBytes() {
+
+            return rawBytes;
+        }
+
+        /**
+         * Gets the number of bytes sent for the accepted result files.
+         *
+         * @return the number of bytes
+         */
+        long getSentBytes() {
+
+            return sentBytes;
+        }
+
+        /**
+         * Gets the number of retried requests.
+         *
+         * @return the number of retries
+         */
+        long getRetries() {
+
+            return retries;
+        }
+
+        /**
+         * Gets the number of requests per status.
+         *
+         * @return the request counts by status code or label
+         */
+        Map<String, Long> getStatusCodes() {
+
+            return statusCodes;
+        }
+
+        /**
+         * Gets the histogram of the request durations.
+         *
+         * @return the upload duration histogram
+         */
+        Histogram getUploadDuration() {
+
+            return uploadDuration;
+        }
+
+        /**
+         * Gets the histogram of the result set export durations.
+         *
+         * @return the result set duration histogram
+         */
+        Histogram getResultSetDuration() {
+
+            return resultSetDuration;
+        }
+    }
+
+    /**
+     * Gets the series of a Klaros URL and result format, creating it if necessary.
+     *
+     * @param url the Klaros application url
+     * @param format the result format
+     * @return the series
+     */
+    synchronized Series get(final String url, final String format) {
+
+        final String key = url + ' ' + format;
+        Series result = series.get(key);
+        if (result == null) {
+            result = new Series(url, format);
+            series.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Add the statistics of another export.
+     *
+     * @param other the other statistics
+     */
+    synchronized void merge(final ExportStatistics other) {
+
+        for (Series value : other.snapshot()) {
+            get(value.url, value.format).merge(value);
+        }
+    }
+
+    /**
+     * Creates a consistent copy of all series.
+     *
+     * @return the copied series, ordered by URL and format
+     */
+    synchronized List<Series> snapshot() {
+
+        final List<Series> result = new ArrayList<>(series.size());
+        for (Series value : series.values()) {
+            result.add(value.copy());
+        }
+        return result;
+    }
+}
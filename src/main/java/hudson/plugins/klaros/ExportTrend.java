@@ -0,0 +1,244 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The export trend of a job, stored as an append-only file of fixed size records in the job directory. A
+ * record is appended per export, so the trend of the last exports is read with a single seek from the end
+ * of the file, without loading any build records. Records of deleted builds are kept.
+ */
+final class ExportTrend {
+
+    /** The name of the trend file in the job directory. */
+    static final String FILE_NAME = "klaros-export-trend.bin";
+
+    /**
+     * The size of a record: build number, end time, duration, accepted files, failed files, uncompressed
+     * and sent bytes.
+     */
+    static final int RECORD_SIZE = 4 + 8 + 8 + 4 + 4 + 8 + 8;
+
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * Hide the utility class constructor.
+     */
+    private ExportTrend() {
+
+    }
+
+    /**
+     * Append the record of an export to the trend of a job.
+     *
+     * @param jobDir the job directory
+     * @param build the build number
+     * @param timestamp the time the export ended
+     * @param report the export report
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    static void append(final File jobDir, final int build, final long timestamp, final ExportReport report)
+        throws IOException {
+
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putInt(build).putLong(timestamp).putLong(report.getDuration()).putInt(report.getFiles()).putInt(
+            report.getFailed()).putLong(report.getRawBytes()).putLong(report.getSentBytes());
+
+        final String key = jobDir.getAbsolutePath();
+        LOCKS.putIfAbsent(key, new Object());
+        synchronized (LOCKS.get(key)) {
+            try (FileOutputStream out = new FileOutputStream(new File(jobDir, FILE_NAME), true)) {
+                // Complete a record cut short by a crash, so the following records stay aligned
+                final long length = out.getChannel().size();
+                if (length % RECORD_SIZE != 0) {
+                    out.write(new byte[RECORD_SIZE - (int) (length % RECORD_SIZE)]);
+                }
+                out.write(record.array());
+            }
+        }
+    }
+
+    /**
+     * Read the last records of the trend of a job.
+     *
+     * @param jobDir the job directory
+     * @param max the maximum number of records to read
+     * @return the records, oldest first
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    static List<Point> read(final File jobDir, final int max) throws IOException {
+
+        final List<Point> points = new ArrayList<>();
+        final File file = new File(jobDir, FILE_NAME);
+        if (!file.exists()) {
+            return points;
+        }
+        final byte[] bytes;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            final long count = in.length() / RECORD_SIZE;
+            final int n = (int) Math.min(count, max);
+            bytes = new byte[n * RECORD_SIZE];
+            in.seek((count - n) * RECORD_SIZE);
+            in.readFully(bytes);
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            final Point point = new Point(buffer);
+            if (point.build > 0) {
+                points.add(point);
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Gets the time the trend of a job was last appended to.
+     *
+     * @param jobDir the job directory
+     * @return the modification time, 0 if there is no trend
+     */
+    static long lastModified(final File jobDir) {
+
+        return new File(jobDir, FILE_NAME).lastModified();
+    }
+
+    /**
+     * A trend record.
+     */
+    static final class Point {
+
+        private final int build;
+        private final long timestamp;
+        private final long duration;
+        private final int files;
+        private final int failed;
+        private final long rawBytes;
+        private final long sentBytes;
+
+        /**
+         * Read a record.
+         *
+         * @param buffer the buffer positioned at the record
+         */
+        private Point(final ByteBuffer buffer) {
+
+            build = buffer.getInt();
+            timestamp = buffer.getLong();
+            duration = buffer.getLong();
+            files = buffer.getInt();
+            failed = buffer.getInt();
+            rawBytes = buffer.getLong();
+            sentBytes = buffer.getLong();
+        }
+
+        /**
+         * Gets the build number.
+         *
+         * @return the build number
+         */
+        int getBuild() {
+
+            return build;
+        }
+
+        /**
+         * Gets the time the export ended.
+         *
+         * @return the timestamp
+         */
+        long getTimestamp() {
+
+            return timestamp;
+        }
+
+        /**
+         * Gets the time the export took.
+         *
+         * @return the duration in milliseconds
+         */
+        long getDuration() {
+
+            return duration;
+        }
+
+        /**
+         * Gets the number of accepted result files.
+         *
+         * @return the number of files
+         */
+        int getFiles() {
+
+            return files;
+        }
+
+        /**
+         * Gets the number of result files which were not accepted.
+         *
+         * @return the number of failed files
+         */
+        int getFailed() {
+
+            return failed;
+        }
+
+        /**
+         * Gets the uncompressed size of the accepted result files.
+         *
+         * @return the size in bytes
+         */
+        long getRawBytes() {
+
+            return rawBytes;
+        }
+
+        /**
+         * Gets the number of bytes sent for the accepted result files.
+         *
+         * @return the size in bytes
+         */
+        long getSentBytes() {
+
+            return sentBytes;
+        }
+
+        /**
+         * Gets the export throughput.
+         *
+         * @return the uncompressed bytes accepted per second, 0 if unknown
+         */
+        long getThroughput() {
+
+            return duration > 0 ? rawBytes * 1000L / duration : 0L;
+        }
+    }
+}
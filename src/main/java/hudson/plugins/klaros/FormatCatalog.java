@@ -0,0 +1,319 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import hudson.XmlFile;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletResponse;
+
+import jenkins.model.Jenkins;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The result formats supported by the Klaros-Testmanagement installations, shared by all jobs. The formats
+ * of each application URL are cached for {@link #TTL} milliseconds and refreshed in the background, so
+ * rendering a job configuration never waits for a slow server once the formats are known. The catalog is
+ * stored in <code>JENKINS_HOME/klaros-testmanagement/formats.xml</code> and survives restarts. The built-in
+ * default formats are only used for URLs whose formats were never loaded.
+ */
+final class FormatCatalog {
+
+    private static final Logger LOGGER = Logger.getLogger(FormatCatalog.class.getName());
+
+    /** The time in milliseconds after which cached formats are refreshed. */
+    static final long TTL = Long.getLong(FormatCatalog.class.getName() + ".ttl", TimeUnit.HOURS.toMillis(1));
+
+    /** The minimum time in milliseconds between two attempts to load the formats of an unavailable server. */
+    static final long RETRY_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    /** The time in milliseconds to wait for the formats of a URL not cached yet. */
+    private static final long INITIAL_WAIT = 2000L;
+
+    private final KlarosTestResultPublisher.DescriptorImpl descriptor;
+
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(new NamingThreadFactory(
+        new DaemonThreadFactory(), "Klaros format catalog refresh"));
+
+    private final Map<String, CachedFormats> entries = new ConcurrentHashMap<>();
+
+    private final Map<String, Future<?>> refreshing = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> attempts = new ConcurrentHashMap<>();
+
+    private volatile boolean loaded;
+
+    /**
+     * The formats of a Klaros application URL and the time they were loaded.
+     */
+    static final class CachedFormats implements Serializable {
+
+        private static final long serialVersionUID = 4046374622081829137L;
+
+        private final ResultFormat[] formats;
+
+        private final long fetched;
+
+        /**
+         * Instantiates new cached formats.
+         *
+         * @param formats the formats
+         * @param fetched the time the formats were loaded
+         */
+        CachedFormats(final ResultFormat[] formats, final long fetched) {
+
+            this.formats = formats.clone();
+            this.fetched = fetched;
+        }
+    }
+
+    /**
+     * Instantiates a new format catalog.
+     *
+     * @param descriptor the descriptor providing the http clients
+     */
+    FormatCatalog(final KlarosTestResultPublisher.DescriptorImpl descriptor) {
+
+        this.descriptor = descriptor;
+    }
+
+    /**
+     * Gets the formats supported by a Klaros application URL. Expired formats are returned while they are
+     * refreshed in the background. If no formats are cached yet, the caller waits a short time for them and
+     * gets the default formats if they are not available by then.
+     *
+     * @param url the Klaros application url
+     * @param username the optional Klaros login user name
+     * @param password the optional Klaros login password
+     * @return the supported result formats
+     */
+    ResultFormat[] getFormats(final String url, final String username, final String password) {
+
+        load();
+        final String key = url != null ? url : "";
+        final CachedFormats cached = entries.get(key);
+        if (cached == null || System.currentTimeMillis() - cached.fetched > TTL) {
+            final Future<?> refresh = refresh(key, username, password);
+            if (cached == null && refresh != null) {
+                try {
+                    refresh.get(INITIAL_WAIT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException | TimeoutException e) {
+                    // use the default formats for now
+                }
+            }
+        }
+        final CachedFormats current = entries.get(key);
+        if (current != null) {
+            return current.formats.clone();
+        }
+        final List<ResultFormat> defaults = KlarosTestResultPublisher.DEFAULT_FORMATS;
+        return defaults.toArray(new ResultFormat[defaults.size()]);
+    }
+
+    /**
+     * Start loading the formats of a URL in the background unless this is already in progress or the last
+     * attempt failed less than {@link #RETRY_INTERVAL} milliseconds ago.
+     *
+     * @param url the Klaros application url
+     * @param username the optional Klaros login user name
+     * @param password the optional Klaros login password
+     * @return the pending refresh or null if no refresh is pending
+     */
+    private synchronized Future<?> refresh(final String url, final String username, final String password) {
+
+        Future<?> pending = refreshing.get(url);
+        if (pending != null) {
+            return pending;
+        }
+        final Long attempt = attempts.get(url);
+        if (attempt != null && System.currentTimeMillis() - attempt < RETRY_INTERVAL) {
+            return null;
+        }
+        attempts.put(url, System.currentTimeMillis());
+        pending = refresher.submit(new Runnable() {
+
+            @Override
+            public void run() {
+
+                try {
+                    final ResultFormat[] formats = fetch(url, username, password);
+                    if (formats != null) {
+                        entries.put(url, new CachedFormats(formats, System.currentTimeMillis()));
+                        attempts.remove(url);
+                        save();
+                    }
+                } finally {
+                    synchronized (FormatCatalog.this) {
+                        refreshing.remove(url);
+                    }
+                }
+            }
+        });
+        refreshing.put(url, pending);
+        return pending;
+    }
+
+    /**
+     * Load the formats from the remote application.
+     *
+     * @param url the Klaros application url
+     * @param username the optional Klaros login user name
+     * @param password the optional Klaros login password
+     * @return the supported result formats or null if they could not be loaded
+     */
+    private ResultFormat[] fetch(final String url, final String username, final String password) {
+
+        final GetMethod get = new GetMethod(KlarosTestResultPublisher.buildServletURL(url) + "/supportedFormats");
+        final QueryString query = new QueryString();
+        if (StringUtils.isNotEmpty(username)) {
+            query.add("username", username).add("password", password);
+        }
+        get.setQueryString(query.toString());
+        get.getParams().setSoTimeout(HttpClientPool.INTERACTIVE_READ_TIMEOUT);
+
+        try {
+            final HttpClient client = descriptor.getClient(url);
+            final int result = client.executeMethod(get);
+            if (result == HttpServletResponse.SC_OK) {
+                final String response = get.getResponseBodyAsString();
+                if (StringUtils.isNotBlank(response)) {
+                    final List<ResultFormat> formats = parse(response);
+                    if (!formats.isEmpty()) {
+                        return formats.toArray(new ResultFormat[formats.size()]);
+                    }
+                }
+            }
+        } catch (RuntimeException | IOException e) {
+            LOGGER.log(Level.FINE, "Unable to load the supported formats of " + url, e);
+        } finally {
+            get.releaseConnection();
+        }
+        return null;
+    }
+
+    /**
+     * Parse the supported formats, one <code>id=name</code> pair per line. Later duplicates of an id are
+     * ignored.
+     *
+     * @param content the content as a string
+     * @return the list of supported formats
+     */
+    static List<ResultFormat> parse(final String content) {
+
+        final Map<String, ResultFormat> formats = new LinkedHashMap<>();
+        for (String line : content.split("\n")) {
+            if (line.contains("=")) {
+                final String id = line.substring(0, line.lastIndexOf('=')).trim();
+                final String name = line.substring(line.lastIndexOf('=') + 1).trim();
+                if (!id.isEmpty() && !formats.containsKey(id)) {
+                    formats.put(id, new ResultFormat(id, name));
+                }
+            }
+        }
+        return new ArrayList<>(formats.values());
+    }
+
+    /**
+     * Gets the file storing the catalog.
+     *
+     * @return the catalog file or null if Jenkins is not available
+     */
+    private static XmlFile getFile() {
+
+        final Jenkins jenkins = Jenkins.getInstance();
+        return jenkins != null ? new XmlFile(new File(jenkins.getRootDir(), "klaros-testmanagement/formats.xml"))
+            : null;
+    }
+
+    /**
+     * Load the stored catalog once.
+     */
+    @SuppressWarnings("unchecked")
+    private void load() {
+
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (loaded) {
+                return;
+            }
+            loaded = true;
+            final XmlFile file = getFile();
+            if (file != null && file.exists()) {
+                try {
+                    entries.putAll((Map<String, CachedFormats>) file.read());
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Unable to load the Klaros-Testmanagement format catalog", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Store the catalog.
+     */
+    private synchronized void save() {
+
+        final XmlFile file = getFile();
+        if (file != null) {
+            try {
+                file.write(new LinkedHashMap<>(entries));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Unable to save the Klaros-Testmanagement format catalog", e);
+            }
+        }
+    }
+
+    /**
+     * Stop refreshing formats in the background.
+     */
+    void shutdown() {
+
+        refresher.shutdownNow();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpClientParams;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+
+/**
+ * Holds one pooled, thread safe HTTP client per Klaros-Testmanagement application URL. The clients live as
+ * long as the JVM they were created in, so connections are kept alive and reused across result files,
+ * result sets and concurrent builds, both on the master and on slave nodes.
+ */
+final class HttpClientPool {
+
+    /** The maximum number of connections per Klaros host. */
+    static final int MAX_CONNECTIONS_PER_HOST = ResultSet.MAX_UPLOAD_THREADS;
+
+    /** The maximum number of connections per Klaros application URL. */
+    static final int MAX_TOTAL_CONNECTIONS = 2 * MAX_CONNECTIONS_PER_HOST;
+
+    /** Idle connections are closed after this many milliseconds. */
+    static final long IDLE_CONNECTION_TIMEOUT = 60000L;
+
+    /** The default timeout for establishing a connection in milliseconds. */
+    static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+    /** The default timeout waiting for response data in milliseconds. */
+    static final int DEFAULT_READ_TIMEOUT = 300000;
+
+    /** The timeout waiting for response data of requests issued while rendering or validating forms. */
+    static final int INTERACTIVE_READ_TIMEOUT = 10000;
+
+    private static final Map<String, HttpClient> CLIENTS = new ConcurrentHashMap<>();
+
+    private static IdleConnectionTimeoutThread idleConnectionEvictor;
+
+    /**
+     * Hide the utility class constructor.
+     */
+    private HttpClientPool() {
+
+    }
+
+    /**
+     * Gets the shared HTTP client for the given Klaros application URL.
+     *
+     * @param applicationURL the Klaros application url
+     * @return the shared http client
+     */
+    static HttpClient getClient(final String applicationURL) {
+
+        final String key = applicationURL != null ? applicationURL : "";
+        HttpClient client = CLIENTS.get(key);
+        if (client == null) {
+            synchronized (CLIENTS) {
+                client = CLIENTS.get(key);
+                if (client == null) {
+                    client = new HttpClient(createConnectionManager());
+                    CLIENTS.put(key, client);
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Gets an HTTP client for the given Klaros application URL which shares the pooled connections of the
+     * URL but waits for a free pooled connection at most for the given timeouts. The client is cheap to
+     * create, so each export uses its own and the pool wait of one export does not change that of another.
+     * The connect timeout is a property of the connection pool. It is configured globally, so all callers
+     * pass the same value and setting it again does not change the timeout of other exports.
+     *
+     * @param applicationURL the Klaros application url
+     * @param connectTimeout the globally configured connect timeout in milliseconds, zero for no timeout
+     * @param readTimeout the read timeout in milliseconds, zero for no timeout
+     * @return the http client
+     */
+    static HttpClient getClient(final String applicationURL, final int connectTimeout, final int readTimeout) {
+
+        final HttpClient shared = getClient(applicationURL);
+        final HttpConnectionManager connectionManager = shared.getHttpConnectionManager();
+        final HttpConnectionManagerParams params = connectionManager.getParams();
+        if (params.getConnectionTimeout() != connectTimeout) {
+            params.setConnectionTimeout(connectTimeout);
+        }
+        final HttpClient client = new HttpClient(new HttpClientParams(shared.getParams()), connectionManager);
+        client.getParams().setConnectionManagerTimeout(
+            connectTimeout > 0 && readTimeout > 0 ? (long) connectTimeout + readTimeout : 0L);
+        return client;
+    }
+
+    /**
+     * Close all pooled connections and release the idle connection evictor.
+     */
+    static void shutdown() {
+
+        synchronized (CLIENTS) {
+            if (idleConnectionEvictor != null) {
+                idleConnectionEvictor.shutdown();
+                idleConnectionEvictor = null;
+            }
+            for (HttpClient client : CLIENTS.values()) {
+                ((MultiThreadedHttpConnectionManager) client.getHttpConnectionManager()).shutdown();
+            }
+            CLIENTS.clear();
+        }
+    }
+
+    /**
+     * Creates a new pooling connection manager and registers it with the idle connection evictor. Must be
+     * called while holding the {@link #CLIENTS} lock.
+     *
+     * @return the connection manager
+     */
+    private static MultiThreadedHttpConnectionManager createConnectionManager() {
+
+        final MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+        final HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+        params.setMaxTotalConnections(MAX_TOTAL_CONNECTIONS);
+        params.setStaleCheckingEnabled(true);
+
+        if (idleConnectionEvictor == null) {
+            idleConnectionEvictor = new IdleConnectionTimeoutThread();
+            idleConnectionEvictor.setName("Klaros idle connection evictor");
+            idleConnectionEvictor.setTimeoutInterval(IDLE_CONNECTION_TIMEOUT / 2);
+            idleConnectionEvictor.setConnectionTimeout(IDLE_CONNECTION_TIMEOUT);
+            idleConnectionEvictor.start();
+        }
+        idleConnectionEvictor.addConnectionManager(connectionManager);
+        return connectionManager;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.model.Run;
+
+import javax.inject.Inject;
+
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * The <tt>klarosAwait</tt> Pipeline step waiting for a background export started by <tt>klarosPublish</tt>
+ * with <tt>wait: false</tt>. The step does not occupy an executor or a thread while waiting, and fails if
+ * the export failed or results were rejected.
+ */
+public class KlarosAwaitStep extends AbstractStepImpl {
+
+    private final String handle;
+
+    /**
+     * Instantiates a new await step.
+     *
+     * @param handle the handle returned by the publish step, null if nothing was exported in the background
+     */
+    @DataBoundConstructor
+    public KlarosAwaitStep(final String handle) {
+
+        this.handle = handle;
+    }
+
+    /**
+     * Gets the handle of the background export.
+     *
+     * @return the handle
+     */
+    public String getHandle() {
+
+        return handle;
+    }
+
+    /**
+     * Waits for the end of the background export without blocking.
+     */
+    public static final class Execution extends AbstractStepExecutionImpl implements ExportQueue.Listener {
+
+        private static final long serialVersionUID = 1L;
+
+        @Inject
+        private transient KlarosAwaitStep step;
+
+        @StepContextParameter
+        private transient Run<?, ?> run;
+
+        /** The handle, kept to resume waiting after a restart. */
+        private String handle;
+
+        @Override
+        public boolean start() throws Exception {
+
+            handle = step.getHandle();
+            if (handle == null) {
+                getContext().onSuccess(null);
+                return true;
+            }
+            return await();
+        }
+
+        @Override
+        public void onResume() {
+
+            super.onResume();
+            try {
+                await();
+            } catch (Exception e) {
+                getContext().onFailure(e);
+            }
+        }
+
+        /**
+         * Register for the end of the export.
+         *
+         * @return false as the step completes asynchronously
+         * @throws Exception if the run holds no such export
+         */
+        private boolean await() throws Exception {
+
+            final Run<?, ?> owner = run != null ? run : getContext().get(Run.class);
+            if (!ExportQueue.get().addListener(owner, handle, this)) {
+                throw new AbortException(Messages.unknownExport(handle));
+            }
+            return false;
+        }
+
+        @Override
+        public void finished(final KlarosExportAction.State state, final String message) {
+
+            if (state == KlarosExportAction.State.EXPORTED) {
+                getContext().onSuccess(null);
+            } else {
+                getContext().onFailure(
+                    new AbortException(Messages.exportFailed(message != null ? message : state)));
+            }
+        }
+
+        @Override
+        public void stop(final Throwable cause) throws Exception {
+
+            ExportQueue.get().removeListener(handle, this);
+            getContext().onFailure(cause);
+        }
+    }
+
+    /**
+     * Descriptor of the <tt>klarosAwait</tt> step.
+     */
+    @Extension
+    public static final class DescriptorImpl extends AbstractStepDescriptorImpl {
+
+        /**
+         * Instantiates a new descriptor.
+         */
+        public DescriptorImpl() {
+
+            super(Execution.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+
+            return "klarosAwait";
+        }
+
+        @Override
+        public String getDisplayName() {
+
+            return Messages.awaitStepDisplayName();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import hudson.model.Action;
+import hudson.model.Run;
+
+/**
+ * Shows the state of an asynchronous test result export on the build page.
+ */
+public class KlarosExportAction implements Action {
+
+    /**
+     * The export state.
+     */
+    public enum State {
+        /** The results are spooled and waiting to be exported. */
+        PENDING,
+        /** All results have been exported. */
+        EXPORTED,
+        /** The export failed or some results were rejected. */
+        FAILED
+    }
+
+    private final String id;
+    private State state;
+    private final int files;
+    private int exported;
+    private String message;
+
+    /**
+     * Instantiates a new pending export action.
+     *
+     * @param id the id of the spooled export
+     * @param files the number of spooled result files
+     */
+    KlarosExportAction(final String id, final int files) {
+
+        this.id = id;
+        this.state = State.PENDING;
+        this.files = files;
+    }
+
+    /**
+     * Gets the export action of a spooled export. A run holds one action per spooled export, actions
+     * recorded before spooled exports were identified match any export.
+     *
+     * @param run the run
+     * @param id the id of the spooled export
+     * @return the action or null if the run has none for this export
+     */
+    static KlarosExportAction find(final Run<?, ?> run, final String id) {
+
+        KlarosExportAction legacy = null;
+        for (KlarosExportAction action : run.getActions(KlarosExportAction.class)) {
+            if (id.equals(action.id)) {
+                return action;
+            } else if (action.id == null && legacy == null) {
+                legacy = action;
+            }
+        }
+        return legacy;
+    }
+
+    /**
+     * Gets the id of the spooled export.
+     *
+     * @return the id, null for actions recorded before spooled exports were identified
+     */
+    public String getId() {
+
+        return id;
+    }
+
+    /**
+     * Gets the export state.
+     *
+     * @return the state
+     */
+    public synchronized State getState() {
+
+        return state;
+    }
+
+    /**
+     * Gets the number of spooled result files.
+     *
+     * @return the number of files
+     */
+    public int getFiles() {
+
+        return files;
+    }
+
+    /**
+     * Gets the number of result files handled so far.
+     *
+     * @return the number of handled files
+     */
+    public synchronized int getExported() {
+
+        return exported;
+    }
+
+    /**
+     * Gets the last failure reason.
+     *
+     * @return the message, may be null
+     */
+    public synchronized String getMessage() {
+
+        return message;
+    }
+
+    /**
+     * Update the export state.
+     *
+     * @param newState the new state
+     * @param newExported the number of result files handled so far
+     * @param newMessage the last failure reason
+     */
+    synchronized void update(final State newState, final int newExported, final String newMessage) {
+
+        this.state = newState;
+        this.exported = newExported;
+        this.message = newMessage;
+    }
+
+    @Override
+    public String getIconFileName() {
+
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+
+        return Messages.exportActionDisplayName();
+    }
+
+    @Override
+    public String getUrlName() {
+
+        return null;
+    }
+}
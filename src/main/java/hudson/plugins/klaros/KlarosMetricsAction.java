@@ -0,0 +1,256 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Exposes the statistics of all test result exports since the start of Jenkins. The statistics are available
+ * to administrators as JSON at <code>/klaros-metrics/json</code> and in the Prometheus text format at
+ * <code>/klaros-metrics/prometheus</code>.
+ */
+@Extension
+public class KlarosMetricsAction implements RootAction {
+
+    private static final ExportStatistics STATISTICS = new ExportStatistics();
+
+    /**
+     * Add the statistics of an export.
+     *
+     * @param statistics the statistics of the export
+     */
+    static void record(final ExportStatistics statistics) {
+
+        if (statistics != null) {
+            STATISTICS.merge(statistics);
+        }
+    }
+
+    @Override
+    public String getIconFileName() {
+
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+
+        return Messages.metricsActionDisplayName();
+    }
+
+    @Override
+    public String getUrlName() {
+
+        return "klaros-metrics";
+    }
+
+    /**
+     * Serves the statistics as JSON.
+     *
+     * @param req the request
+     * @param rsp the response
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void doJson(final StaplerRequest req, final StaplerResponse rsp) throws IOException {
+
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+
+        final JSONArray series = new JSONArray();
+        for (ExportStatistics.Series value : STATISTICS.snapshot()) {
+            final JSONObject json = new JSONObject();
+            json.put("url", value.getUrl());
+            json.put("format", value.getFormat());
+            json.put("files", value.getFiles());
+            json.put("rawBytes", value.getRawBytes());
+            json.put("sentBytes", value.getSentBytes());
+            json.put("retries", value.getRetries());
+            json.put("statusCodes", value.getStatusCodes());
+            json.put("uploadDuration", toJson(value.getUploadDuration()));
+            json.put("resultSetDuration", toJson(value.getResultSetDuration()));
+            series.add(json);
+        }
+
+        rsp.setContentType("application/json;charset=UTF-8");
+        final PrintWriter writer = rsp.getWriter();
+        writer.print(new JSONObject().element("series", series).toString());
+        writer.flush();
+    }
+
+    /**
+     * Serves the statistics in the Prometheus text exposition format.
+     *
+     * @param req the request
+     * @param rsp the response
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void doPrometheus(final StaplerRequest req, final StaplerResponse rsp) throws IOException {
+
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+
+        final StringBuilder out = new StringBuilder();
+        final Iterable<ExportStatistics.Series> snapshot = STATISTICS.snapshot();
+
+        header(out, "klaros_export_files_total", "counter", "Result files accepted by Klaros-Testmanagement.");
+        for (ExportStatistics.Series value : snapshot) {
+            sample(out, "klaros_export_files_total", labels(value), value.getFiles());
+        }
+        header(out, "klaros_export_raw_bytes_total", "counter", "Uncompressed size of the accepted result files.");
+        for (ExportStatistics.Series value : snapshot) {
+            sample(out, "klaros_export_raw_bytes_total", labels(value), value.getRawBytes());
+        }
+        header(out, "klaros_export_sent_bytes_total", "counter", "Bytes sent for the accepted result files.");
+        for (ExportStatistics.Series value : snapshot) {
+            sample(out, "klaros_export_sent_bytes_total", labels(value), value.getSentBytes());
+        }
+        header(out, "klaros_export_retries_total", "counter", "Retried import requests.");
+        for (ExportStatistics.Series value : snapshot) {
+            sample(out, "klaros_export_retries_total", labels(value), value.getRetries());
+        }
+        header(out, "klaros_export_requests_total", "counter", "Import requests by response status.");
+        for (ExportStatistics.Series value : snapshot) {
+            for (Map.Entry<String, Long> status : value.getStatusCodes().entrySet()) {
+                sample(out, "klaros_export_requests_total", labels(value) + ",status=\"" + escape(status.getKey())
+                    + '"', status.getValue());
+            }
+        }
+        header(out, "klaros_export_upload_duration_seconds", "histogram", "Duration of single import requests.");
+        for (ExportStatistics.Series value : snapshot) {
+            histogram(out, "klaros_export_upload_duration_seconds", labels(value), value.getUploadDuration());
+        }
+        header(out, "klaros_export_result_set_duration_seconds", "histogram",
+            "Duration of the export of a result set.");
+        for (ExportStatistics.Series value : snapshot) {
+            histogram(out, "klaros_export_result_set_duration_seconds", labels(value), value
+                .getResultSetDuration());
+        }
+
+        rsp.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+        final PrintWriter writer = rsp.getWriter();
+        writer.print(out);
+        writer.flush();
+    }
+
+    /**
+     * Converts a histogram to JSON.
+     *
+     * @param histogram the histogram
+     * @return the JSON object
+     */
+    private static JSONObject toJson(final ExportStatistics.Histogram histogram) {
+
+        final JSONObject buckets = new JSONObject();
+        final long[] counts = histogram.getCounts();
+        for (int i = 0; i < counts.length; i++) {
+            buckets.put(i < ExportStatistics.BUCKETS.length ? Double.toString(ExportStatistics.BUCKETS[i])
+                : "+Inf", counts[i]);
+        }
+        return new JSONObject().element("count", histogram.getCount()).element("sum", histogram.getSum())
+            .element("buckets", buckets);
+    }
+
+    /**
+     * Append the help and type lines of a metric.
+     *
+     * @param out the output
+     * @param name the metric name
+     * @param type the metric type
+     * @param help the metric description
+     */
+    private static void header(final StringBuilder out, final String name, final String type, final String help) {
+
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Append a sample.
+     *
+     * @param out the output
+     * @param name the metric name
+     * @param labels the formatted labels
+     * @param value the value
+     */
+    private static void sample(final StringBuilder out, final String name, final String labels,
+        final Object value) {
+
+        out.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    /**
+     * Append the samples of a histogram.
+     *
+     * @param out the output
+     * @param name the metric name
+     * @param labels the formatted labels
+     * @param histogram the histogram
+     */
+    private static void histogram(final StringBuilder out, final String name, final String labels,
+        final ExportStatistics.Histogram histogram) {
+
+        final long[] counts = histogram.getCounts();
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            final String bound =
+                i < ExportStatistics.BUCKETS.length ? Double.toString(ExportStatistics.BUCKETS[i]) : "+Inf";
+            sample(out, name + "_bucket", labels + ",le=\"" + bound + '"', cumulative);
+        }
+        sample(out, name + "_sum", labels, histogram.getSum());
+        sample(out, name + "_count", labels, histogram.getCount());
+    }
+
+    /**
+     * Formats the labels of a series.
+     *
+     * @param series the series
+     * @return the formatted labels
+     */
+    private static String labels(final ExportStatistics.Series series) {
+
+        return "url=\"" + escape(series.getUrl()) + "\",format=\"" + escape(series.getFormat()) + '"';
+    }
+
+    /**
+     * Escape a label value.
+     *
+     * @param value the value
+     * @return the escaped value
+     */
+    private static String escape(final String value) {
+
+        return String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import hudson.model.Action;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.util.Graph;
+import hudson.util.ShiftedCategoryAxis;
+
+import java.awt.Color;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.CategoryAxis;
+import org.jfree.chart.axis.CategoryLabelPositions;
+import org.jfree.chart.axis.NumberAxis;
+import org.jfree.chart.plot.CategoryPlot;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.chart.renderer.category.LineAndShapeRenderer;
+import org.jfree.data.category.DefaultCategoryDataset;
+import org.jfree.ui.RectangleInsets;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Shows the summary of the latest exported test results and the export trend on the job page. The trend
+ * chart is drawn from the append-only {@link ExportTrend} of the job, so no build records are loaded.
+ */
+public class KlarosProjectAction implements Action {
+
+    /** The number of builds searched for an export summary. */
+    static final int MAX_BUILDS = 20;
+
+    /** The number of exports shown by the trend chart by default. */
+    static final int DEFAULT_TREND_BUILDS = 100;
+
+    /** The maximum number of exports shown by the trend chart. */
+    static final int MAX_TREND_BUILDS = 5000;
+
+    private static final int TREND_WIDTH = 500;
+
+    private static final int TREND_HEIGHT = 200;
+
+    private final Job<?, ?> job;
+
+    /**
+     * Instantiates a new project action.
+     *
+     * @param job the job
+     */
+    KlarosProjectAction(final Job<?, ?> job) {
+
+        this.job = job;
+    }
+
+    /**
+     * Gets the job.
+     *
+     * @return the job
+     */
+    public Job<?, ?> getJob() {
+
+        return job;
+    }
+
+    /**
+     * Gets the summary action of the latest build which exported test results. Only the last
+     * {@link #MAX_BUILDS} builds are searched, so jobs which stopped exporting do not load their whole
+     * history.
+     *
+     * @return the summary action or null if none of the recent builds exported test results
+     */
+    public KlarosSummaryAction getLastSummary() {
+
+        Run<?, ?> run = job.getLastCompletedBuild();
+        for (int i = 0; run != null && i < MAX_BUILDS; i++) {
+            final KlarosSummaryAction action = run.getAction(KlarosSummaryAction.class);
+            if (action != null) {
+                return action;
+            }
+            run = run.getPreviousCompletedBuild();
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the job has an export trend.
+     *
+     * @return true, if at least one export has been recorded
+     */
+    public boolean isTrendAvailable() {
+
+        return ExportTrend.lastModified(job.getRootDir()) > 0L;
+    }
+
+    /**
+     * Draw the export duration and throughput of the last exports. The number of exports is given by the
+     * optional <code>builds</code> request parameter.
+     *
+     * @param req the request
+     * @param rsp the response
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public void doTrend(final StaplerRequest req, final StaplerResponse rsp) throws IOException {
+
+        int builds = DEFAULT_TREND_BUILDS;
+        final String param = req.getParameter("builds");
+        if (param != null) {
+            try {
+                builds = Math.max(1, Math.min(MAX_TREND_BUILDS, Integer.parseInt(param)));
+            } catch (NumberFormatException e) {
+                // Keep the default
+            }
+        }
+        final File jobDir = job.getRootDir();
+        final List<ExportTrend.Point> points = ExportTrend.read(jobDir, builds);
+        new Graph(ExportTrend.lastModified(jobDir), TREND_WIDTH, TREND_HEIGHT) {
+
+            @Override
+            protected JFreeChart createGraph() {
+
+                return createTrendChart(points);
+            }
+        }.doPng(req, rsp);
+    }
+
+    /**
+     * Creates the trend chart, with the duration on the left and the throughput on the right axis.
+     *
+     * @param points the trend records, oldest first
+     * @return the chart
+     */
+    static JFreeChart createTrendChart(final List<ExportTrend.Point> points) {
+
+        final DefaultCategoryDataset durations = new DefaultCategoryDataset();
+        final DefaultCategoryDataset throughputs = new DefaultCategoryDataset();
+        for (ExportTrend.Point point : points) {
+            final String build = "#" + point.getBuild();
+            durations.addValue(point.getDuration() / 1000.0, Messages.trendDuration(), build);
+            throughputs.addValue(point.getThroughput() / 1024.0, Messages.trendThroughput(), build);
+        }
+
+        final JFreeChart chart =
+            ChartFactory.createLineChart(null, null, Messages.trendDuration(), durations,
+                PlotOrientation.VERTICAL, true, true, false);
+        chart.setBackgroundPaint(Color.WHITE);
+
+        final CategoryPlot plot = chart.getCategoryPlot();
+        plot.setBackgroundPaint(Color.WHITE);
+        plot.setOutlinePaint(null);
+        plot.setRangeGridlinesVisible(true);
+        plot.setRangeGridlinePaint(Color.BLACK);
+        plot.setInsets(new RectangleInsets(5.0, 0, 0, 5.0));
+
+        final CategoryAxis domainAxis = new ShiftedCategoryAxis(null);
+        domainAxis.setCategoryLabelPositions(CategoryLabelPositions.UP_90);
+        domainAxis.setLowerMargin(0.0);
+        domainAxis.setUpperMargin(0.0);
+        domainAxis.setCategoryMargin(0.0);
+        plot.setDomainAxis(domainAxis);
+
+        plot.setDataset(1, throughputs);
+        plot.setRangeAxis(1, new NumberAxis(Messages.trendThroughput()));
+        plot.mapDatasetToRangeAxis(1, 1);
+        plot.setRenderer(1, new LineAndShapeRenderer(true, false));
+        return chart;
+    }
+
+    @Override
+    public String getIconFileName() {
+
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+
+        return Messages.summaryActionDisplayName();
+    }
+
+    @Override
+    public String getUrlName() {
+
+        return "klaros";
+    }
+}
@@ -0,0 +1,499 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.inject.Inject;
+
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * The <tt>klarosPublish</tt> Pipeline step exporting test results to Klaros-Testmanagement. With
+ * <tt>wait: false</tt> the result files are spooled and exported in the background, and the step returns a
+ * handle which can be passed to the <tt>klarosAwait</tt> step to wait for the export.
+ *
+ * <pre>
+ * def export = klarosPublish config: 'P00001', env: 'ENV00001', sut: 'SUT00001',
+ *     resultSets: [[spec: 'target/surefire-reports/*.xml', format: 'junit']], wait: false
+ * ...
+ * klarosAwait export
+ * </pre>
+ */
+public class KlarosPublishStep extends AbstractStepImpl {
+
+    private final String config;
+    private final String env;
+    private final String sut;
+    private final ResultSet[] resultSets;
+    private String url;
+    private String iteration;
+    private String username;
+    private String password;
+    private boolean createTestSuite;
+    private boolean compressUploads;
+    private boolean forceFullExport;
+    private int readTimeout;
+    private int exportTimeout;
+    private String priority;
+    private int weight;
+    private boolean wait = true;
+
+    /**
+     * Instantiates a new publish step.
+     *
+     * @param config the project id
+     * @param env the test environment id
+     * @param sut the system under test id
+     * @param resultSets the result sets
+     */
+    @DataBoundConstructor
+    public KlarosPublishStep(final String config, final String env, final String sut,
+        final ResultSet[] resultSets) {
+
+        this.config = config;
+        this.env = env;
+        this.sut = sut;
+        this.resultSets = resultSets != null ? resultSets.clone() : new ResultSet[0];
+    }
+
+    /**
+     * Gets the project id.
+     *
+     * @return the project id
+     */
+    public String getConfig() {
+
+        return config;
+    }
+
+    /**
+     * Gets the test environment id.
+     *
+     * @return the test environment id
+     */
+    public String getEnv() {
+
+        return env;
+    }
+
+    /**
+     * Gets the system under test id.
+     *
+     * @return the system under test id
+     */
+    public String getSut() {
+
+        return sut;
+    }
+
+    /**
+     * Gets the result sets.
+     *
+     * @return the result sets
+     */
+    public ResultSet[] getResultSets() {
+
+        return resultSets.clone();
+    }
+
+    /**
+     * Gets the Klaros installation url.
+     *
+     * @return the url, null for the first configured installation
+     */
+    public String getUrl() {
+
+        return url;
+    }
+
+    /**
+     * Sets the Klaros installation url.
+     *
+     * @param url the url of a configured installation
+     */
+    @DataBoundSetter
+    public void setUrl(final String url) {
+
+        this.url = url;
+    }
+
+    /**
+     * Gets the iteration id.
+     *
+     * @return the iteration id
+     */
+    public String getIteration() {
+
+        return iteration;
+    }
+
+    /**
+     * Sets the iteration id.
+     *
+     * @param iteration the iteration id
+     */
+    @DataBoundSetter
+    public void setIteration(final String iteration) {
+
+        this.iteration = iteration;
+    }
+
+    /**
+     * Gets the user name.
+     *
+     * @return the user name
+     */
+    public String getUsername() {
+
+        return username;
+    }
+
+    /**
+     * Sets the user name.
+     *
+     * @param username the user name
+     */
+    @DataBoundSetter
+    public void setUsername(final String username) {
+
+        this.username = username;
+    }
+
+    /**
+     * Gets the password.
+     *
+     * @return the password
+     */
+    public String getPassword() {
+
+        return password;
+    }
+
+    /**
+     * Sets the password.
+     *
+     * @param password the password
+     */
+    @DataBoundSetter
+    public void setPassword(final String password) {
+
+        this.password = password;
+    }
+
+    /**
+     * Checks if a test suite is created per result file.
+     *
+     * @return true, if set
+     */
+    public boolean isCreateTestSuite() {
+
+        return createTestSuite;
+    }
+
+    /**
+     * Sets the create test suite flag.
+     *
+     * @param createTestSuite the new create test suite flag
+     */
+    @DataBoundSetter
+    public void setCreateTestSuite(final boolean createTestSuite) {
+
+        this.createTestSuite = createTestSuite;
+    }
+
+    /**
+     * Checks if result files are uploaded gzip compressed.
+     *
+     * @return true, if set
+     */
+    public boolean isCompressUploads() {
+
+        return compressUploads;
+    }
+
+    /**
+     * Sets the compress uploads flag.
+     *
+     * @param compressUploads the new compress uploads flag
+     */
+    @DataBoundSetter
+    public void setCompressUploads(final boolean compressUploads) {
+
+        this.compressUploads = compressUploads;
+    }
+
+    /**
+     * Checks if unchanged result files are exported again.
+     *
+     * @return true, if set
+     */
+    public boolean isForceFullExport() {
+
+        return forceFullExport;
+    }
+
+    /**
+     * Sets the force full export flag.
+     *
+     * @param forceFullExport the new force full export flag
+     */
+    @DataBoundSetter
+    public void setForceFullExport(final boolean forceFullExport) {
+
+        this.forceFullExport = forceFullExport;
+    }
+
+    /**
+     * Gets the read timeout.
+     *
+     * @return the read timeout in seconds, 0 for the global setting
+     */
+    public int getReadTimeout() {
+
+        return readTimeout;
+    }
+
+    /**
+     * Sets the read timeout.
+     *
+     * @param readTimeout the read timeout in seconds, 0 for the global setting
+     */
+    @DataBoundSetter
+    public void setReadTimeout(final int readTimeout) {
+
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Gets the export deadline per result set.
+     *
+     * @return the export deadline in seconds, 0 for no limit
+     */
+    public int getExportTimeout() {
+
+        return exportTimeout;
+    }
+
+    /**
+     * Sets the export deadline per result set.
+     *
+     * @param exportTimeout the export deadline in seconds, 0 for no limit
+     */
+    @DataBoundSetter
+    public void setExportTimeout(final int exportTimeout) {
+
+        this.exportTimeout = exportTimeout;
+    }
+
+    /**
+     * Gets the priority class of the uploads.
+     *
+     * @return the priority class, null for the normal priority
+     */
+    public String getPriority() {
+
+        return priority;
+    }
+
+    /**
+     * Sets the priority class of the uploads when the uploads to the Klaros server are limited.
+     *
+     * @param priority the priority class, one of high, normal or low
+     */
+    @DataBoundSetter
+    public void setPriority(final String priority) {
+
+        this.priority = priority;
+    }
+
+    /**
+     * Gets the share of the uploads within the priority class.
+     *
+     * @return the weight, 0 for the default share
+     */
+    public int getWeight() {
+
+        return weight;
+    }
+
+    /**
+     * Sets the share of the uploads within the priority class when the uploads to the Klaros server are
+     * limited.
+     *
+     * @param weight the weight, 0 for the default share
+     */
+    @DataBoundSetter
+    public void setWeight(final int weight) {
+
+        this.weight = weight;
+    }
+
+    /**
+     * Checks if the step waits for the export to finish.
+     *
+     * @return true, if the results are exported before the step returns
+     */
+    public boolean isWait() {
+
+        return wait;
+    }
+
+    /**
+     * Sets the wait flag.
+     *
+     * @param wait false to export the results in the background
+     */
+    @DataBoundSetter
+    public void setWait(final boolean wait) {
+
+        this.wait = wait;
+    }
+
+    /**
+     * Creates the publisher performing the export.
+     *
+     * @return the publisher
+     */
+    KlarosTestResultPublisher createPublisher() {
+
+        final KlarosTestResultPublisher publisher =
+            new KlarosTestResultPublisher(config, iteration, env, sut, createTestSuite, null, null, resultSets,
+                url, username, password);
+        publisher.setCompressUploads(compressUploads);
+        publisher.setForceFullExport(forceFullExport);
+        publisher.setReadTimeout(readTimeout);
+        publisher.setExportTimeout(exportTimeout);
+        publisher.setExportPriority(priority);
+        publisher.setExportWeight(weight);
+        return publisher;
+    }
+
+    /**
+     * Exports the test results and returns the handle of a background export. The export runs on a thread of
+     * its own, so other branches of the Pipeline keep running meanwhile.
+     */
+    public static final class Execution extends AbstractStepExecutionImpl {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Runs the exports outside of the Pipeline thread. */
+        private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new NamingThreadFactory(
+            new DaemonThreadFactory(), "Klaros publish step"));
+
+        @Inject
+        private transient KlarosPublishStep step;
+
+        @StepContextParameter
+        private transient Run<?, ?> run;
+
+        @StepContextParameter
+        private transient FilePath workspace;
+
+        @StepContextParameter
+        private transient TaskListener listener;
+
+        /** The running export, null after a restart. */
+        private transient volatile Future<?> task;
+
+        @Override
+        public boolean start() throws Exception {
+
+            task = EXECUTOR.submit(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    try {
+                        getContext().onSuccess(step.createPublisher().publish(run, workspace, listener,
+                            !step.isWait()));
+                    } catch (Exception e) {
+                        getContext().onFailure(e);
+                    }
+                }
+            });
+            return false;
+        }
+
+        @Override
+        public void stop(final Throwable cause) throws Exception {
+
+            final Future<?> running = task;
+            if (running != null) {
+                running.cancel(true);
+            }
+            getContext().onFailure(cause);
+        }
+
+        @Override
+        public void onResume() {
+
+            super.onResume();
+            // The thread running the export did not survive the restart
+            getContext().onFailure(new AbortException(Messages.publishInterrupted()));
+        }
+    }
+
+    /**
+     * Descriptor of the <tt>klarosPublish</tt> step.
+     */
+    @Extension
+    public static final class DescriptorImpl extends AbstractStepDescriptorImpl {
+
+        /**
+         * Instantiates a new descriptor.
+         */
+        public DescriptorImpl() {
+
+            super(Execution.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+
+            return "klarosPublish";
+        }
+
+        @Override
+        public String getDisplayName() {
+
+            return Messages.publishStepDisplayName();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import hudson.model.Run;
+
+import jenkins.model.RunAction2;
+
+/**
+ * Shows the export report of a build: the requests sent to the Klaros-Testmanagement server with their
+ * status, size, latency, retries and response.
+ */
+public class KlarosReportAction implements RunAction2 {
+
+    private transient Run<?, ?> run;
+    private final ExportReport report;
+
+    /**
+     * Instantiates a new report action.
+     *
+     * @param run the run
+     * @param report the export report
+     */
+    KlarosReportAction(final Run<?, ?> run, final ExportReport report) {
+
+        this.run = run;
+        this.report = report;
+    }
+
+    /**
+     * Record the report of an export with a run. The reports of several exports of the same run, like
+     * those of several publishers, retried asynchronous exports or Pipeline steps, are added up.
+     *
+     * @param run the run
+     * @param report the export report
+     */
+    static void record(final Run<?, ?> run, final ExportReport report) {
+
+        if (report.getEntries().isEmpty() && report.getOmitted() == 0) {
+            return;
+        }
+        synchronized (run) {
+            final KlarosReportAction action = run.getAction(KlarosReportAction.class);
+            if (action != null) {
+                action.report.add(report);
+            } else {
+                run.addAction(new KlarosReportAction(run, report));
+            }
+        }
+    }
+
+    /**
+     * Gets the run.
+     *
+     * @return the run
+     */
+    public Run<?, ?> getRun() {
+
+        return run;
+    }
+
+    /**
+     * Gets the export report.
+     *
+     * @return the report
+     */
+    public ExportReport getReport() {
+
+        return report;
+    }
+
+    @Override
+    public void onAttached(final Run<?, ?> r) {
+
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(final Run<?, ?> r) {
+
+        this.run = r;
+    }
+
+    @Override
+    public String getIconFileName() {
+
+        return "clipboard.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+
+        return Messages.reportActionDisplayName();
+    }
+
+    @Override
+    public String getUrlName() {
+
+        return "klarosReport";
+    }
+}
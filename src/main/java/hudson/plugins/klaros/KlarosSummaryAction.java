@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import hudson.model.Action;
+import hudson.model.Run;
+
+/**
+ * Shows the summary of the test results exported by a build on the build page. The summary is computed on
+ * the exporting node while the result files are sent, so showing it reads neither the workspace nor the
+ * Klaros-Testmanagement server.
+ */
+public class KlarosSummaryAction implements Action {
+
+    private final ResultSummary summary;
+
+    /**
+     * Instantiates a new summary action.
+     *
+     * @param summary the result summary
+     */
+    KlarosSummaryAction(final ResultSummary summary) {
+
+        this.summary = summary;
+    }
+
+    /**
+     * Record the summary of an export with a run. The summaries of several exports of the same run, like
+     * those of several publishers or Pipeline steps, are added up.
+     *
+     * @param run the run
+     * @param summary the result summary, may be null
+     */
+    static void record(final Run<?, ?> run, final ResultSummary summary) {
+
+        if (summary == null || summary.getTotal() == 0) {
+            return;
+        }
+        synchronized (run) {
+            final KlarosSummaryAction action = run.getAction(KlarosSummaryAction.class);
+            if (action != null) {
+                action.summary.add(summary);
+            } else {
+                run.addAction(new KlarosSummaryAction(summary));
+            }
+        }
+    }
+
+    /**
+     * Gets the result summary.
+     *
+     * @return the summary
+     */
+    public ResultSummary getSummary() {
+
+        return summary;
+    }
+
+    @Override
+    public String getIconFileName() {
+
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+
+        return Messages.summaryActionDisplayName();
+    }
+
+    @Override
+    public String getUrlName() {
+
+        return null;
+    }
+}
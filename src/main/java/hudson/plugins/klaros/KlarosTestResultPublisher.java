@@ -23,16 +23,22 @@
  */
 package hudson.plugins.klaros;
 
+import hudson.AbortException;
 import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.FilePath.FileCallable;
 import hudson.Launcher;
 import hudson.Util;
+import hudson.model.Action;
 import hudson.model.BuildListener;
 import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
+import hudson.remoting.Channel;
+import hudson.remoting.RemoteOutputStream;
 import hudson.remoting.VirtualChannel;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
@@ -41,33 +47,59 @@ import hudson.tasks.Recorder;
 import hudson.util.FormValidation;
 import hudson.util.Secret;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
-import java.net.URL;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
+import javax.xml.stream.XMLStreamException;
 
 import jenkins.model.Jenkins;
+import jenkins.tasks.SimpleBuildStep;
 import net.sf.json.JSONObject;
 
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
-import org.apache.commons.httpclient.methods.FileRequestEntity;
+import org.apache.commons.httpclient.HttpMethodBase;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PutMethod;
 import org.apache.commons.httpclient.methods.RequestEntity;
 import org.apache.commons.httpclient.methods.StringRequestEntity;
 import org.apache.commons.lang.StringUtils;
-import org.apache.tools.ant.DirectoryScanner;
-import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.tar.TarEntry;
+import org.apache.tools.tar.TarOutputStream;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
@@ -78,46 +110,53 @@ import org.kohsuke.stapler.StaplerRequest;
  * @author Caroline Albuquerque (albuquerque@verit.de)
  * @author Torsten Stolpmann (stolpmann@verit.de)
  */
-public class KlarosTestResultPublisher extends Recorder implements Serializable {
+public class KlarosTestResultPublisher extends Recorder implements SimpleBuildStep, Serializable {
 
     private static final long serialVersionUID = -3220438013049857329L;
 
-    private static final ArrayList<ResultFormat> DEFAULT_FORMATS;
+    /** The formats used until the formats supported by a Klaros installation are known. */
+    static final List<ResultFormat> DEFAULT_FORMATS;
+
+    /** The content type of uploaded result files. */
+    static final String RESULT_CONTENT_TYPE = "text/xml; charset=ISO-8859-1";
+
+    /** The content type of merged result files, which are always written as UTF-8. */
+    static final String MERGED_CONTENT_TYPE = "text/xml; charset=UTF-8";
 
     static {
-        DEFAULT_FORMATS = new ArrayList<>();
-        DEFAULT_FORMATS.add(new ResultFormat("aunit", "AUnit"));
-        DEFAULT_FORMATS.add(new ResultFormat("boosttest", "Boost Test"));
-        DEFAULT_FORMATS.add(new ResultFormat("check", "Check"));
-        DEFAULT_FORMATS.add(new ResultFormat("cppunit", "CppUnit"));
-        DEFAULT_FORMATS.add(new ResultFormat("ctest", "ctest"));
-        DEFAULT_FORMATS.add(new ResultFormat("cunit", "CUnit"));
-        DEFAULT_FORMATS.add(new ResultFormat("embunit", "EmbUnit"));
-        DEFAULT_FORMATS.add(new ResultFormat("fitnesse", "Fitnesse"));
-        DEFAULT_FORMATS.add(new ResultFormat("fpcunit", "Free Pascal Unit"));
-        DEFAULT_FORMATS.add(new ResultFormat("googletest", "GoogleTest"));
-        DEFAULT_FORMATS.add(new ResultFormat("gtester", "GLib/gtester"));
-        DEFAULT_FORMATS.add(new ResultFormat("jbehave", "JBehave"));
-        DEFAULT_FORMATS.add(new ResultFormat("jmeter", "JMeter"));
-        DEFAULT_FORMATS.add(new ResultFormat("jsunit", "JsUnit"));
-        DEFAULT_FORMATS.add(new ResultFormat("jsunit", "JsUnit"));
-        DEFAULT_FORMATS.add(new ResultFormat("jubula", "Jubula/GUIDancer"));
-        DEFAULT_FORMATS.add(new ResultFormat("junit", "JUnit"));
-        DEFAULT_FORMATS.add(new ResultFormat("mbunit", "MbUnit"));
-        DEFAULT_FORMATS.add(new ResultFormat("mstest", "MSTest"));
-        DEFAULT_FORMATS.add(new ResultFormat("nunit", "NUnit"));
-        DEFAULT_FORMATS.add(new ResultFormat("phpunit", "PHPUnit"));
-        DEFAULT_FORMATS.add(new ResultFormat("qftest", "QFTest"));
-        DEFAULT_FORMATS.add(new ResultFormat("qtestlib", "QTestLib"));
-        DEFAULT_FORMATS.add(new ResultFormat("ranorex", "Ranorex"));
-        DEFAULT_FORMATS.add(new ResultFormat("tessy", "TESSY"));
-        DEFAULT_FORMATS.add(new ResultFormat("testcomplete", "Test Complete"));
-        DEFAULT_FORMATS.add(new ResultFormat("tusar", "Tusar"));
-        DEFAULT_FORMATS.add(new ResultFormat("unittest", "UnitTest"));
-        DEFAULT_FORMATS.add(new ResultFormat("uft", "UFT/QTP"));
-        DEFAULT_FORMATS.add(new ResultFormat("cpptestunit", "UnitTest++"));
-        DEFAULT_FORMATS.add(new ResultFormat("valgrind", "Valgrind"));
-        DEFAULT_FORMATS.add(new ResultFormat("xunitdotnet", "xUnit.net"));
+        final List<ResultFormat> formats = new ArrayList<>();
+        formats.add(new ResultFormat("aunit", "AUnit"));
+        formats.add(new ResultFormat("boosttest", "Boost Test"));
+        formats.add(new ResultFormat("check", "Check"));
+        formats.add(new ResultFormat("cppunit", "CppUnit"));
+        formats.add(new ResultFormat("ctest", "ctest"));
+        formats.add(new ResultFormat("cunit", "CUnit"));
+        formats.add(new ResultFormat("embunit", "EmbUnit"));
+        formats.add(new ResultFormat("fitnesse", "Fitnesse"));
+        formats.add(new ResultFormat("fpcunit", "Free Pascal Unit"));
+        formats.add(new ResultFormat("googletest", "GoogleTest"));
+        formats.add(new ResultFormat("gtester", "GLib/gtester"));
+        formats.add(new ResultFormat("jbehave", "JBehave"));
+        formats.add(new ResultFormat("jmeter", "JMeter"));
+        formats.add(new ResultFormat("jsunit", "JsUnit"));
+        formats.add(new ResultFormat("jubula", "Jubula/GUIDancer"));
+        formats.add(new ResultFormat("junit", "JUnit"));
+        formats.add(new ResultFormat("mbunit", "MbUnit"));
+        formats.add(new ResultFormat("mstest", "MSTest"));
+        formats.add(new ResultFormat("nunit", "NUnit"));
+        formats.add(new ResultFormat("phpunit", "PHPUnit"));
+        formats.add(new ResultFormat("qftest", "QFTest"));
+        formats.add(new ResultFormat("qtestlib", "QTestLib"));
+        formats.add(new ResultFormat("ranorex", "Ranorex"));
+        formats.add(new ResultFormat("tessy", "TESSY"));
+        formats.add(new ResultFormat("testcomplete", "Test Complete"));
+        formats.add(new ResultFormat("tusar", "Tusar"));
+        formats.add(new ResultFormat("unittest", "UnitTest"));
+        formats.add(new ResultFormat("uft", "UFT/QTP"));
+        formats.add(new ResultFormat("cpptestunit", "UnitTest++"));
+        formats.add(new ResultFormat("valgrind", "Valgrind"));
+        formats.add(new ResultFormat("xunitdotnet", "xUnit.net"));
+        DEFAULT_FORMATS = Collections.unmodifiableList(formats);
     }
 
     /** The Klaros project id. */
@@ -155,6 +194,28 @@ public class KlarosTestResultPublisher extends Recorder implements Serializable
     /** The create test suite flag. */
     private boolean createTestSuite;
 
+    /** The compress uploads flag. */
+    private boolean compressUploads;
+
+    /** The force full export flag. */
+    private boolean forceFullExport;
+
+    /** The asynchronous export flag. */
+    private boolean asyncExport;
+
+    /** The read timeout in seconds, zero to use the global setting. */
+    private int readTimeout;
+
+    /** The maximum duration of the export of a result set in seconds, zero for no limit. */
+    private int exportTimeout;
+
+    /** The priority class of the uploads of this job, null for the normal priority. */
+    private String exportPriority;
+
+    /** The share of the uploads of this job within its priority class, zero for the default share. */
+    private int exportWeight;
+
+    /** No longer used, the supported formats are shared by the {@link FormatCatalog}. */
     private ResultFormat[] types;
 
     /**
@@ -190,60 +251,6 @@ public class KlarosTestResultPublisher extends Recorder implements Serializable
         this.types = null;
     }
 
-    /**
-     * Load formats from the remote application.
-     *
-     * @return the supported result formats
-     */
-    private ResultFormat[] loadFormats() {
-
-        final String strURL = buildServletURL(url) + "/supportedFormats";
-
-        final GetMethod get = new GetMethod(strURL);
-        final StringBuilder query = new StringBuilder();
-        if (StringUtils.isNotEmpty(username)) {
-            query.append("username=").append(username).append("&password=").append(password);
-        }
-        get.setQueryString(query.toString());
-
-        try {
-            final HttpClient client = new HttpClient();
-            final int result = client.executeMethod(get);
-            if (result == HttpServletResponse.SC_OK) {
-                final String response = get.getResponseBodyAsString();
-                if (StringUtils.isNotBlank(response)) {
-                    final List<ResultFormat> formats = extractSupportedFormats(response);
-                    return formats.toArray(new ResultFormat[formats.size()]);
-                }
-            }
-        } catch (RuntimeException | IOException e) {
-            // ignore
-        } finally {
-            get.releaseConnection();
-        }
-        return DEFAULT_FORMATS.toArray(new ResultFormat[DEFAULT_FORMATS.size()]);
-   }
-
-    /**
-     * Extract supported formats.
-     *
-     * @param content the content as a string
-     * @return the list of supported formats
-     */
-    private List<ResultFormat> extractSupportedFormats(String content) {
-
-        String[] lines = content.split("\n");
-        List<ResultFormat> formats = new ArrayList<>(lines.length);
-        for (String line : lines) {
-            if (line.contains("=")) {
-                String id = line.substring(0, line.lastIndexOf('='));
-                String name = line.substring(line.lastIndexOf('=') + 1);
-                formats.add(new ResultFormat(id, name));
-            }
-        }
-        return formats;
-    }
-
     /**
      * Descriptor.
      *
@@ -428,6 +435,155 @@ public class KlarosTestResultPublisher extends Recorder implements Serializable
         this.createTestSuite = createTestSuite;
     }
 
+    /**
+     * Checks if result files are gzip compressed while uploading.
+     *
+     * @return true, if set
+     */
+    public boolean isCompressUploads() {
+
+        return compressUploads;
+    }
+
+    /**
+     * Sets the compress uploads flag.
+     *
+     * @param compressUploads the new compress uploads flag
+     */
+    @DataBoundSetter
+    public void setCompressUploads(boolean compressUploads) {
+
+        this.compressUploads = compressUploads;
+    }
+
+    /**
+     * Checks if unchanged result files are exported again.
+     *
+     * @return true, if set
+     */
+    public boolean isForceFullExport() {
+
+        return forceFullExport;
+    }
+
+    /**
+     * Sets the force full export flag.
+     *
+     * @param forceFullExport the new force full export flag
+     */
+    @DataBoundSetter
+    public void setForceFullExport(boolean forceFullExport) {
+
+        this.forceFullExport = forceFullExport;
+    }
+
+    /**
+     * Checks if result files are spooled and exported asynchronously after the build step.
+     *
+     * @return true, if set
+     */
+    public boolean isAsyncExport() {
+
+        return asyncExport;
+    }
+
+    /**
+     * Sets the asynchronous export flag.
+     *
+     * @param asyncExport the new asynchronous export flag
+     */
+    @DataBoundSetter
+    public void setAsyncExport(boolean asyncExport) {
+
+        this.asyncExport = asyncExport;
+    }
+
+    /**
+     * Gets the read timeout.
+     *
+     * @return the read timeout in seconds, zero to use the global setting
+     */
+    public int getReadTimeout() {
+
+        return readTimeout;
+    }
+
+    /**
+     * Sets the read timeout.
+     *
+     * @param readTimeout the read timeout in seconds, zero to use the global setting
+     */
+    @DataBoundSetter
+    public void setReadTimeout(final int readTimeout) {
+
+        this.readTimeout = Math.max(0, readTimeout);
+    }
+
+    /**
+     * Gets the maximum duration of the export of a result set.
+     *
+     * @return the export timeout in seconds, zero for no limit
+     */
+    public int getExportTimeout() {
+
+        return exportTimeout;
+    }
+
+    /**
+     * Sets the maximum duration of the export of a result set.
+     *
+     * @param exportTimeout the export timeout in seconds, zero for no limit
+     */
+    @DataBoundSetter
+    public void setExportTimeout(final int exportTimeout) {
+
+        this.exportTimeout = Math.max(0, exportTimeout);
+    }
+
+    /**
+     * Gets the priority class of the uploads of this job when the uploads to the Klaros server are limited.
+     *
+     * @return the priority class
+     */
+    public String getExportPriority() {
+
+        return exportPriority != null ? exportPriority : UploadThrottle.PRIORITY_NORMAL;
+    }
+
+    /**
+     * Sets the priority class of the uploads of this job.
+     *
+     * @param exportPriority the priority class, one of high, normal or low
+     */
+    @DataBoundSetter
+    public void setExportPriority(final String exportPriority) {
+
+        this.exportPriority = StringUtils.trimToNull(exportPriority);
+    }
+
+    /**
+     * Gets the share of the uploads of this job within its priority class when the uploads to the Klaros
+     * server are limited.
+     *
+     * @return the weight, at least 1
+     */
+    public int getExportWeight() {
+
+        return exportWeight > 0 ? Math.min(exportWeight, UploadThrottle.MAX_WEIGHT)
+            : UploadThrottle.DEFAULT_WEIGHT;
+    }
+
+    /**
+     * Sets the share of the uploads of this job within its priority class.
+     *
+     * @param exportWeight the weight, zero for the default share
+     */
+    @DataBoundSetter
+    public void setExportWeight(final int exportWeight) {
+
+        this.exportWeight = Math.max(0, exportWeight);
+    }
+
     /**
      * Gets the valid result types.
      *
@@ -435,17 +591,16 @@ public class KlarosTestResultPublisher extends Recorder implements Serializable
      */
     public ResultFormat[] getTypes() {
 
-        if (types == null) {
-            types = loadFormats();
-        }
-        return types.clone();
+        return descriptor().getFormats(url, username, password != null ? password.getPlainText() : null);
     }
 
     /**
      * Sets the valid result types.
      *
      * @param types the new result types
+     * @deprecated the supported formats are loaded from the Klaros installation
      */
+    @Deprecated
     public void setTypes(ResultFormat[] types) {
 
         this.types = types != null ? types.clone() : null;;
@@ -550,69 +705,299 @@ public class KlarosTestResultPublisher extends Recorder implements Serializable
     public boolean perform(final AbstractBuild<?, ?> build, final Launcher launcher,
         final BuildListener listener) {
 
-        boolean result = false;
-        if (Result.SUCCESS.equals(build.getResult()) || Result.UNSTABLE.equals(build.getResult())) {
+        if (!isExportable(build)) {
+            listener.getLogger().println(
+                "Skipping export of test results to Klaros-Testmangement due to build status");
+            return true;
+        }
+        FilePath ws = build.getWorkspace();
+        if (ws == null) {
+            listener.error("No workspace defined!");
+            build.setResult(Result.FAILURE);
+            return false;
+        }
+        final List<ResultSet> exportable = getExportableResultSets(listener);
+        if (exportable.isEmpty()) {
+            return false;
+        }
+        try {
+            export(build, ws, exportable, listener, asyncExport);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace(listener.getLogger());
+        } catch (InterruptedException e) {
+            e.printStackTrace(listener.getLogger());
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
 
-            FilePath ws = build.getWorkspace();
-            if (ws == null) {
-                listener.error("No workspace defined!");
-                build.setResult(Result.FAILURE);
-                result = false;
-            } else {
-                for (ResultSet resultSet : getResultSets()) {
-                    if (StringUtils.isEmpty(resultSet.getSpec())) {
-                        listener.getLogger().println("Empty result spec implementation detected");
-                    } else {
-                        listener.getLogger().println(
-                            "The test result(s) contained in target " + resultSet.getSpec()
-                                + " will be exported to the " + "Klaros-Testmanagement Server at "
-                                + getUrl(url) + " using the " + resultSet.getFormat() + " format.");
-                        listener.getLogger().print("With parameters Project[" + config + "]");
-                        if (StringUtils.isNotBlank(iteration)) {
-                            listener.getLogger().print(" Iteration[" + iteration + "]");
-                        }
-                        listener.getLogger().println(
-                            " Environment[" + env + "] and SUT[" + sut + "].");
-
-                        try {
-                            FileCallableImplementation exporter =
-                                new FileCallableImplementation(getJenkinsInstance().getRootUrl(), build
-                                    .getProject().getName(), build.getNumber(), build
-                                    .getEnvironment(listener), build.getBuildVariables(), listener);
-                            exporter.setKlarosUrl(getKlarosUrl(url));
-                            exporter.setResultSet(resultSet);
-                            exporter.setConfig(config);
-                            exporter.setIteration(iteration);
-                            exporter.setSut(sut);
-                            exporter.setEnv(env);
-                            exporter.setUsername(username);
-                            exporter.setPassword(password.getPlainText());
-                            exporter.setCreateTestSuite(createTestSuite);
-                            ws.act(exporter);
-
-                            listener.getLogger().println("Test result(s) successfully exported.");
-
-                        } catch (IOException e) {
-                            listener.getLogger().println("Failure to export test result(s).");
-                            e.printStackTrace(listener.getLogger());
-                        } catch (InterruptedException e) {
-                            listener.getLogger().println("Failure to export test result(s).");
-                            e.printStackTrace(listener.getLogger());
-                        } catch (RuntimeException e) {
-                            listener.getLogger().println("Failure to export test result(s).");
-                            e.printStackTrace(listener.getLogger());
-                        }
+    /**
+     * Runs the step over the given run, e.g. from a Pipeline, and reports the progress to the listener.
+     *
+     * @param run the current run
+     * @param workspace the workspace
+     * @param launcher the launcher
+     * @param listener the listener
+     * @throws AbortException if no test result set is configured
+     * @throws IOException if the export failed
+     * @throws InterruptedException if the export was interrupted
+     */
+    @Override
+    public void perform(final Run<?, ?> run, final FilePath workspace, final Launcher launcher,
+        final TaskListener listener) throws AbortException, IOException, InterruptedException {
 
-                        result = true;
-                    }
-                }
-            }
-        } else {
+        publish(run, workspace, listener, asyncExport);
+    }
+
+    /**
+     * Export the test results of a run.
+     *
+     * @param run the current run
+     * @param ws the workspace
+     * @param listener the listener
+     * @param async if true, spool the result files for an asynchronous export
+     * @return the id of the spooled export or null if nothing was spooled
+     * @throws AbortException if no test result set is configured
+     * @throws IOException if the export failed
+     * @throws InterruptedException if the export was interrupted
+     */
+    String publish(final Run<?, ?> run, final FilePath ws, final TaskListener listener, final boolean async)
+        throws AbortException, IOException, InterruptedException {
+
+        if (!isExportable(run)) {
             listener.getLogger().println(
                 "Skipping export of test results to Klaros-Testmangement due to build status");
-            result = true;
+            return null;
+        }
+        final List<ResultSet> exportable = getExportableResultSets(listener);
+        if (exportable.isEmpty()) {
+            throw new AbortException("No test results configured for the export to Klaros-Testmanagement.");
+        }
+        return export(run, ws, exportable, listener, async);
+    }
+
+    /**
+     * Checks if the test results of a run are to be exported. Runs still in progress have no result yet.
+     *
+     * @param run the run
+     * @return true, if the run is successful or unstable so far
+     */
+    private static boolean isExportable(final Run<?, ?> run) {
+
+        final Result result = run.getResult();
+        return result == null || Result.SUCCESS.equals(result) || Result.UNSTABLE.equals(result);
+    }
+
+    /**
+     * Gets the result sets with a result file specification.
+     *
+     * @param listener the listener
+     * @return the exportable result sets
+     */
+    private List<ResultSet> getExportableResultSets(final TaskListener listener) {
+
+        List<ResultSet> exportable = new ArrayList<>();
+        final ResultSet[] all = getResultSets();
+        if (all != null) {
+            for (ResultSet resultSet : all) {
+                if (StringUtils.isEmpty(resultSet.getSpec())) {
+                    listener.getLogger().println("Empty result spec implementation detected");
+                } else {
+                    exportable.add(resultSet);
+                }
+            }
+        }
+        return exportable;
+    }
+
+    /**
+     * Export the given result sets of a run. Failures are reported to the listener and passed on.
+     *
+     * @param run the current run
+     * @param ws the workspace
+     * @param exportable the result sets to export
+     * @param listener the listener
+     * @param async if true, spool the result files for an asynchronous export
+     * @return the id of the spooled export or null if nothing was spooled
+     * @throws IOException if the export failed
+     * @throws InterruptedException if the export was interrupted
+     */
+    private String export(final Run<?, ?> run, final FilePath ws, final List<ResultSet> exportable,
+        final TaskListener listener, final boolean async) throws IOException, InterruptedException {
+
+        try {
+            // Export all result sets within a single remote call
+            final Map<String, String> buildVariables =
+                run instanceof AbstractBuild ? ((AbstractBuild<?, ?>) run).getBuildVariables() : Collections
+                    .<String, String> emptyMap();
+            FileCallableImplementation exporter =
+                new FileCallableImplementation(getJenkinsInstance().getRootUrl(), run.getParent().getName(), run
+                    .getNumber(), run.getEnvironment(listener), buildVariables, listener);
+            exporter.setKlarosUrl(getKlarosUrl(url));
+            exporter.setResultSets(exportable.toArray(new ResultSet[exportable.size()]));
+            exporter.setConfig(config);
+            exporter.setIteration(iteration);
+            exporter.setSut(sut);
+            exporter.setEnv(env);
+            exporter.setUsername(username);
+            exporter.setPassword(password.getPlainText());
+            exporter.setCreateTestSuite(createTestSuite);
+            exporter.setCompressUploads(compressUploads);
+            exporter.setRetryPolicy(descriptor().createRetryPolicy());
+            exporter.setTimeouts(descriptor().getConnectTimeout(),
+                readTimeout > 0 ? readTimeout : descriptor().getReadTimeout(), exportTimeout);
+            exporter.setBuildStarted(run.getStartTimeInMillis());
+            final File jobDir = run.getParent().getRootDir();
+            final ExportIndex.Lookup indexLookup = forceFullExport ? null : openExportIndex(jobDir, listener);
+            if (indexLookup != null) {
+                // Nodes look up the files they find on the master instead of receiving the whole index
+                exporter.setIndexLookup(ws.getChannel() instanceof Channel ? ((Channel) ws.getChannel()).export(
+                    ExportIndex.Lookup.class, indexLookup) : indexLookup);
+            }
+            if (async) {
+                return spoolExport(run, ws, exporter, listener);
+            }
+            final UploadThrottle.Session session =
+                descriptor().openThrottle(exporter.klarosUrl, run.getParent().getFullName(), getExportPriority(),
+                    getExportWeight());
+            final ExportResult exportResult;
+            final long started = System.currentTimeMillis();
+            try {
+                if (session != null) {
+                    // Nodes ask the master for leases, so the limits apply to the exports of all nodes
+                    exporter.setLeases(ws.getChannel() instanceof Channel ? ((Channel) ws.getChannel()).export(
+                        UploadThrottle.Leases.class, session) : session);
+                }
+                exportResult = ws.act(exporter);
+            } finally {
+                if (session != null) {
+                    session.close();
+                }
+            }
+            exportResult.getReport().setDuration(System.currentTimeMillis() - started);
+            KlarosMetricsAction.record(exportResult.getStatistics());
+            KlarosSummaryAction.record(run, exportResult.getSummary());
+            KlarosReportAction.record(run, exportResult.getReport());
+            recordExportIndex(jobDir, exportResult, listener);
+            recordExportTrend(jobDir, run, exportResult.getReport(), listener);
+
+            listener.getLogger().println("Test result(s) successfully exported.");
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            listener.getLogger().println("Failure to export test result(s).");
+            throw e;
+        }
+        return null;
+    }
+
+    /**
+     * Copy the result files into the export spool and queue them for an asynchronous export.
+     *
+     * @param build the current run
+     * @param ws the workspace
+     * @param exporter the exporter
+     * @param listener the listener
+     * @return the id of the spooled export or null if there were no result files to spool
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @throws InterruptedException Thrown when a thread is waiting, sleeping, or otherwise paused for a
+     *             long time and another thread interrupts it using the interrupt method in class Thread.
+     */
+    private String spoolExport(final Run<?, ?> build, final FilePath ws,
+        final FileCallableImplementation exporter, final TaskListener listener) throws IOException,
+        InterruptedException {
+
+        final ExportQueue queue = ExportQueue.get();
+        final ExportSpoolEntry entry = queue.create(build);
+        final ExportResult exportResult;
+        try {
+            final OutputStream out = new FileOutputStream(entry.getArchive());
+            try {
+                exporter.setSpool(new RemoteOutputStream(out));
+                exportResult = ws.act(exporter);
+                // Remote writes are delivered asynchronously, wait for them before closing the archive
+                if (ws.getChannel() instanceof Channel) {
+                    ((Channel) ws.getChannel()).syncLocalIO();
+                }
+            } finally {
+                out.close();
+            }
+            entry.setContent(exporter.klarosUrl, exporter.expandVariables(username), exporter
+                .expandVariables(password.getPlainText()), exportResult);
+            entry.setScheduling(getExportPriority(), getExportWeight());
+            entry.save();
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            queue.discard(entry);
+            throw e;
+        }
+
+        if (exportResult.getSpooledFiles().isEmpty()) {
+            queue.discard(entry);
+            return null;
+        }
+        build.addAction(new KlarosExportAction(entry.getId(), exportResult.getSpooledFiles().size()));
+        KlarosSummaryAction.record(build, exportResult.getSummary());
+        queue.submit(entry);
+        listener.getLogger().println(
+            "Test result(s) queued for asynchronous export to the Klaros-Testmanagement Server at "
+                + exporter.klarosUrl + ".");
+        return entry.getId();
+    }
+
+    /**
+     * Open the index of previously exported result files of a job.
+     *
+     * @param jobDir the job directory
+     * @param listener the listener
+     * @return the lookup of the export index or null if it could not be read
+     */
+    private ExportIndex.Lookup openExportIndex(final File jobDir, final TaskListener listener) {
+
+        try {
+            return ExportIndex.open(jobDir);
+        } catch (IOException e) {
+            listener.getLogger().println("Unable to read the export index, exporting all test result files.");
+            e.printStackTrace(listener.getLogger());
+            return null;
+        }
+    }
+
+    /**
+     * Record the result files accepted by an export in the index of the job.
+     *
+     * @param jobDir the job directory
+     * @param exportResult the export result
+     * @param listener the listener
+     */
+    private void recordExportIndex(final File jobDir, final ExportResult exportResult,
+        final TaskListener listener) {
+
+        try {
+            ExportIndex.record(jobDir, exportResult.getAccepted());
+        } catch (IOException e) {
+            listener.getLogger().println("Unable to update the export index.");
+            e.printStackTrace(listener.getLogger());
+        }
+    }
+
+    /**
+     * Append the export of a build to the trend of the job.
+     *
+     * @param jobDir the job directory
+     * @param build the build
+     * @param report the export report
+     * @param listener the listener
+     */
+    private void recordExportTrend(final File jobDir, final Run<?, ?> build, final ExportReport report,
+        final TaskListener listener) {
+
+        if (report.getEntries().isEmpty() && report.getOmitted() == 0) {
+            return;
+        }
+        try {
+            ExportTrend.append(jobDir, build.getNumber(), System.currentTimeMillis(), report);
+        } catch (IOException e) {
+            listener.getLogger().println("Unable to update the export trend.");
+            e.printStackTrace(listener.getLogger());
         }
-        return result;
     }
 
     /**
@@ -643,6 +1028,12 @@ public class KlarosTestResultPublisher extends Recorder implements Serializable
         return result;
     }
 
+    @Override
+    public Action getProjectAction(final AbstractProject<?, ?> project) {
+
+        return new KlarosProjectAction(project);
+    }
+
     @Override
     public BuildStepMonitor getRequiredMonitorService() {
 
@@ -661,7 +1052,7 @@ public class KlarosTestResultPublisher extends Recorder implements Serializable
      * @param applicationURL the application url
      * @return the servlet url
      */
-    private static String buildServletURL(final String applicationURL) {
+    static String buildServletURL(final String applicationURL) {
 
         final String result;
         if (applicationURL.endsWith("/")) {
@@ -677,11 +1068,16 @@ public class KlarosTestResultPublisher extends Recorder implements Serializable
     /**
      * The Class FileCallableImplementation.
      */
-    private static class FileCallableImplementation implements FileCallable<List<Integer>>, Serializable {
+    private static class FileCallableImplementation implements FileCallable<ExportResult>, Serializable {
 
         private static final long serialVersionUID = 1560913900801548965L;
 
-        private final BuildListener listener;
+        private static final int SPOOL_BUFFER_SIZE = 8192;
+
+        /** The maximum number of files looked up in the export index with a single call. */
+        private static final int LOOKUP_SIZE = 500;
+
+        private final TaskListener listener;
         final EnvVars environment;
         final Map<String, String> buildVariables;
 
@@ -690,7 +1086,7 @@ public class KlarosTestResultPublisher extends Recorder implements Serializable
         private String buildId;
 
         private String klarosUrl;
-        private ResultSet resultSet;
+        private ResultSet[] resultSets;
         private String config;
         private String iteration;
         private String env;
@@ -698,6 +1094,55 @@ public class KlarosTestResultPublisher extends Recorder implements Serializable
         private String username;
         private Secret password;
         private boolean createTestSuite;
+        private boolean compressUploads;
+
+        /** Looks up previously accepted files on the master, null to export all files. */
+        private ExportIndex.Lookup indexLookup;
+
+        /** The index entries of the files looked up so far. */
+        private final ExportIndex exportIndex = new ExportIndex();
+
+        /** The stream to write the spool archive to, null to upload the files directly. */
+        private OutputStream spool;
+
+        /** Decides which failed requests are repeated. */
+        private RetryPolicy retryPolicy = new RetryPolicy(0, 0L, 0, 0L);
+
+        /** The circuit breaker of the Klaros URL. */
+        private transient CircuitBreaker breaker;
+
+        /** The connect timeout in milliseconds. */
+        private int connectTimeout = HttpClientPool.DEFAULT_CONNECT_TIMEOUT;
+
+        /** The read timeout in milliseconds. */
+        private int readTimeout = HttpClientPool.DEFAULT_READ_TIMEOUT;
+
+        /** The maximum duration of the export of a result set in milliseconds, zero for no limit. */
+        private long exportTimeout;
+
+        /** Set once the server rejected a compressed upload. */
+        private transient AtomicBoolean compressionRejected;
+
+        /** The encoded query parameters preceding the result format. */
+        private transient String queryPrefix;
+
+        /** The encoded query parameters following the result format. */
+        private transient String querySuffix;
+
+        /** The encoded credential query parameters. */
+        private transient String queryCredentials;
+
+        /** The temporary directory holding split and merged result files, null if there are none. */
+        private transient File tempDir;
+
+        /** The leases granted by the master for each import request, null if the uploads are not limited. */
+        private UploadThrottle.Leases leases;
+
+        /** The start time of the build according to the clock of the master. */
+        private long buildStarted;
+
+        /** The time of the master when the start time of the build was set, to compensate clock differences. */
+        private long masterTime;
 
         /**
          * Instantiates a new file callable implementation.
@@ -706,7 +1151,7 @@ public class KlarosTestResultPublisher extends Recorder implements Serializable
          */
         private FileCallableImplementation(final String buildServerUrl, final String buildJobId,
                 final int buildNumber, final EnvVars environment, final Map<String, String> buildVariables,
-                final BuildListener listener) {
+                final TaskListener listener) {
 
             this.buildServerUrl = buildServerUrl;
             this.buildJobId = buildJobId;
@@ -728,128 +1173,1170 @@ public class KlarosTestResultPublisher extends Recorder implements Serializable
          * @see hudson.FilePath.FileCallable#invoke(File, hudson.remoting.VirtualChannel)
          */
         @Override
-        public List<Integer> invoke(final File baseDir, final VirtualChannel channel) throws IOException,
+        public ExportResult invoke(final File baseDir, final VirtualChannel channel) throws IOException,
             InterruptedException {
 
-            List<Integer> results = new ArrayList<Integer>();
+            ExportResult results = new ExportResult();
 
-            FileSet src = Util.createFileSet(baseDir, resultSet.getSpec());
-            DirectoryScanner ds = src.getDirectoryScanner();
-            ds.scan();
-            if (ds.getIncludedFilesCount() == 0) {
-                listener.getLogger().println("No exportable files found");
+            // Get target URL
+            String targetUrl = klarosUrl;
+
+            if (targetUrl == null) {
+                listener.getLogger().println(klarosUrl + ": unable to locate this Klaros URL");
                 return results;
             }
 
-            // Get target URL
-            String targetUrl = klarosUrl;
+            final String strURL = buildServletURL(targetUrl);
 
-            if (targetUrl != null) {
-                String strURL = buildServletURL(targetUrl);
-
-                // Get HTTP client
-                HttpClient httpclient = new HttpClient();
-
-                // Prepare HTTP PUT
-                for (String f : ds.getIncludedFiles()) {
-                    final PutMethod put = new PutMethod(strURL);
-                    final StringBuilder query =
-                        new StringBuilder("config=").append(expandVariables(config, environment,
-                            buildVariables));
-                    if (StringUtils.isNotBlank(iteration)) {
-                        query.append("&iteration=").append(
-                            expandVariables(iteration, environment, buildVariables));
-                    }
-                    query.append("&env=").append(expandVariables(env, environment, buildVariables)).append(
-                        "&sut=").append(expandVariables(sut, environment, buildVariables)).append("&type=")
-                        .append(expandVariables(resultSet.getFormat(), environment, buildVariables));
-                    if (createTestSuite) {
-                        query.append("&createTestSuiteResults=true");
+            // Get the shared HTTP client
+            final HttpClient httpclient = HttpClientPool.getClient(targetUrl, connectTimeout, readTimeout);
+            breaker = CircuitBreaker.get(targetUrl, retryPolicy);
+
+            compressionRejected = new AtomicBoolean();
+
+            // Scan all result set specifications, each file is exported only once. The files of result sets
+            // which are neither bundled nor merged are uploaded while the workspace is still being scanned.
+            final long started = System.currentTimeMillis();
+            final long modifiedSince = buildStarted > 0 ? buildStarted + started - masterTime : 0L;
+            final Set<String> matched = new HashSet<>();
+            final List<ResultSetBatch> batches = new ArrayList<>(resultSets.length);
+            final List<ExecutorService> executors = new ArrayList<>();
+            try {
+                for (ResultSet resultSet : resultSets) {
+                    final ResultSetBatch batch = new ResultSetBatch(resultSet);
+                    final String format = expandVariables(resultSet.getFormat());
+                    final boolean auto = ResultSet.AUTO_FORMAT.equals(format);
+                    final ExecutorService executor;
+                    if (!auto && spool == null && !resultSet.isBundle()
+                        && (resultSet.getMergeSize() == 0 || !ResultFileMerger.isSupported(format))) {
+                        prepare(batch, targetUrl);
+                        batch.streamed = true;
+                        start(batch);
+                        executor = Executors.newFixedThreadPool(batch.getWorkers(), new UploadThreadFactory());
+                        executors.add(executor);
+                    } else {
+                        executor = null;
+                    }
+                    final WorkspaceScanner scanner = new WorkspaceScanner(resultSet.getSpec());
+                    if (resultSet.isSkipOldFiles()) {
+                        scanner.setModifiedSince(modifiedSince);
+                    }
+                    final List<File> found = new ArrayList<>();
+                    try {
+                        scanner.scan(baseDir, new WorkspaceScanner.Listener() {
+
+                            @Override
+                            public void found(final String path, final File file) {
+
+                                if (!matched.add(path)) {
+                                    batch.duplicates++;
+                                } else if (executor == null) {
+                                    batch.files.add(file);
+                                } else if (indexLookup == null) {
+                                    submit(executor, httpclient, strURL, batch, file);
+                                } else {
+                                    // Look up the found files in batches to save round trips to the master
+                                    found.add(file);
+                                    if (found.size() >= LOOKUP_SIZE) {
+                                        submitAll(executor, httpclient, strURL, batch, found);
+                                    }
+                                }
+                            }
+                        });
+                    } catch (IOException e) {
+                        batch.error = e;
+                    }
+                    if (executor != null) {
+                        submitAll(executor, httpclient, strURL, batch, found);
+                    }
+                    batch.old = scanner.getSkippedOld();
+                    if (auto) {
+                        batches.addAll(detectFormats(batch));
+                    } else {
+                        batches.add(batch);
                     }
+                }
 
-                    query.append("&buildServerUrl=").append(buildServerUrl);
-                    query.append("&buildJobId=").append(buildJobId);
-                    query.append("&buildId=").append(buildId);
+                int workers = 0;
+                for (ResultSetBatch batch : batches) {
+                    if (!batch.streamed) {
+                        prepare(batch, targetUrl);
+                        skipUnchanged(batch);
+                        if (!batch.checked) {
+                            rejectMalformed(batch);
+                        }
+                        if (spool == null && !batch.resultSet.isBundle() && batch.resultSet.getSplitSize() > 0) {
+                            splitOversized(batch);
+                        }
+                        if (spool == null && !batch.resultSet.isBundle() && batch.resultSet.getMergeSize() > 0
+                            && ResultFileMerger.isSupported(batch.format)) {
+                            mergeSmall(batch);
+                        }
+                    }
+                    workers += Math.min(batch.getWorkers(), batch.files.size());
+                }
+
+                if (spool != null) {
+                    return spoolFiles(baseDir, batches, results);
+                }
 
-                    if (StringUtils.isNotBlank(username)) {
-                        query.append("&username=").append(
-                            expandVariables(username, environment, buildVariables)).append("&password=")
-                            .append(expandVariables(password.getPlainText(), environment, buildVariables));
+                // Start the uploads of all remaining result sets concurrently
+                for (ResultSetBatch batch : batches) {
+                    if (batch.streamed) {
+                        continue;
                     }
-                    put.setQueryString(query.toString());
+                    start(batch);
+                    if (workers > 1 && !batch.files.isEmpty()) {
+                        ExecutorService executor =
+                            Executors.newFixedThreadPool(Math.min(batch.getWorkers(), batch.files.size()),
+                                new UploadThreadFactory());
+                        executors.add(executor);
+                        final ResultSetBatch current = batch;
+                        if (batch.resultSet.isBundle()) {
+                            batch.pending.add(executor.submit(new Callable<UploadOutcome>() {
+
+                                @Override
+                                public UploadOutcome call() {
+
+                                    return uploadBundle(httpclient, strURL, current, baseDir);
+                                }
+                            }));
+                            continue;
+                        }
+                        for (final File file : batch.files) {
+                            batch.pending.add(executor.submit(new Callable<UploadOutcome>() {
 
-                    File file = new File(baseDir, f);
-                    int result;
+                                @Override
+                                public UploadOutcome call() {
 
-                    RequestEntity entity = new FileRequestEntity(file, "text/xml; charset=ISO-8859-1");
-                    put.setRequestEntity(entity);
+                                    return uploadFile(httpclient, strURL, current, file);
+                                }
+                            }));
+                        }
+                    }
+                }
 
-                    // Execute request
-                    try {
-                        result = httpclient.executeMethod(put);
-
-                        if (result != HttpServletResponse.SC_OK) {
-                            StringBuilder msg =
-                                new StringBuilder().append("Export of ").append(file.getName()).append(
-                                    " failed - Response status code: ").append(result).append(
-                                    " for request URL: ").append(strURL).append("?").append(query);
-                            String response = put.getResponseBodyAsString();
-                            if (response != null && response.length() > 0) {
-                                msg.append("\nReason: ").append(response);
+                // Report per result set in the order the files were matched
+                for (ResultSetBatch batch : batches) {
+                    reportHeader(batch);
+                    if (batch.pending.isEmpty() && batch.resultSet.isBundle() && !batch.files.isEmpty()) {
+                        start(batch);
+                        report(batch, uploadBundle(httpclient, strURL, batch, baseDir), results);
+                    } else if (batch.pending.isEmpty()) {
+                        start(batch);
+                        for (File file : batch.files) {
+                            report(batch, uploadFile(httpclient, strURL, batch, file), results);
+                        }
+                    } else {
+                        for (Future<UploadOutcome> outcome : batch.pending) {
+                            try {
+                                report(batch, outcome.get(), results);
+                            } catch (ExecutionException e) {
+                                e.getCause().printStackTrace(listener.getLogger());
+                            }
+                        }
+                    }
+                    reportFooter(batch, results);
+                }
+            } catch (InterruptedException e) {
+                for (ExecutorService executor : executors) {
+                    executor.shutdownNow();
+                }
+                throw e;
+            } finally {
+                for (ExecutorService executor : executors) {
+                    executor.shutdown();
+                }
+                if (tempDir != null) {
+                    Util.deleteRecursive(tempDir);
+                }
+            }
+            return results;
+        }
+
+        /**
+         * Write the files of all result sets into the spool archive for an asynchronous export by the master.
+         *
+         * @param baseDir the base directory
+         * @param batches the result set batches
+         * @param results the export result to add the spooled files to
+         * @return the export result
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        private ExportResult spoolFiles(final File baseDir, final List<ResultSetBatch> batches,
+            final ExportResult results) throws IOException {
+
+            final byte[] buffer = new byte[SPOOL_BUFFER_SIZE];
+            try (TarOutputStream tar =
+                new TarOutputStream(new GZIPOutputStream(new BufferedOutputStream(spool, SPOOL_BUFFER_SIZE)))) {
+                tar.setLongFileMode(TarOutputStream.LONGFILE_GNU);
+                for (int i = 0; i < batches.size(); i++) {
+                    final ResultSetBatch batch = batches.get(i);
+                    reportHeader(batch);
+                    results.getSpoolQueries().add(buildQuery(batch.resultSet, false));
+                    results.getSpoolIdentities().add(batch.identity);
+                    results.getSpoolFormats().add(batch.format);
+                    for (File file : batch.files) {
+                        final String name = i + "/" + ZipBundleRequestEntity.relativePath(baseDir, file);
+                        final TarEntry entry = new TarEntry(name);
+                        entry.setSize(file.length());
+                        entry.setModTime(file.lastModified());
+                        tar.putNextEntry(entry);
+                        final MessageDigest md = ResultFileRequestEntity.createDigest();
+                        try (InputStream in = new FileInputStream(file)) {
+                            if (ResultSummarizer.isSupported(batch.format)) {
+                                // Summarize the tests while the parser reads the file into the archive
+                                final ResultSummarizer.Tee tee = new ResultSummarizer.Tee(in) {
+
+                                    @Override
+                                    protected void consumed(final byte[] b, final int off, final int len)
+                                        throws IOException {
+
+                                        md.update(b, off, len);
+                                        tar.write(b, off, len);
+                                    }
+                                };
+                                results.getSummary().add(ResultSummarizer.summarize(tee));
+                                tee.drain(buffer);
+                            } else {
+                                int len;
+                                while ((len = in.read(buffer)) >= 0) {
+                                    md.update(buffer, 0, len);
+                                    tar.write(buffer, 0, len);
+                                }
                             }
-                            listener.getLogger().println(msg.toString());
-                        } else {
-                            results.add(result);
-                            listener.getLogger().println(
-                                "Test result file " + file.getName() + " has been successfully exported.");
                         }
-                    } catch (Exception e) {
-                        e.printStackTrace(listener.getLogger());
-                    } finally {
-                        // Release current connection to the connection pool once you are done
-                        put.releaseConnection();
+                        tar.closeEntry();
+                        results.getSpooledFiles().add(
+                            new ExportSpoolEntry.SpooledFile(i, name, ExportIndex.statusKey(file), Util
+                                .toHexString(md.digest())));
+                    }
+                    if (!batch.files.isEmpty()) {
+                        listener.getLogger().println(
+                            batch.files.size() + " test result file(s) spooled for asynchronous export.");
+                    }
+                }
+            }
+            return results;
+        }
+
+        /**
+         * Remove the files from a batch whose content has already been accepted with the same import
+         * parameters by a previous export.
+         *
+         * @param batch the result set batch
+         */
+        private void skipUnchanged(final ResultSetBatch batch) {
+
+            if (indexLookup == null) {
+                return;
+            }
+            lookUp(batch, batch.files);
+            for (Iterator<File> i = batch.files.iterator(); i.hasNext();) {
+                if (isUnchanged(batch, i.next())) {
+                    i.remove();
+                    batch.unchanged++;
+                }
+            }
+        }
+
+        /**
+         * Checks if the content of a file has already been accepted with the same import parameters by a
+         * previous export.
+         *
+         * @param batch the result set batch
+         * @param file the result file
+         * @return true, if unchanged
+         */
+        private boolean isUnchanged(final ResultSetBatch batch, final File file) {
+
+            if (indexLookup == null) {
+                return false;
+            }
+            final String digest = exportIndex.getDigest(file);
+            return digest != null && exportIndex.isAccepted(digest, batch.identity);
+        }
+
+        /**
+         * Look up the given files in the export index on the master. If the master cannot be reached, the
+         * files are exported again.
+         *
+         * @param batch the result set batch
+         * @param files the files to look up
+         */
+        private void lookUp(final ResultSetBatch batch, final List<File> files) {
+
+            try {
+                for (int i = 0; i < files.size(); i += LOOKUP_SIZE) {
+                    final List<String> statusKeys = new ArrayList<>(LOOKUP_SIZE);
+                    for (File file : files.subList(i, Math.min(i + LOOKUP_SIZE, files.size()))) {
+                        statusKeys.add(ExportIndex.statusKey(file));
+                    }
+                    exportIndex.addAll(indexLookup.lookup(statusKeys, batch.identity));
+                }
+            } catch (IOException e) {
+                listener.getLogger().println("Unable to look up previously exported files: " + e);
+            }
+        }
+
+        /**
+         * Compute the import parameters of a result set batch.
+         *
+         * @param batch the result set batch
+         * @param targetUrl the Klaros application URL
+         */
+        private void prepare(final ResultSetBatch batch, final String targetUrl) {
+
+            batch.query = buildQuery(batch.resultSet, true);
+            batch.format = expandVariables(batch.resultSet.getFormat());
+            batch.identity =
+                Util.getDigestOf(targetUrl + '?' + queryPrefix + "&type=" + batch.format
+                    + "&createTestSuiteResults=" + createTestSuite);
+        }
+
+        /**
+         * Mark the start of the uploads of a result set batch. Its export deadline counts from here, so the
+         * time taken to scan and prepare other result sets is not charged to it.
+         *
+         * @param batch the result set batch
+         */
+        private void start(final ResultSetBatch batch) {
+
+            batch.started = System.currentTimeMillis();
+            if (exportTimeout > 0) {
+                batch.deadline = batch.started + exportTimeout;
+            }
+        }
+
+        /**
+         * Check and, if needed, split a file found while scanning the workspace and submit its upload right
+         * away. Called by the scanning thread only.
+         *
+         * @param executor the upload executor of the batch
+         * @param httpclient the http client
+         * @param strURL the import servlet URL
+         * @param batch the result set batch
+         * @param file the result file
+         */
+        private void submit(final ExecutorService executor, final HttpClient httpclient, final String strURL,
+            final ResultSetBatch batch, final File file) {
+
+            if (isUnchanged(batch, file)) {
+                batch.unchanged++;
+                return;
+            }
+            if (!isWellFormed(batch, file)) {
+                return;
+            }
+            final List<File> parts =
+                batch.resultSet.getSplitSize() > 0 ? split(batch, file) : Collections.singletonList(file);
+            for (final File part : parts) {
+                batch.files.add(part);
+                batch.pending.add(executor.submit(new Callable<UploadOutcome>() {
+
+                    @Override
+                    public UploadOutcome call() {
+
+                        return uploadFile(httpclient, strURL, batch, part);
                     }
+                }));
+            }
+        }
+
+        /**
+         * Look up the files found while scanning the workspace and submit their uploads. Called by the
+         * scanning thread only.
+         *
+         * @param executor the upload executor of the batch
+         * @param httpclient the http client
+         * @param strURL the import servlet URL
+         * @param batch the result set batch
+         * @param files the found files, cleared afterwards
+         */
+        private void submitAll(final ExecutorService executor, final HttpClient httpclient, final String strURL,
+            final ResultSetBatch batch, final List<File> files) {
+
+            lookUp(batch, files);
+            for (File file : files) {
+                submit(executor, httpclient, strURL, batch, file);
+            }
+            files.clear();
+        }
+
+        /**
+         * Detect the format of the files matched by a result set using the automatic format and group them
+         * into one batch per format. Malformed files and files of unknown format are rejected.
+         *
+         * @param batch the result set batch
+         * @return the batches per detected format, or the given batch if no file could be used
+         */
+        private List<ResultSetBatch> detectFormats(final ResultSetBatch batch) {
+
+            final Map<String, ResultSetBatch> groups = new LinkedHashMap<>();
+            for (File file : batch.files) {
+                final ResultFormatSniffer.Detection detection = ResultFormatSniffer.sniff(file);
+                if (detection.getError() != null) {
+                    batch.rejected.add(file.getName() + ": " + detection.getError());
+                } else if (detection.getFormat() == null) {
+                    batch.rejected.add(file.getName() + ": the result format could not be detected");
+                } else {
+                    ResultSetBatch group = groups.get(detection.getFormat());
+                    if (group == null) {
+                        group = new ResultSetBatch(batch.resultSet.withFormat(detection.getFormat()));
+                        group.checked = true;
+                        groups.put(detection.getFormat(), group);
+                    }
+                    group.files.add(file);
+                }
+            }
+            batch.checked = true;
+            batch.files.clear();
+            if (groups.isEmpty()) {
+                return Collections.singletonList(batch);
+            }
+
+            // The scan results are reported with the first group
+            final List<ResultSetBatch> result = new ArrayList<>(groups.values());
+            final ResultSetBatch first = result.get(0);
+            first.duplicates = batch.duplicates;
+            first.rejected.addAll(batch.rejected);
+            first.error = batch.error;
+            first.old = batch.old;
+            return result;
+        }
+
+        /**
+         * Reject the malformed files of a result set before they are uploaded.
+         *
+         * @param batch the result set batch
+         */
+        private void rejectMalformed(final ResultSetBatch batch) {
+
+            for (Iterator<File> i = batch.files.iterator(); i.hasNext();) {
+                if (!isWellFormed(batch, i.next())) {
+                    i.remove();
+                }
+            }
+            batch.checked = true;
+        }
+
+        /**
+         * Checks if a file is well formed, malformed files are recorded as rejected.
+         *
+         * @param batch the result set batch
+         * @param file the result file
+         * @return true, if the file may be uploaded
+         */
+        private boolean isWellFormed(final ResultSetBatch batch, final File file) {
+
+            final String error = ResultFormatSniffer.sniff(file).getError();
+            if (error != null) {
+                batch.rejected.add(file.getName() + ": " + error);
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Split the result files of a batch which exceed the split size of its result set at test suite
+         * boundaries. The chunks replace the file in the batch and are uploaded like any other result file.
+         * Files which cannot be split are uploaded unchanged.
+         *
+         * @param batch the result set batch
+         */
+        private void splitOversized(final ResultSetBatch batch) {
+
+            for (ListIterator<File> i = batch.files.listIterator(); i.hasNext();) {
+                final File file = i.next();
+                final List<File> parts = split(batch, file);
+                if (parts.size() == 1 && parts.get(0).equals(file)) {
+                    continue;
+                }
+                i.remove();
+                for (File part : parts) {
+                    i.add(part);
+                }
+            }
+        }
+
+        /**
+         * Split a result file exceeding the split size of its result set at test suite boundaries.
+         *
+         * @param batch the result set batch
+         * @param file the result file
+         * @return the chunks to upload instead of the file, the file itself if it is not split or an empty
+         *         list if it was rejected
+         */
+        private List<File> split(final ResultSetBatch batch, final File file) {
+
+            final long chunkSize = batch.resultSet.getSplitSize() * 1024L * 1024L;
+            if (file.length() <= chunkSize) {
+                return Collections.singletonList(file);
+            }
+            try {
+                // One directory per split file keeps the chunk names of equally named files apart
+                final ResultFileSplitter.Split split = ResultFileSplitter.split(file, createWorkDir(), chunkSize);
+                if (split == null) {
+                    return Collections.singletonList(file);
                 }
+                for (File chunk : split.getChunks()) {
+                    batch.chunks.put(chunk, file);
+                }
+                batch.splits.put(file, split);
+                batch.pendingChunks.put(file, split.getChunks().size());
+                batch.split.add(file.getName() + ": " + split.getChunks().size() + " chunks");
+                return split.getChunks();
+            } catch (XMLStreamException e) {
+                batch.rejected.add(file.getName() + ": " + e.getMessage());
+                return Collections.emptyList();
+            } catch (IOException e) {
+                batch.split.add(file.getName() + ": exported unchanged, " + e.getMessage());
+                return Collections.singletonList(file);
+            }
+        }
+
+        /**
+         * Merge the small result files of a batch into aggregate documents of at most the merge size of its
+         * result set. Only files small enough to be checked completely before the upload are merged, all
+         * other files and files not matching the layout of the result format are uploaded separately.
+         *
+         * @param batch the result set batch
+         */
+        private void mergeSmall(final ResultSetBatch batch) {
+
+            final List<File> candidates = new ArrayList<>();
+            for (File file : batch.files) {
+                if (file.length() <= ResultFormatSniffer.SNIFF_LIMIT && !batch.chunks.containsKey(file)) {
+                    candidates.add(file);
+                }
+            }
+            if (candidates.size() < 2) {
+                return;
+            }
+
+            final ResultFileMerger.Merge merge;
+            try {
+                merge =
+                    ResultFileMerger.merge(candidates, batch.format, createWorkDir(), batch.resultSet
+                        .getMergeSize() * 1024L * 1024L);
+            } catch (IOException e) {
+                batch.mergeError = e.getMessage();
+                return;
+            }
+            final List<File> files = new ArrayList<>();
+            final Set<File> merged = new HashSet<>();
+            for (ResultFileMerger.Aggregate aggregate : merge.getAggregates()) {
+                files.add(aggregate.getFile());
+                batch.merged.put(aggregate.getFile(), aggregate);
+                merged.addAll(aggregate.getSources().keySet());
+            }
+            for (File file : batch.files) {
+                if (!merged.contains(file)) {
+                    files.add(file);
+                }
+            }
+            batch.files.clear();
+            batch.files.addAll(files);
+        }
+
+        /**
+         * Creates a new directory for split or merged result files within the temporary directory of this
+         * export, which is removed once the export is complete.
+         *
+         * @return the new directory
+         * @throws IOException if the directory could not be created
+         */
+        private File createWorkDir() throws IOException {
+
+            if (tempDir == null) {
+                tempDir = Util.createTempDir();
+            }
+            final File dir = new File(tempDir, String.valueOf(tempDir.list().length));
+            if (!dir.mkdir()) {
+                throw new IOException("Unable to create directory " + dir);
+            }
+            return dir;
+        }
+
+        /**
+         * Report the export parameters and scan results of a result set to the build listener.
+         *
+         * @param batch the result set batch
+         */
+        private void reportHeader(final ResultSetBatch batch) {
+
+            final ResultSet resultSet = batch.resultSet;
+            listener.getLogger().println(
+                "The test result(s) contained in target " + resultSet.getSpec() + " will be exported to the "
+                    + "Klaros-Testmanagement Server at " + klarosUrl + " using the " + resultSet.getFormat()
+                    + " format.");
+            listener.getLogger().print("With parameters Project[" + config + "]");
+            if (StringUtils.isNotBlank(iteration)) {
+                listener.getLogger().print(" Iteration[" + iteration + "]");
+            }
+            listener.getLogger().println(" Environment[" + env + "] and SUT[" + sut + "].");
+
+            if (batch.error != null) {
+                batch.error.printStackTrace(listener.getLogger());
+            } else if (batch.files.isEmpty() && batch.unchanged == 0 && batch.old == 0
+                && batch.rejected.isEmpty()) {
+                listener.getLogger().println("No exportable files found");
+            } else if (spool == null && resultSet.isBundle()) {
+                listener.getLogger().println(
+                    "Exporting " + batch.files.size() + " test result files as a single archive.");
+            } else if (spool == null && Math.min(batch.getWorkers(), batch.files.size()) > 1) {
+                listener.getLogger().println(
+                    "Exporting " + batch.files.size() + " test result files using "
+                        + Math.min(batch.getWorkers(), batch.files.size()) + " parallel uploads.");
+            }
+            if (batch.duplicates > 0) {
+                listener.getLogger().println(
+                    "Skipped " + batch.duplicates
+                        + " test result file(s) already matched by a previous result set.");
+            }
+            if (batch.old > 0) {
+                listener.getLogger().println(
+                    "Skipped " + batch.old + " test result file(s) not modified since the build started.");
+            }
+            if (batch.unchanged > 0) {
+                listener.getLogger().println(
+                    "Skipped " + batch.unchanged
+                        + " unchanged test result file(s) already exported with the same parameters.");
+            }
+            if (!batch.rejected.isEmpty()) {
+                listener.getLogger().println(
+                    "Skipped " + batch.rejected.size() + " test result file(s) which cannot be imported:");
+                for (String rejected : batch.rejected) {
+                    listener.getLogger().println("  " + rejected);
+                }
+            }
+            if (!batch.split.isEmpty()) {
+                listener.getLogger().println(
+                    "Split " + batch.split.size() + " oversized test result file(s) at test suite boundaries:");
+                for (String split : batch.split) {
+                    listener.getLogger().println("  " + split);
+                }
+            }
+            if (!batch.merged.isEmpty()) {
+                int sources = 0;
+                for (ResultFileMerger.Aggregate aggregate : batch.merged.values()) {
+                    sources += aggregate.getSources().size();
+                }
+                listener.getLogger().println(
+                    "Merged " + sources + " small test result file(s) into " + batch.merged.size()
+                        + " aggregate document(s).");
+            }
+            if (batch.mergeError != null) {
+                listener.getLogger().println(
+                    "Small test result files are exported separately, merging failed: " + batch.mergeError);
+            }
+        }
+
+        /**
+         * Report the transfer statistics of a result set to the build listener.
+         *
+         * @param batch the result set batch
+         * @param results the export result holding the export statistics
+         */
+        private void reportFooter(final ResultSetBatch batch, final ExportResult results) {
+
+            if (batch.started > 0 && batch.finished >= batch.started) {
+                results.getStatistics().get(klarosUrl, batch.format).resultSet(batch.finished - batch.started);
+            }
+            if (batch.cancelled > 0) {
+                listener.getLogger().println(
+                    "Export deadline of " + TimeUnit.MILLISECONDS.toSeconds(exportTimeout) + " seconds exceeded, "
+                        + batch.cancelled + " test result file(s) have not been exported.");
+            }
+            if ((compressUploads || batch.resultSet.isBundle()) && batch.rawBytes > 0) {
+                listener.getLogger().println(
+                    "Compressed " + batch.rawBytes + " bytes of test results to " + batch.sentBytes
+                        + " bytes, saved " + (batch.rawBytes - batch.sentBytes) + " bytes.");
+            }
+        }
+
+        /**
+         * Builds the query string of the import requests of a result set. Only the result format differs
+         * between result sets, so the remaining parameters are expanded and encoded once per export.
+         *
+         * @param resultSet the result set
+         * @param credentials if true, include the credentials
+         * @return the query string
+         */
+        private String buildQuery(final ResultSet resultSet, final boolean credentials) {
+
+            if (queryPrefix == null) {
+                final QueryString prefix = new QueryString().add("config", expandVariables(config));
+                if (StringUtils.isNotBlank(iteration)) {
+                    prefix.add("iteration", expandVariables(iteration));
+                }
+                prefix.add("env", expandVariables(env)).add("sut", expandVariables(sut));
+
+                final QueryString suffix = new QueryString();
+                if (createTestSuite) {
+                    suffix.add("createTestSuiteResults", "true");
+                }
+                suffix.add("buildServerUrl", buildServerUrl).add("buildJobId", buildJobId).add("buildId", buildId);
+                final QueryString login = new QueryString();
+                if (StringUtils.isNotBlank(username)) {
+                    login.add("username", expandVariables(username)).add("password",
+                        expandVariables(password.getPlainText()));
+                }
+                queryPrefix = prefix.toString();
+                querySuffix = suffix.toString();
+                queryCredentials = login.toString();
+            }
+            final QueryString query =
+                new QueryString().addEncoded(queryPrefix).add("type", expandVariables(resultSet.getFormat()))
+                    .addEncoded(querySuffix);
+            if (credentials) {
+                query.addEncoded(queryCredentials);
+            }
+            return query.toString();
+        }
+
+        /**
+         * Upload a single result file. This method is called concurrently when parallel uploads are
+         * enabled, so it must not write to the build listener directly. Compressed uploads rejected by the
+         * server are repeated uncompressed, and compression is disabled for the rest of the export once
+         * the uncompressed upload succeeded.
+         *
+         * @param httpclient the http client to use
+         * @param strURL the import servlet url
+         * @param batch the result set batch the file belongs to
+         * @param file the result file
+         * @return the upload outcome
+         */
+        private UploadOutcome uploadFile(final HttpClient httpclient, final String strURL,
+            final ResultSetBatch batch, final File file) {
+
+            final String digest = exportIndex.getDigest(file);
+            if (!compressUploads || compressionRejected.get()) {
+                return uploadFile(httpclient, strURL, batch, file, false, digest);
+            }
+
+            final UploadOutcome outcome = uploadFile(httpclient, strURL, batch, file, true, digest);
+            if (isCompressionRejected(outcome)) {
+                final UploadOutcome uncompressed =
+                    uploadFile(httpclient, strURL, batch, file, false, outcome.digests.get(file));
+                if (uncompressed.status != null && uncompressed.status == HttpServletResponse.SC_OK
+                    && compressionRejected.compareAndSet(false, true)) {
+                    uncompressed.message =
+                        "The server rejected the compressed upload of " + file.getName()
+                            + ", continuing with uncompressed uploads.\n" + uncompressed.message;
+                }
+                return uncompressed;
+            }
+            return outcome;
+        }
+
+        /**
+         * Checks if the server rejected a compressed upload because of its compression. Besides status 415,
+         * only a bad request whose response names the content encoding counts, so result files the server
+         * cannot import are not sent again.
+         *
+         * @param outcome the outcome of the compressed upload
+         * @return true, if the compression was rejected
+         */
+        private static boolean isCompressionRejected(final UploadOutcome outcome) {
+
+            if (outcome.status == null) {
+                return false;
+            }
+            if (outcome.status == HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE) {
+                return true;
+            }
+            if (outcome.status != HttpServletResponse.SC_BAD_REQUEST || outcome.response == null) {
+                return false;
+            }
+            final String response = outcome.response.toLowerCase(Locale.ENGLISH);
+            return response.contains("content-encoding") || response.contains("gzip");
+        }
+
+        /**
+         * Upload a single result file. The digest of the file content is sent along if it is known before
+         * sending, which is the case for files recorded in the export index and for repeated requests. A
+         * file whose content changed between two attempts is reported.
+         *
+         * @param httpclient the http client to use
+         * @param strURL the import servlet url
+         * @param batch the result set batch the file belongs to
+         * @param file the result file
+         * @param compress if true, gzip compress the file while sending it
+         * @param known the previously computed digest of the file content, null if unknown
+         * @return the upload outcome
+         */
+        private UploadOutcome uploadFile(final HttpClient httpclient, final String strURL,
+            final ResultSetBatch batch, final File file, final boolean compress, final String known) {
+
+            String expected = known;
+            for (int attempt = 0;; attempt++) {
+                final PutMethod put = new PutMethod(strURL);
+                put.setQueryString(batch.query);
+
+                final ResultFileRequestEntity entity =
+                    new ResultFileRequestEntity(file, batch.merged.containsKey(file) ? MERGED_CONTENT_TYPE
+                        : RESULT_CONTENT_TYPE, compress, ResultSummarizer.isSupported(batch.format));
+                if (compress) {
+                    put.setRequestHeader("Content-Encoding", ResultFileRequestEntity.CONTENT_ENCODING);
+                }
+                if (expected != null) {
+                    put.setRequestHeader(ResultFileRequestEntity.DIGEST_HEADER, expected);
+                }
+                put.setRequestEntity(entity);
+
+                final long start = System.currentTimeMillis();
+                final UploadOutcome outcome =
+                    execute(httpclient, put, strURL, batch, file.getName(), "Test result file "
+                        + file.getName() + " has been successfully exported.", file.length());
+                outcome.timed(start);
+                outcome.rawBytes = file.length();
+                outcome.sentBytes = entity.getSentLength();
+                outcome.summary = entity.getSummary();
+                final File original = batch.chunks.get(file);
+                outcome.name = original != null ? original.getName() : file.getName();
+                final ResultFileMerger.Aggregate aggregate = batch.merged.get(file);
+                if (aggregate != null) {
+                    outcome.files = aggregate.getSources().size();
+                }
+                if (entity.getDigest() != null) {
+                    if (expected != null && !expected.equals(entity.getDigest()) && outcome.message != null) {
+                        outcome.message =
+                            "The content of " + file.getName() + " changed while it was exported.\n"
+                                + outcome.message;
+                    }
+                    outcome.digests.put(file, entity.getDigest());
+                    expected = entity.getDigest();
+                }
+                if (!retry(outcome, attempt, batch)) {
+                    return outcome;
+                }
+            }
+        }
+
+        /**
+         * Upload all result files of a result set as a single zip archive.
+         *
+         * @param httpclient the http client to use
+         * @param strURL the import servlet url
+         * @param batch the result set batch
+         * @param baseDir the base directory
+         * @return the upload outcome
+         */
+        private UploadOutcome uploadBundle(final HttpClient httpclient, final String strURL,
+            final ResultSetBatch batch, final File baseDir) {
+
+            final List<File> files = batch.files;
+            long length = 0;
+            for (File file : files) {
+                length += file.length();
+            }
+            for (int attempt = 0;; attempt++) {
+                final PutMethod put = new PutMethod(strURL);
+                put.setQueryString(batch.query);
+                final ZipBundleRequestEntity entity = new ZipBundleRequestEntity(baseDir, files);
+                put.setRequestEntity(entity);
+
+                final long start = System.currentTimeMillis();
+                final UploadOutcome outcome =
+                    execute(httpclient, put, strURL, batch, "archive of " + files.size() + " files", files
+                        .size() + " test result files have been successfully exported as a single archive.",
+                        length);
+                outcome.timed(start);
+                outcome.name = "archive of " + files.size() + " files";
+                outcome.files = files.size();
+                outcome.rawBytes = entity.getRawLength();
+                outcome.sentBytes = entity.getCompressedLength();
+                outcome.digests.putAll(entity.getDigests());
+                if (!retry(outcome, attempt, batch)) {
+                    return outcome;
+                }
+            }
+        }
+
+        /**
+         * Wait before repeating a request which failed due to a temporary server or connection problem. No
+         * retry is attempted if it would start after the export deadline of the result set.
+         *
+         * @param outcome the outcome of the failed attempt
+         * @param attempt the number of the failed attempt, starting with zero
+         * @param batch the result set batch
+         * @return true, if the request should be repeated
+         */
+        private boolean retry(final UploadOutcome outcome, final int attempt, final ResultSetBatch batch) {
+
+            outcome.retries = attempt;
+            if (!outcome.transientFailure || attempt >= retryPolicy.getRetries()) {
+                return false;
+            }
+            final long delay = retryPolicy.getDelay(attempt, outcome.retryAfter);
+            if (batch.deadline > 0 && System.currentTimeMillis() + delay >= batch.deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Execute an import request once the master granted a lease for it, if the uploads to the Klaros URL
+         * are limited. Requests still waiting for a lease at the export deadline of the result set are
+         * cancelled.
+         *
+         * @param httpclient the http client to use
+         * @param put the import request
+         * @param strURL the import servlet url
+         * @param batch the result set batch
+         * @param name the name of the uploaded content
+         * @param success the message to report on success
+         * @param length the number of bytes to upload before compression
+         * @return the upload outcome
+         */
+        private UploadOutcome execute(final HttpClient httpclient, final PutMethod put, final String strURL,
+            final ResultSetBatch batch, final String name, final String success, final long length) {
+
+            if (leases == null) {
+                return send(httpclient, put, strURL, batch, name, success);
+            }
+            final long timeout = batch.deadline > 0 ? batch.deadline - System.currentTimeMillis() : 0L;
+            try {
+                if (batch.deadline > 0 && timeout <= 0 || !leases.acquire(length, timeout)) {
+                    return UploadOutcome.cancelled();
+                }
+            } catch (IOException e) {
+                return new UploadOutcome(null, null, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return UploadOutcome.cancelled();
+            }
+            try {
+                return send(httpclient, put, strURL, batch, name, success);
+            } finally {
+                try {
+                    leases.release();
+                } catch (IOException e) {
+                    // The master returns all leases of the export once it has ended
+                }
+            }
+        }
+
+        /**
+         * Send an import request. While the circuit breaker of the Klaros URL is open the request fails
+         * immediately. Requests are not started after the export deadline of the result set, and the read
+         * timeout of a started request is shortened so it ends by the deadline.
+         *
+         * @param httpclient the http client to use
+         * @param put the import request
+         * @param strURL the import servlet url
+         * @param batch the result set batch
+         * @param name the name of the uploaded content
+         * @param success the message to report on success
+         * @return the upload outcome
+         */
+        private UploadOutcome send(final HttpClient httpclient, final PutMethod put, final String strURL,
+            final ResultSetBatch batch, final String name, final String success) {
+
+            final String query = batch.query;
+            int timeout = readTimeout;
+            if (batch.deadline > 0) {
+                final long remaining = batch.deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return UploadOutcome.cancelled();
+                }
+                if (timeout == 0 || remaining < timeout) {
+                    timeout = (int) remaining;
+                }
+            }
+            put.getParams().setSoTimeout(timeout);
+
+            if (!breaker.allowRequest()) {
+                return new UploadOutcome(null, "Export of " + name + " skipped - the Klaros-Testmanagement server"
+                    + " at " + klarosUrl + " is unavailable.", null);
+            }
+
+            // Execute request
+            try {
+                int result = httpclient.executeMethod(put);
+                if (RetryPolicy.isServerFailure(result)) {
+                    breaker.recordFailure();
+                } else {
+                    breaker.recordSuccess();
+                }
+
+                if (result != HttpServletResponse.SC_OK) {
+                    StringBuilder msg =
+                        new StringBuilder().append("Export of ").append(name).append(
+                            " failed - Response status code: ").append(result).append(
+                            " for request URL: ").append(strURL).append("?").append(query);
+                    String response = put.getResponseBodyAsString();
+                    if (response != null && response.length() > 0) {
+                        msg.append("\nReason: ").append(response);
+                    }
+                    final UploadOutcome outcome = new UploadOutcome(result, msg.toString(), null);
+                    outcome.response = response;
+                    outcome.transientFailure = RetryPolicy.isTransient(result);
+                    outcome.retryAfter = getRetryAfter(put);
+                    return outcome;
+                } else {
+                    return new UploadOutcome(result, success, null);
+                }
+            } catch (Exception e) {
+                if (batch.deadline > 0 && System.currentTimeMillis() >= batch.deadline) {
+                    // Timed out due to the deadline, which says nothing about the server
+                    breaker.release();
+                    return UploadOutcome.cancelled();
+                }
+                final UploadOutcome outcome = new UploadOutcome(null, null, e);
+                if (RetryPolicy.isConnectionFailure(e)) {
+                    breaker.recordFailure();
+                } else {
+                    breaker.release();
+                }
+                outcome.transientFailure = RetryPolicy.isTransient(e);
+                return outcome;
+            } finally {
+                // Release current connection to the connection pool once you are done
+                put.releaseConnection();
+            }
+        }
+
+        /**
+         * Gets the delay requested by the server before repeating a request.
+         *
+         * @param put the failed request
+         * @return the delay in milliseconds or -1 if none was requested
+         */
+        private static long getRetryAfter(final PutMethod put) {
+
+            final Header header = put.getResponseHeader("Retry-After");
+            if (header != null) {
+                try {
+                    return TimeUnit.SECONDS.toMillis(Long.parseLong(header.getValue().trim()));
+                } catch (NumberFormatException e) {
+                    // HTTP dates are not supported, fall back to the computed delay
+                }
+            }
+            return -1L;
+        }
+
+        /**
+         * Report the outcome of a single upload to the build listener.
+         *
+         * @param batch the result set batch the file belongs to
+         * @param outcome the upload outcome
+         * @param results the export result to add successful uploads to
+         */
+        private void report(final ResultSetBatch batch, final UploadOutcome outcome, final ExportResult results) {
+
+            record(results.getStatistics().get(klarosUrl, batch.format), batch, outcome);
+            results.getReport().add(
+                new ExportReport.Entry(outcome.name, batch.format, statusLabel(outcome), outcome.files,
+                    outcome.rawBytes, outcome.sentBytes, outcome.duration, outcome.retries,
+                    outcome.response != null || outcome.error == null ? outcome.response : outcome.error
+                        .toString()));
+            if (outcome.cancelled) {
+                batch.cancelled += outcome.files;
+                return;
+            }
+            if (outcome.retries > 0) {
+                listener.getLogger().println(
+                    "Export of test result(s) retried " + outcome.retries + " time(s).");
+            }
+            if (outcome.error != null) {
+                outcome.error.printStackTrace(listener.getLogger());
+                return;
+            }
+            if (outcome.status != null && outcome.status == HttpServletResponse.SC_OK) {
+                for (Map.Entry<File, String> digest : outcome.digests.entrySet()) {
+                    final ResultFileMerger.Aggregate aggregate = batch.merged.get(digest.getKey());
+                    if (aggregate != null) {
+                        // An aggregate stands for the merged result files
+                        for (Map.Entry<File, String> source : aggregate.getSources().entrySet()) {
+                            results.getAccepted().add(source.getKey(), source.getValue(), batch.identity);
+                        }
+                        continue;
+                    }
+                    if (!batch.chunks.containsKey(digest.getKey())) {
+                        results.getAccepted().add(digest.getKey(), digest.getValue(), batch.identity);
+                        continue;
+                    }
+                    // A split file is only accepted once all of its chunks have been accepted
+                    final File file = batch.acceptChunk(digest.getKey());
+                    if (file != null) {
+                        results.getAccepted().add(file, batch.splits.get(file).getDigest(), batch.identity);
+                    }
+                }
+                batch.rawBytes += outcome.rawBytes;
+                batch.sentBytes += outcome.sentBytes;
+                results.getSummary().add(outcome.summary);
+            }
+            listener.getLogger().println(outcome.message);
+        }
+
+        /**
+         * Gets the status label of an upload outcome.
+         *
+         * @param outcome the upload outcome
+         * @return the http return code or the reason why no response was received
+         */
+        private static String statusLabel(final UploadOutcome outcome) {
+
+            if (outcome.cancelled) {
+                return ExportStatistics.STATUS_CANCELLED;
+            } else if (outcome.status == null) {
+                return outcome.error != null ? ExportStatistics.STATUS_ERROR : ExportStatistics.STATUS_UNAVAILABLE;
+            }
+            return String.valueOf(outcome.status);
+        }
+
+        /**
+         * Record an upload outcome in the export statistics.
+         *
+         * @param series the statistics of the Klaros URL and result format
+         * @param batch the result set batch
+         * @param outcome the upload outcome
+         */
+        private static void record(final ExportStatistics.Series series, final ResultSetBatch batch,
+            final UploadOutcome outcome) {
+
+            batch.finished = Math.max(batch.finished, outcome.finished);
+            if (outcome.cancelled) {
+                series.request(ExportStatistics.STATUS_CANCELLED, 0, 0, 0, outcome.retries, -1);
+            } else if (outcome.status == null) {
+                series.request(outcome.error != null ? ExportStatistics.STATUS_ERROR
+                    : ExportStatistics.STATUS_UNAVAILABLE, 0, 0, 0, outcome.retries, -1);
+            } else if (outcome.status == HttpServletResponse.SC_OK) {
+                series.request(String.valueOf(outcome.status), outcome.files, outcome.rawBytes, outcome.sentBytes,
+                    outcome.retries, outcome.duration);
             } else {
-                listener.getLogger().println(klarosUrl + ": unable to locate this Klaros URL");
+                series.request(String.valueOf(outcome.status), 0, 0, 0, outcome.retries, outcome.duration);
             }
-            return results;
         }
 
         /**
-         * Expand build environment variables.
+         * Expand build environment variables and build parameters.
          *
          * @param value the value
-         * @param environment the environment variables
-         * @param buildVariables the build variables
          * @return the expanded string, if applicable
-         * @throws IOException Signals that an I/O exception has occurred.
-         * @throws InterruptedException Thrown when a thread is waiting, sleeping, or otherwise paused for a
-         *             long time and another thread interrupts it using the interrupt method in class Thread.
          */
-        private String expandVariables(final String value, final EnvVars environment,
-            final Map<String, String> buildVariables) throws IOException, InterruptedException {
+        private String expandVariables(final String value) {
 
-            String result = value;
-            if (result != null) {
-                for (Entry<String, String> entry : environment.entrySet()) {
-                    result = result.replaceAll("\\$\\{" + entry.getKey() + "\\}", entry.getValue());
-                }
-                for (Entry<String, String> entry : buildVariables.entrySet()) {
-                    result = result.replaceAll("\\$\\{" + entry.getKey() + "\\}", entry.getValue());
-                }
-            }
-            return result;
+            final VariableTemplate template = VariableTemplate.compile(value);
+            return template != null ? template.expand(environment, buildVariables) : null;
         }
 
         /**
-         * Sets the result set to deliver the results from.
+         * Sets the result sets to deliver the results from.
          *
-         * @param value the new result set
+         * @param values the new result sets
          */
-        private void setResultSet(final ResultSet value) {
+        private void setResultSets(final ResultSet[] values) {
 
-            resultSet = value;
+            resultSets = values.clone();
         }
 
         /**
@@ -931,6 +2418,227 @@ public class KlarosTestResultPublisher extends Recorder implements Serializable
 
             this.createTestSuite = createTestSuite;
         }
+
+        /**
+         * Sets the compress uploads flag.
+         *
+         * @param compressUploads the new compress uploads flag
+         */
+        private void setCompressUploads(boolean compressUploads) {
+
+            this.compressUploads = compressUploads;
+        }
+
+        /**
+         * Sets the lookup of previously accepted files, which may be a remote reference to the master.
+         *
+         * @param indexLookup the lookup or null to export all files
+         */
+        private void setIndexLookup(final ExportIndex.Lookup indexLookup) {
+
+            this.indexLookup = indexLookup;
+        }
+
+        /**
+         * Sets the stream to write the spool archive to.
+         *
+         * @param spool the remote spool stream or null to upload the files directly
+         */
+        private void setSpool(final OutputStream spool) {
+
+            this.spool = spool;
+        }
+
+        /**
+         * Sets the timeouts.
+         *
+         * @param connect the connect timeout in seconds
+         * @param read the read timeout in seconds
+         * @param export the maximum duration of the export of a result set in seconds, zero for no limit
+         */
+        private void setTimeouts(final int connect, final int read, final int export) {
+
+            this.connectTimeout = (int) TimeUnit.SECONDS.toMillis(connect);
+            this.readTimeout = (int) TimeUnit.SECONDS.toMillis(read);
+            this.exportTimeout = TimeUnit.SECONDS.toMillis(export);
+        }
+
+        /**
+         * Sets the leases of the export, which may be a remote reference to the master.
+         *
+         * @param leases the leases, null if the uploads are not limited
+         */
+        private void setLeases(final UploadThrottle.Leases leases) {
+
+            this.leases = leases;
+        }
+
+        /**
+         * Sets the start time of the build, used to skip files not modified since. The clock of the node
+         * may differ from the clock of the master, so the current time of the master is recorded as well.
+         *
+         * @param started the start time of the build in milliseconds since the epoch
+         */
+        private void setBuildStarted(final long started) {
+
+            this.buildStarted = started;
+            this.masterTime = System.currentTimeMillis();
+        }
+
+        /**
+         * Sets the retry policy.
+         *
+         * @param retryPolicy the retry policy
+         */
+        private void setRetryPolicy(final RetryPolicy retryPolicy) {
+
+            this.retryPolicy = retryPolicy;
+        }
+    }
+
+    /**
+     * The files matched by a single result set and the state of their export.
+     */
+    private static final class ResultSetBatch {
+
+        private final ResultSet resultSet;
+        private final List<File> files = new ArrayList<>();
+        private final List<Future<UploadOutcome>> pending = new ArrayList<>();
+        private int duplicates;
+        private int unchanged;
+        private String identity;
+        private long rawBytes;
+        private long sentBytes;
+        private String query;
+        private Exception error;
+        private long deadline;
+        private int cancelled;
+        private String format;
+        private long started;
+        private long finished;
+        // Written by the scanning thread while the upload workers of a streamed batch read them
+        private final List<String> rejected = Collections.synchronizedList(new ArrayList<String>());
+        private boolean checked;
+        private final List<String> split = Collections.synchronizedList(new ArrayList<String>());
+        private final Map<File, File> chunks = new ConcurrentHashMap<>();
+        private final Map<File, ResultFileSplitter.Split> splits = new ConcurrentHashMap<>();
+        private final Map<File, Integer> pendingChunks = new ConcurrentHashMap<>();
+        private final Map<File, ResultFileMerger.Aggregate> merged = new ConcurrentHashMap<>();
+        private String mergeError;
+        private int old;
+        private boolean streamed;
+
+        /**
+         * Instantiates a new result set batch.
+         *
+         * @param resultSet the result set
+         */
+        private ResultSetBatch(final ResultSet resultSet) {
+
+            this.resultSet = resultSet;
+        }
+
+        /**
+         * Gets the number of concurrent uploads of this result set.
+         *
+         * @return the number of upload workers
+         */
+        private int getWorkers() {
+
+            return resultSet.isBundle() ? 1 : resultSet.getUploadThreads();
+        }
+
+        /**
+         * Record an accepted chunk of a split result file.
+         *
+         * @param chunk the chunk file
+         * @return the split result file once all of its chunks have been accepted, null otherwise
+         */
+        private File acceptChunk(final File chunk) {
+
+            final File file = chunks.get(chunk);
+            final int remaining = pendingChunks.get(file) - 1;
+            pendingChunks.put(file, remaining);
+            return remaining == 0 ? file : null;
+        }
+    }
+
+    /**
+     * The outcome of a single result file upload.
+     */
+    private static final class UploadOutcome {
+
+        private final Integer status;
+        private String message;
+        private final Exception error;
+        private int files = 1;
+        private long rawBytes;
+        private long sentBytes;
+        private final Map<File, String> digests = new LinkedHashMap<>();
+        private boolean transientFailure;
+        private long retryAfter = -1L;
+        private int retries;
+        private boolean cancelled;
+        private long duration = -1L;
+        private long finished;
+        private ResultSummary summary;
+        private String name;
+        private String response;
+
+        /**
+         * Instantiates a new upload outcome.
+         *
+         * @param status the http return code or null if the request failed
+         * @param message the message to report
+         * @param error the error that occurred, if any
+         */
+        private UploadOutcome(final Integer status, final String message, final Exception error) {
+
+            this.status = status;
+            this.message = message;
+            this.error = error;
+        }
+
+        /**
+         * Record the duration of the request.
+         *
+         * @param start the time the request was started
+         */
+        private void timed(final long start) {
+
+            finished = System.currentTimeMillis();
+            if (!cancelled && (status != null || error != null)) {
+                duration = finished - start;
+            }
+        }
+
+        /**
+         * Creates the outcome of an upload cancelled by the export deadline.
+         *
+         * @return the upload outcome
+         */
+        private static UploadOutcome cancelled() {
+
+            final UploadOutcome outcome = new UploadOutcome(null, null, null);
+            outcome.cancelled = true;
+            return outcome;
+        }
+    }
+
+    /**
+     * Creates the daemon threads used for parallel uploads.
+     */
+    static final class UploadThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r) {
+
+            Thread thread = new Thread(r, "Klaros result upload " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 
     /**
@@ -946,10 +2654,35 @@ public class KlarosTestResultPublisher extends Recorder implements Serializable
             "/plugin/klaros-testmanagement/help-projectConfig.html";
         private static final String URL_NAME = "url.name";
 
+        /** The maximum number of response bytes read by form validations. */
+        private static final int MAX_VALIDATION_RESPONSE = 16 * 1024;
+
         /** Global configuration information. */
 
         private List<String> urls = new ArrayList<String>();
 
+        private int retries = RetryPolicy.DEFAULT_RETRIES;
+
+        private long retryDelay = RetryPolicy.DEFAULT_RETRY_DELAY;
+
+        private int failureThreshold = RetryPolicy.DEFAULT_FAILURE_THRESHOLD;
+
+        private long circuitBreakerTimeout = TimeUnit.MILLISECONDS.toSeconds(RetryPolicy.DEFAULT_OPEN_DURATION);
+
+        private int connectTimeout = (int) TimeUnit.MILLISECONDS.toSeconds(HttpClientPool.DEFAULT_CONNECT_TIMEOUT);
+
+        private int readTimeout = (int) TimeUnit.MILLISECONDS.toSeconds(HttpClientPool.DEFAULT_READ_TIMEOUT);
+
+        private int maxUploads;
+
+        private int maxUploadRate;
+
+        /** The formats supported by the Klaros installations. */
+        private final transient FormatCatalog catalog = new FormatCatalog(this);
+
+        /** The recent results of form validations contacting a Klaros server. */
+        private final transient ValidationCache validations = new ValidationCache();
+
         /**
          * Instantiates a new descriptor implementation.
          */
@@ -978,6 +2711,21 @@ public class KlarosTestResultPublisher extends Recorder implements Serializable
                     save();
                 }
             }
+            retries = Math.max(0, json.optInt("retries", RetryPolicy.DEFAULT_RETRIES));
+            retryDelay = Math.max(0L, json.optLong("retryDelay", RetryPolicy.DEFAULT_RETRY_DELAY));
+            failureThreshold = Math.max(0, json.optInt("failureThreshold", RetryPolicy.DEFAULT_FAILURE_THRESHOLD));
+            circuitBreakerTimeout =
+                Math.max(0L, json.optLong("circuitBreakerTimeout",
+                    TimeUnit.MILLISECONDS.toSeconds(RetryPolicy.DEFAULT_OPEN_DURATION)));
+            connectTimeout =
+                Math.max(0, json.optInt("connectTimeout",
+                    (int) TimeUnit.MILLISECONDS.toSeconds(HttpClientPool.DEFAULT_CONNECT_TIMEOUT)));
+            readTimeout =
+                Math.max(0, json.optInt("readTimeout",
+                    (int) TimeUnit.MILLISECONDS.toSeconds(HttpClientPool.DEFAULT_READ_TIMEOUT)));
+            maxUploads = Math.max(0, json.optInt("maxUploads", 0));
+            maxUploadRate = Math.max(0, json.optInt("maxUploadRate", 0));
+            save();
 
             return super.configure(req, json);
         }
@@ -1018,6 +2766,159 @@ public class KlarosTestResultPublisher extends Recorder implements Serializable
             }
         }
 
+        /**
+         * Gets the number of retries of a failed import request.
+         *
+         * @return the number of retries
+         */
+        public int getRetries() {
+
+            return retries;
+        }
+
+        /**
+         * Gets the delay before the first retry.
+         *
+         * @return the delay in milliseconds
+         */
+        public long getRetryDelay() {
+
+            return retryDelay;
+        }
+
+        /**
+         * Gets the number of consecutive failures after which requests to a Klaros URL fail fast.
+         *
+         * @return the failure threshold, zero if disabled
+         */
+        public int getFailureThreshold() {
+
+            return failureThreshold;
+        }
+
+        /**
+         * Gets the time after which an unavailable Klaros URL is probed again.
+         *
+         * @return the time in seconds
+         */
+        public long getCircuitBreakerTimeout() {
+
+            return circuitBreakerTimeout;
+        }
+
+        /**
+         * Gets the timeout for establishing a connection to a Klaros server.
+         *
+         * @return the connect timeout in seconds, zero for no timeout
+         */
+        public int getConnectTimeout() {
+
+            return connectTimeout;
+        }
+
+        /**
+         * Gets the timeout waiting for response data of a Klaros server.
+         *
+         * @return the read timeout in seconds, zero for no timeout
+         */
+        public int getReadTimeout() {
+
+            return readTimeout;
+        }
+
+        /**
+         * Gets the maximum number of concurrent uploads to each Klaros server from all nodes.
+         *
+         * @return the maximum number of uploads, zero for no limit
+         */
+        public int getMaxUploads() {
+
+            return maxUploads;
+        }
+
+        /**
+         * Gets the maximum rate of the uploads to each Klaros server from all nodes.
+         *
+         * @return the maximum rate in kilobytes per second, zero for no limit
+         */
+        public int getMaxUploadRate() {
+
+            return maxUploadRate;
+        }
+
+        /**
+         * Opens a session of the upload throttle of a Klaros application URL using the configured limits.
+         *
+         * @param url the Klaros application url
+         * @param job the full name of the exporting job
+         * @param priority the priority class of the job
+         * @param weight the share of the job within its priority class
+         * @return the session or null if the uploads are not limited
+         */
+        UploadThrottle.Session openThrottle(final String url, final String job, final String priority,
+            final int weight) {
+
+            if (maxUploads == 0 && maxUploadRate == 0) {
+                return null;
+            }
+            return UploadThrottle.get(url, maxUploads, maxUploadRate * 1024L).open(job, priority, weight);
+        }
+
+        /**
+         * Gets an HTTP client sharing the pooled connections of a Klaros application URL using the configured
+         * timeouts.
+         *
+         * @param url the Klaros application url
+         * @return the http client
+         */
+        HttpClient getClient(final String url) {
+
+            return HttpClientPool.getClient(url, (int) TimeUnit.SECONDS.toMillis(connectTimeout),
+                (int) TimeUnit.SECONDS.toMillis(readTimeout));
+        }
+
+        /**
+         * Gets the result formats supported by a Klaros installation.
+         *
+         * @param url the Klaros application url
+         * @param username the optional Klaros login user name
+         * @param password the optional Klaros login password
+         * @return the supported result formats
+         */
+        ResultFormat[] getFormats(final String url, final String username, final String password) {
+
+            return catalog.getFormats(url, username, password);
+        }
+
+        /**
+         * Stop refreshing the format catalog in the background.
+         */
+        void shutdown() {
+
+            catalog.shutdown();
+        }
+
+        /**
+         * Gets the result formats supported by the first Klaros installation, used for new publishers.
+         *
+         * @return the supported result formats
+         */
+        public ResultFormat[] getTypes() {
+
+            return catalog.getFormats(urls.isEmpty() ? null : urls.get(0), null, null);
+        }
+
+        /**
+         * Creates the retry policy from the global configuration.
+         *
+         * @return the retry policy
+         */
+        RetryPolicy createRetryPolicy() {
+
+            return new RetryPolicy(retries, retryDelay, failureThreshold, TimeUnit.SECONDS
+                .toMillis(circuitBreakerTimeout));
+        }
+
         /**
          * Performs on-the-fly validation on a Klaros application URL.
          *
@@ -1028,35 +2929,94 @@ public class KlarosTestResultPublisher extends Recorder implements Serializable
          */
         public FormValidation doCheckUrl(final String value) throws IOException, ServletException {
 
-            return new FormValidation.URLCheck() {
+            String cooked = Util.fixEmpty(value);
+            if (cooked == null) { // nothing entered yet
+                return FormValidation.ok();
+            }
+
+            if (!cooked.endsWith("/")) {
+                cooked += Character.toString('/');
+            }
+
+            final String target = cooked;
+            return validations.check(new Callable<FormValidation>() {
 
                 @Override
-                protected FormValidation check() throws IOException, ServletException {
+                public FormValidation call() {
 
-                    String cooked = Util.fixEmpty(value);
-                    if (cooked == null) { // nothing entered yet
-                        return FormValidation.ok();
-                    }
+                    return checkUrl(target);
+                }
+            }, "url", target);
+        }
 
-                    if (!value.endsWith("/")) {
-                        cooked += Character.toString('/');
-                    }
+        /**
+         * Checks whether a URL points to a running Klaros installation. Only the beginning of the page is read.
+         *
+         * @param url the Klaros application url
+         * @return the form validation result
+         */
+        private FormValidation checkUrl(final String url) {
 
-                    FormValidation result = FormValidation.ok();
-                    try {
-                        if (findText(open(new URL(cooked)), "Klaros")) {
-                            result = FormValidation.ok();
-                        } else {
-                            result =
-                                FormValidation
-                                    .error("This URL does not point to a running Klaros-Testmanagement installation");
-                        }
-                    } catch (IOException e) {
-                        result = handleIOException(value, e);
+            GetMethod get = null;
+            boolean consumed = false;
+            try {
+                get = new GetMethod(url);
+                get.getParams().setSoTimeout(HttpClientPool.INTERACTIVE_READ_TIMEOUT);
+                final int result = getClient(url).executeMethod(get);
+                final String page = result == HttpServletResponse.SC_OK ? readResponse(get) : "";
+                consumed = isConsumed(get);
+                if (page.contains("Klaros")) {
+                    return FormValidation.ok();
+                } else {
+                    return FormValidation
+                        .error("This URL does not point to a running Klaros-Testmanagement installation");
+                }
+            } catch (IOException | RuntimeException e) {
+                return FormValidation.error("Unable to connect to " + url + ": " + e.getMessage());
+            } finally {
+                if (get != null) {
+                    // Do not drain the rest of the page, a fully read response keeps its connection
+                    if (!consumed) {
+                        get.abort();
                     }
-                    return result;
+                    get.releaseConnection();
                 }
-            }.check();
+            }
+        }
+
+        /**
+         * Read the beginning of a response body.
+         *
+         * @param method the executed request
+         * @return at most {@link #MAX_VALIDATION_RESPONSE} bytes of the response body
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        private static String readResponse(final HttpMethodBase method) throws IOException {
+
+            final InputStream in = method.getResponseBodyAsStream();
+            if (in == null) {
+                return "";
+            }
+            final byte[] buffer = new byte[MAX_VALIDATION_RESPONSE];
+            int length = 0;
+            int read;
+            while (length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+            }
+            return new String(buffer, 0, length, method.getResponseCharSet());
+        }
+
+        /**
+         * Checks if a response body has been read to its end. Reads at most one more byte.
+         *
+         * @param method the executed request
+         * @return true, if there is nothing left to read
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        private static boolean isConsumed(final HttpMethodBase method) throws IOException {
+
+            final InputStream in = method.getResponseBodyAsStream();
+            return in == null || in.read() == -1;
         }
 
         /**
@@ -1107,19 +3067,40 @@ public class KlarosTestResultPublisher extends Recorder implements Serializable
             @QueryParameter final String username, @QueryParameter final String password) throws IOException,
             ServletException {
 
+            return validations.check(new Callable<FormValidation>() {
+
+                @Override
+                public FormValidation call() throws IOException {
+
+                    return testConnection(url, username, password);
+                }
+            }, "connection", url, username, password);
+        }
+
+        /**
+         * Test the connection with the given parameters.
+         *
+         * @param url the url
+         * @param username the username
+         * @param password the password
+         * @return the form validation
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        private FormValidation testConnection(final String url, final String username, final String password)
+            throws IOException {
+
             final String strURL = buildServletURL(url);
 
             PutMethod put = new PutMethod(strURL);
-            StringBuilder query = new StringBuilder();
+            QueryString query = new QueryString();
             if (username != null) {
-                query.append("username=").append(username).append("&password=").append(password).append(
-                    "&type=").append("check");
+                query.add("username", username).add("password", password).add("type", "check");
             }
             put.setQueryString(query.toString());
             try {
                 RequestEntity entity = new StringRequestEntity("", "text/xml; charset=UTF-8", "UTF-8");
                 put.setRequestEntity(entity);
-                return putResultFile(put);
+                return putResultFile(url, put);
             } catch (RuntimeException e) {
                 return FormValidation.error(e.getMessage());
             }
@@ -1128,26 +3109,31 @@ public class KlarosTestResultPublisher extends Recorder implements Serializable
         /**
          * HTTP Put the result file.
          *
+         * @param url the Klaros application url
          * @param put the put request
          * @return the form validation
          * @throws IOException Signals that an I/O exception has occurred.
          * @throws HttpException the http exception
          */
-        private FormValidation putResultFile(PutMethod put) throws IOException, HttpException {
+        private FormValidation putResultFile(final String url, PutMethod put) throws IOException, HttpException {
 
+            boolean consumed = false;
             try {
-                HttpClient client = new HttpClient();
+                HttpClient client = getClient(url);
+                put.getParams().setSoTimeout(HttpClientPool.INTERACTIVE_READ_TIMEOUT);
                 int result = client.executeMethod(put);
                 String response = "";
                 if (result != HttpServletResponse.SC_OK) {
                     StringBuilder msg = new StringBuilder();
-                    response = put.getResponseBodyAsString();
+                    response = readResponse(put);
+                    consumed = isConsumed(put);
                     if (response.length() > 0) {
                         msg.append("Connection failed: ").append(response);
                         System.out.println(msg.toString());
                     }
                     return FormValidation.error(msg.toString());
                 } else {
+                    consumed = isConsumed(put);
                     if (response.length() > 0) {
                         return FormValidation.ok(Messages.connectionEstablished() + ": " + response);
                     } else {
@@ -1155,6 +3141,10 @@ public class KlarosTestResultPublisher extends Recorder implements Serializable
                     }
                 }
             } finally {
+                // Do not drain the rest of a long response, a fully read response keeps its connection
+                if (!consumed) {
+                    put.abort();
+                }
                 put.releaseConnection();
             }
         }
@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Builds an URL encoded query string.
+ */
+final class QueryString {
+
+    private static final String ENCODING = "UTF-8";
+
+    private final StringBuilder query = new StringBuilder();
+
+    /**
+     * Append a parameter. The value is URL encoded, a null value is sent as an empty value.
+     *
+     * @param name the parameter name
+     * @param value the parameter value
+     * @return this query string
+     */
+    QueryString add(final String name, final String value) {
+
+        if (query.length() > 0) {
+            query.append('&');
+        }
+        query.append(name).append('=').append(encode(value));
+        return this;
+    }
+
+    /**
+     * Append an already encoded query string fragment.
+     *
+     * @param fragment the query string fragment
+     * @return this query string
+     */
+    QueryString addEncoded(final String fragment) {
+
+        if (StringUtils.isNotEmpty(fragment)) {
+            if (query.length() > 0) {
+                query.append('&');
+            }
+            query.append(fragment);
+        }
+        return this;
+    }
+
+    /**
+     * URL encode a single query parameter value.
+     *
+     * @param value the value
+     * @return the encoded value
+     */
+    static String encode(final String value) {
+
+        try {
+            return URLEncoder.encode(StringUtils.defaultString(value), ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+
+        return query.toString();
+    }
+}
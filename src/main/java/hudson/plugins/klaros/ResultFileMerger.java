@@ -0,0 +1,497 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import hudson.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * Merges many small result files into a few aggregate documents, so they are imported with a few requests
+ * instead of one request per file. The files are streamed with a StAX event reader and their test suites
+ * are copied into the aggregate document below a common root element. A new aggregate is started once the
+ * current one would exceed the size limit. Files whose layout does not match the result format are left
+ * alone and uploaded separately. NUnit results are never merged, as their root element holds a single test
+ * suite and the totals of all tests.
+ */
+final class ResultFileMerger {
+
+    private static final Map<String, Layout> LAYOUTS = new HashMap<>();
+
+    static {
+        LAYOUTS.put("junit", new Layout("testsuites", "testsuite", "tests", "failures", "errors", "skipped",
+            "disabled", "time"));
+        LAYOUTS.put("xunitdotnet", new Layout("assemblies", "assembly"));
+    }
+
+    private static final XMLInputFactory INPUT_FACTORY = ResultFormatSniffer.createFactory();
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = createOutputFactory();
+
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newInstance();
+
+    /**
+     * The document layout of a result format which can be merged.
+     */
+    private static final class Layout {
+
+        /** The root element holding any number of test suites. */
+        private final String root;
+
+        /** The test suite element, which may also be the root element of a result file. */
+        private final String suite;
+
+        /** The attributes of the root element summarizing all test suites. */
+        private final Set<String> aggregates;
+
+        /**
+         * Instantiates a new layout.
+         *
+         * @param root the root element name
+         * @param suite the test suite element name
+         * @param aggregates the summarizing attributes of the root element
+         */
+        private Layout(final String root, final String suite, final String... aggregates) {
+
+            this.root = root;
+            this.suite = suite;
+            this.aggregates = new HashSet<>(Arrays.asList(aggregates));
+        }
+    }
+
+    /**
+     * An aggregate document and the result files merged into it.
+     */
+    static final class Aggregate {
+
+        private final File file;
+
+        private final Map<File, String> sources = new LinkedHashMap<>();
+
+        /**
+         * Instantiates a new aggregate.
+         *
+         * @param file the aggregate file
+         */
+        private Aggregate(final File file) {
+
+            this.file = file;
+        }
+
+        /**
+         * Gets the aggregate file.
+         *
+         * @return the file
+         */
+        File getFile() {
+
+            return file;
+        }
+
+        /**
+         * Gets the result files merged into the aggregate and their content digests, as computed for
+         * uploaded files.
+         *
+         * @return the content digests by result file
+         */
+        Map<File, String> getSources() {
+
+            return Collections.unmodifiableMap(sources);
+        }
+    }
+
+    /**
+     * The outcome of merging a list of result files.
+     */
+    static final class Merge {
+
+        private final List<Aggregate> aggregates = new ArrayList<>();
+
+        private final List<File> unmerged = new ArrayList<>();
+
+        /**
+         * Gets the aggregates, each merging at least two result files.
+         *
+         * @return the aggregates
+         */
+        List<Aggregate> getAggregates() {
+
+            return aggregates;
+        }
+
+        /**
+         * Gets the result files which have not been merged.
+         *
+         * @return the result files to upload separately
+         */
+        List<File> getUnmerged() {
+
+            return unmerged;
+        }
+    }
+
+    /**
+     * Hide the utility class constructor.
+     */
+    private ResultFileMerger() {
+
+    }
+
+    /**
+     * Creates the output factory. Namespace declarations the copied elements inherited from the root
+     * element of their result file are repeated where needed.
+     *
+     * @return the output factory
+     */
+    private static XMLOutputFactory createOutputFactory() {
+
+        final XMLOutputFactory factory = XMLOutputFactory.newInstance();
+        factory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE);
+        return factory;
+    }
+
+    /**
+     * Checks if result files of the given format can be merged.
+     *
+     * @param format the result format id
+     * @return true, if supported
+     */
+    static boolean isSupported(final String format) {
+
+        return LAYOUTS.containsKey(format);
+    }
+
+    /**
+     * Merge result files into aggregates of at most the given size. An aggregate only exceeds the limit if a
+     * single result file does.
+     *
+     * @param files the result files
+     * @param format the result format id, which must be supported
+     * @param targetDir the directory to write the aggregates to
+     * @param limit the maximum size of an aggregate in bytes
+     * @return the merge
+     * @throws IOException if an aggregate could not be written
+     */
+    static Merge merge(final List<File> files, final String format, final File targetDir, final long limit)
+        throws IOException {
+
+        final Layout layout = LAYOUTS.get(format);
+        final Merge merge = new Merge();
+        AggregateWriter writer = null;
+        try {
+            for (File file : files) {
+                if (writer != null && writer.size() + file.length() > limit) {
+                    finish(writer, merge);
+                    writer = null;
+                }
+
+                final MessageDigest md = ResultFileRequestEntity.createDigest();
+                try (InputStream in =
+                    new BufferedInputStream(new DigestInputStream(new FileInputStream(file), md))) {
+                    final String encoding = ResultFormatSniffer.getUndeclaredEncoding(in);
+                    XMLEventReader reader;
+                    synchronized (INPUT_FACTORY) {
+                        reader =
+                            encoding != null ? INPUT_FACTORY.createXMLEventReader(in, encoding) : INPUT_FACTORY
+                                .createXMLEventReader(in);
+                    }
+                    try {
+                        final StartElement root = nextStartElement(reader);
+                        final String name = root != null ? root.getName().getLocalPart() : null;
+                        if (!layout.root.equals(name) && !layout.suite.equals(name)) {
+                            merge.unmerged.add(file);
+                            continue;
+                        }
+                        if (writer == null) {
+                            final String aggregate =
+                                String.format("%s-merged-%03d.xml", format, merge.aggregates.size() + 1);
+                            writer = new AggregateWriter(new File(targetDir, aggregate), layout, root);
+                        }
+                        if (layout.suite.equals(name)) {
+                            copy(reader, root, writer.events);
+                        } else {
+                            copySuites(reader, layout, writer);
+                        }
+                    } finally {
+                        reader.close();
+                    }
+                    IOUtils.skip(in, Long.MAX_VALUE);
+                } catch (XMLStreamException | IOException e) {
+                    // The aggregate may hold a partial copy of the file, upload its files separately
+                    if (writer != null) {
+                        writer.discard();
+                        merge.unmerged.addAll(writer.aggregate.sources.keySet());
+                        writer = null;
+                    }
+                    merge.unmerged.add(file);
+                    continue;
+                }
+                writer.aggregate.sources.put(file, Util.toHexString(md.digest()));
+            }
+            if (writer != null) {
+                finish(writer, merge);
+                writer = null;
+            }
+        } finally {
+            if (writer != null) {
+                writer.discard();
+            }
+        }
+        return merge;
+    }
+
+    /**
+     * Complete an aggregate. Aggregates of a single result file are discarded in favour of the file.
+     *
+     * @param writer the aggregate writer
+     * @param merge the merge to add the aggregate to
+     * @throws IOException if the aggregate could not be written
+     */
+    private static void finish(final AggregateWriter writer, final Merge merge) throws IOException {
+
+        if (writer.aggregate.sources.size() < 2) {
+            writer.discard();
+            merge.unmerged.addAll(writer.aggregate.sources.keySet());
+            return;
+        }
+        try {
+            writer.close();
+        } catch (XMLStreamException e) {
+            writer.discard();
+            merge.unmerged.addAll(writer.aggregate.sources.keySet());
+            return;
+        }
+        merge.aggregates.add(writer.aggregate);
+    }
+
+    /**
+     * Read up to the root element.
+     *
+     * @param reader the event reader
+     * @return the root element or null if the document has none
+     * @throws XMLStreamException if the document is not well formed
+     */
+    private static StartElement nextStartElement(final XMLEventReader reader) throws XMLStreamException {
+
+        while (reader.hasNext()) {
+            final XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                return event.asStartElement();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copy the test suites below the root element of a result file. Other child elements of the root, like
+     * environment information, are only copied from the first file of an aggregate.
+     *
+     * @param reader the event reader positioned after the root element
+     * @param layout the document layout
+     * @param writer the aggregate writer
+     * @throws XMLStreamException if the file is not well formed or the aggregate could not be written
+     */
+    private static void copySuites(final XMLEventReader reader, final Layout layout,
+        final AggregateWriter writer) throws XMLStreamException {
+
+        final boolean first = writer.aggregate.sources.isEmpty();
+        while (reader.hasNext()) {
+            final XMLEvent event = reader.nextEvent();
+            if (event.isEndElement()) {
+                return;
+            }
+            if (event.isStartElement()) {
+                final StartElement element = event.asStartElement();
+                if (first || layout.suite.equals(element.getName().getLocalPart())) {
+                    copy(reader, element, writer.events);
+                } else {
+                    copy(reader, element, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy an element and its content.
+     *
+     * @param reader the event reader positioned after the start of the element
+     * @param start the start of the element
+     * @param writer the writer to copy to, null to skip the element
+     * @throws XMLStreamException if the file is not well formed or the aggregate could not be written
+     */
+    private static void copy(final XMLEventReader reader, final StartElement start, final XMLEventWriter writer)
+        throws XMLStreamException {
+
+        if (writer != null) {
+            writer.add(EVENT_FACTORY.createCharacters("\n"));
+            writer.add(start);
+        }
+        int depth = 1;
+        while (depth > 0) {
+            final XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                depth++;
+            } else if (event.isEndElement()) {
+                depth--;
+            }
+            if (writer != null) {
+                writer.add(event);
+            }
+        }
+    }
+
+    /**
+     * An aggregate document being written.
+     */
+    private static final class AggregateWriter {
+
+        private final Aggregate aggregate;
+
+        private final QName root;
+
+        private final OutputStream out;
+
+        private final CountingOutputStream counter;
+
+        private final XMLEventWriter events;
+
+        /**
+         * Create a new aggregate file and write the document start and the root element. The root element
+         * is copied from the first merged file, without its summarizing attributes.
+         *
+         * @param file the aggregate file
+         * @param layout the document layout
+         * @param first the root element of the first merged file
+         * @throws IOException if the aggregate file could not be created
+         * @throws XMLStreamException if the aggregate could not be written
+         */
+        private AggregateWriter(final File file, final Layout layout, final StartElement first)
+            throws IOException, XMLStreamException {
+
+            aggregate = new Aggregate(file);
+            root = new QName(first.getName().getNamespaceURI(), layout.root, first.getName().getPrefix());
+            out = new BufferedOutputStream(new FileOutputStream(file));
+            counter = new CountingOutputStream(out);
+            try {
+                synchronized (OUTPUT_FACTORY) {
+                    events = OUTPUT_FACTORY.createXMLEventWriter(counter, "UTF-8");
+                }
+                events.add(EVENT_FACTORY.createStartDocument("UTF-8", "1.0"));
+                events.add(EVENT_FACTORY.createCharacters("\n"));
+                final List<Attribute> attributes = new ArrayList<>();
+                if (layout.root.equals(first.getName().getLocalPart())) {
+                    for (Iterator<?> i = first.getAttributes(); i.hasNext();) {
+                        final Attribute attribute = (Attribute) i.next();
+                        if (!layout.aggregates.contains(attribute.getName().getLocalPart())) {
+                            attributes.add(attribute);
+                        }
+                    }
+                }
+                events.add(EVENT_FACTORY.createStartElement(root, attributes.iterator(), first.getNamespaces()));
+            } catch (XMLStreamException | RuntimeException e) {
+                out.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Gets the number of bytes written to the aggregate file.
+         *
+         * @return the size in bytes
+         * @throws IOException if pending output could not be written
+         */
+        private long size() throws IOException {
+
+            try {
+                events.flush();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+            return counter.getByteCount();
+        }
+
+        /**
+         * Write the end of the root element and the document and close the aggregate file.
+         *
+         * @throws IOException if the aggregate file could not be closed
+         * @throws XMLStreamException if the aggregate could not be written
+         */
+        private void close() throws IOException, XMLStreamException {
+
+            try {
+                events.add(EVENT_FACTORY.createCharacters("\n"));
+                events.add(EVENT_FACTORY.createEndElement(root, null));
+                events.add(EVENT_FACTORY.createCharacters("\n"));
+                events.add(EVENT_FACTORY.createEndDocument());
+                events.close();
+            } finally {
+                out.close();
+            }
+        }
+
+        /**
+         * Close and delete the aggregate file.
+         *
+         * @throws IOException if the aggregate file could not be deleted
+         */
+        private void discard() throws IOException {
+
+            IOUtils.closeQuietly(out);
+            Util.deleteFile(aggregate.file);
+        }
+    }
+}
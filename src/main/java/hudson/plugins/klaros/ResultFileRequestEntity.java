@@ -0,0 +1,330 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import hudson.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * A request entity which sends a result file, optionally gzip compressing it on the fly, and computes the
+ * digest of the file content while it streams. The compressed size is not known in advance, so compressed
+ * files are sent using chunked transfer encoding. The file is never buffered in memory.
+ * <p>
+ * The file is read through a {@link FileChannel} into a buffer kept per upload thread and, for compressed
+ * files, a deflater borrowed from a small pool, so large exports do not allocate a buffer, a stream with a
+ * finalizer and native compressor memory per file. The HTTP client only offers an output stream to the
+ * connection, so the bytes are copied once from the buffer into it.
+ * <p>
+ * If requested, the tests in the file are summarized in the same pass: the file is read through the XML
+ * parser, which hands the bytes it consumed on to the request.
+ */
+final class ResultFileRequestEntity implements RequestEntity {
+
+    /** The content encoding header value to send along with compressed entities. */
+    static final String CONTENT_ENCODING = "gzip";
+
+    /** The algorithm used to compute the content digest. */
+    static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /** The header carrying the hex encoded digest of the uncompressed content, if known before sending. */
+    static final String DIGEST_HEADER = "X-Content-SHA256";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int DEFLATE_BUFFER_SIZE = 8192;
+
+    /** The maximum number of idle deflaters kept for reuse. */
+    private static final int DEFLATER_POOL_SIZE = 16;
+
+    /** The gzip member header: magic number, deflate method, no flags, no time, no extra flags, unknown OS. */
+    private static final byte[] GZIP_HEADER = {
+        0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<ByteBuffer>() {
+
+        @Override
+        protected ByteBuffer initialValue() {
+
+            return ByteBuffer.allocate(BUFFER_SIZE);
+        }
+    };
+
+    /** The idle deflaters, which hold native memory until they are ended. */
+    private static final BlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(DEFLATER_POOL_SIZE);
+
+    private final File file;
+    private final String contentType;
+    private final boolean compress;
+    private final boolean summarize;
+
+    private long sentLength;
+    private String digest;
+    private ResultSummary summary;
+
+    /**
+     * Instantiates a new result file request entity.
+     *
+     * @param file the file to send
+     * @param contentType the content type of the uncompressed file
+     * @param compress if true, gzip compress the file while sending it
+     */
+    ResultFileRequestEntity(final File file, final String contentType, final boolean compress) {
+
+        this(file, contentType, compress, false);
+    }
+
+    /**
+     * Instantiates a new result file request entity.
+     *
+     * @param file the file to send
+     * @param contentType the content type of the uncompressed file
+     * @param compress if true, gzip compress the file while sending it
+     * @param summarize if true, summarize the tests in the file while sending it
+     */
+    ResultFileRequestEntity(final File file, final String contentType, final boolean compress,
+        final boolean summarize) {
+
+        this.file = file;
+        this.contentType = contentType;
+        this.compress = compress;
+        this.summarize = summarize;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+
+        return true;
+    }
+
+    @Override
+    public void writeRequest(final OutputStream out) throws IOException {
+
+        final MessageDigest md = createDigest();
+        final ByteBuffer buffer = BUFFERS.get();
+        final byte[] bytes = buffer.array();
+
+        // Shield the connection stream from being closed along with the compressor
+        final CountingOutputStream counter = new CountingOutputStream(new CloseShieldOutputStream(out));
+        final Deflater deflater = compress ? acquireDeflater() : null;
+        try {
+            final CRC32 crc = compress ? new CRC32() : null;
+            OutputStream target = counter;
+            if (compress) {
+                counter.write(GZIP_HEADER);
+                target = new DeflaterOutputStream(counter, deflater, DEFLATE_BUFFER_SIZE);
+            }
+            final Sink sink = new Sink(md, crc, target);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                if (summarize) {
+                    final ResultSummarizer.Tee tee = new ResultSummarizer.Tee(Channels.newInputStream(channel)) {
+
+                        @Override
+                        protected void consumed(final byte[] b, final int off, final int len) throws IOException {
+
+                            sink.write(b, off, len);
+                        }
+                    };
+                    summary = ResultSummarizer.summarize(tee);
+                    tee.drain(bytes);
+                } else {
+                    buffer.clear();
+                    int len;
+                    while ((len = channel.read(buffer)) >= 0) {
+                        sink.write(bytes, 0, len);
+                        buffer.clear();
+                    }
+                }
+            }
+            if (compress) {
+                ((DeflaterOutputStream) target).finish();
+                writeIntLE(counter, crc.getValue());
+                writeIntLE(counter, sink.length);
+            }
+        } finally {
+            if (deflater != null) {
+                releaseDeflater(deflater);
+            }
+        }
+        out.flush();
+        sentLength = counter.getByteCount();
+        digest = Util.toHexString(md.digest());
+    }
+
+    /**
+     * Take an idle deflater from the pool or create a new one.
+     *
+     * @return the deflater
+     */
+    private static Deflater acquireDeflater() {
+
+        final Deflater deflater = DEFLATERS.poll();
+        return deflater != null ? deflater : new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+
+    /**
+     * Return a deflater to the pool. Deflaters which do not fit into the pool are ended, releasing their
+     * native memory right away instead of leaving it to the finalizer.
+     *
+     * @param deflater the deflater
+     */
+    private static void releaseDeflater(final Deflater deflater) {
+
+        deflater.reset();
+        if (!DEFLATERS.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Write the lower four bytes of a value in little endian byte order, as used by the gzip trailer.
+     *
+     * @param out the stream to write to
+     * @param value the value
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private static void writeIntLE(final OutputStream out, final long value) throws IOException {
+
+        out.write((int) value & 0xff);
+        out.write((int) (value >> 8) & 0xff);
+        out.write((int) (value >> 16) & 0xff);
+        out.write((int) (value >> 24) & 0xff);
+    }
+
+    @Override
+    public long getContentLength() {
+
+        return compress ? -1 : file.length();
+    }
+
+    @Override
+    public String getContentType() {
+
+        return contentType;
+    }
+
+    /**
+     * Gets the number of bytes sent by the last request.
+     *
+     * @return the sent length
+     */
+    long getSentLength() {
+
+        return sentLength;
+    }
+
+    /**
+     * Gets the hex encoded digest of the file content sent by the last request.
+     *
+     * @return the digest or null if the entity has not been sent yet
+     */
+    String getDigest() {
+
+        return digest;
+    }
+
+    /**
+     * Gets the summary of the tests sent by the last request.
+     *
+     * @return the summary or null if not summarized or the file is not well formed
+     */
+    ResultSummary getSummary() {
+
+        return summary;
+    }
+
+    /**
+     * Creates a new content digest.
+     *
+     * @return the message digest
+     */
+    static MessageDigest createDigest() {
+
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Hands the file content on to the digest, the checksum and the request.
+     */
+    private static final class Sink {
+
+        private final MessageDigest md;
+        private final CRC32 crc;
+        private final OutputStream target;
+        private long length;
+
+        /**
+         * Instantiates a new sink.
+         *
+         * @param md the content digest
+         * @param crc the gzip checksum, null if not compressed
+         * @param target the stream to write to
+         */
+        Sink(final MessageDigest md, final CRC32 crc, final OutputStream target) {
+
+            this.md = md;
+            this.crc = crc;
+            this.target = target;
+        }
+
+        /**
+         * Write a part of the file content.
+         *
+         * @param b the buffer
+         * @param off the offset
+         * @param len the number of bytes
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        void write(final byte[] b, final int off, final int len) throws IOException {
+
+            md.update(b, off, len);
+            target.write(b, off, len);
+            if (crc != null) {
+                crc.update(b, off, len);
+            }
+            length += len;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import hudson.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * Splits oversized JUnit result files at test suite boundaries. The file is streamed with a StAX event
+ * reader and its <tt>testsuite</tt> elements are copied into chunk files, each wrapped into its own
+ * <tt>testsuites</tt> root element. A new chunk is started once the current one has reached the chunk size,
+ * so a chunk only exceeds it by at most one test suite and memory use does not depend on the file size.
+ */
+final class ResultFileSplitter {
+
+    /** The root element of result files which can be split. */
+    static final String ROOT = "testsuites";
+
+    /** The attributes of the root element summarizing all test suites, not copied into the chunks. */
+    private static final Set<String> AGGREGATES =
+        new HashSet<>(Arrays.asList("tests", "failures", "errors", "skipped", "disabled", "time"));
+
+    private static final XMLInputFactory INPUT_FACTORY = ResultFormatSniffer.createFactory();
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newInstance();
+
+    /**
+     * The chunks of a split result file.
+     */
+    static final class Split {
+
+        private final List<File> chunks;
+
+        private final String digest;
+
+        /**
+         * Instantiates a new split.
+         *
+         * @param chunks the chunk files
+         * @param digest the content digest of the split file
+         */
+        private Split(final List<File> chunks, final String digest) {
+
+            this.chunks = Collections.unmodifiableList(chunks);
+            this.digest = digest;
+        }
+
+        /**
+         * Gets the chunk files in document order.
+         *
+         * @return the chunk files
+         */
+        List<File> getChunks() {
+
+            return chunks;
+        }
+
+        /**
+         * Gets the content digest of the split file, as computed for uploaded files.
+         *
+         * @return the hex encoded digest
+         */
+        String getDigest() {
+
+            return digest;
+        }
+    }
+
+    /**
+     * Hide the utility class constructor.
+     */
+    private ResultFileSplitter() {
+
+    }
+
+    /**
+     * Split a result file into chunks of about the given size. The chunks are named after the file with a
+     * running number and written into the target directory.
+     *
+     * @param file the result file
+     * @param targetDir the directory to write the chunks to
+     * @param chunkSize the size in bytes after which a new chunk is started
+     * @return the split or null if the file is not a set of test suites or has only a single chunk
+     * @throws IOException if the file could not be read or a chunk could not be written
+     * @throws XMLStreamException if the file is not well formed
+     */
+    static Split split(final File file, final File targetDir, final long chunkSize) throws IOException,
+        XMLStreamException {
+
+        final MessageDigest md = ResultFileRequestEntity.createDigest();
+        final List<File> chunks = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(new DigestInputStream(new FileInputStream(file), md))) {
+            final String undeclared = ResultFormatSniffer.getUndeclaredEncoding(in);
+            // Some StAX implementations close the stream at the end of the document, keep it open for the digest
+            final InputStream source = new CloseShieldInputStream(in);
+            XMLEventReader reader;
+            synchronized (INPUT_FACTORY) {
+                reader =
+                    undeclared != null ? INPUT_FACTORY.createXMLEventReader(source, undeclared) : INPUT_FACTORY
+                        .createXMLEventReader(source);
+            }
+            Chunk chunk = null;
+            try {
+                String encoding = undeclared != null ? undeclared : "UTF-8";
+                StartElement root = null;
+                int depth = 0;
+                while (reader.hasNext()) {
+                    final XMLEvent event = reader.nextEvent();
+                    if (event.isStartDocument()) {
+                        final StartDocument start = (StartDocument) event;
+                        if (start.encodingSet()) {
+                            encoding = start.getCharacterEncodingScheme();
+                        }
+                    } else if (event.isStartElement()) {
+                        depth++;
+                        if (depth == 1) {
+                            root = event.asStartElement();
+                            if (!ROOT.equals(root.getName().getLocalPart())) {
+                                return null;
+                            }
+                            continue;
+                        }
+                        if (chunk == null) {
+                            chunk = new Chunk(chunkFile(file, targetDir, chunks.size() + 1), encoding, root);
+                            chunks.add(chunk.file);
+                        }
+                        chunk.writer.add(event);
+                    } else if (event.isEndElement()) {
+                        depth--;
+                        if (depth > 0) {
+                            chunk.writer.add(event);
+                        }
+                        if (depth == 1 && chunk.isFull(chunkSize)) {
+                            chunk.close();
+                            chunk = null;
+                        }
+                    } else if (depth > 0 && chunk != null) {
+                        chunk.writer.add(event);
+                    }
+                }
+                if (chunk != null) {
+                    chunk.close();
+                    chunk = null;
+                }
+            } finally {
+                if (chunk != null) {
+                    IOUtils.closeQuietly(chunk.out);
+                }
+                reader.close();
+            }
+            // Digest the complete file, including anything following the root element
+            IOUtils.skip(in, Long.MAX_VALUE);
+        }
+
+        if (chunks.size() < 2) {
+            for (File chunk : chunks) {
+                Util.deleteFile(chunk);
+            }
+            return null;
+        }
+        return new Split(chunks, Util.toHexString(md.digest()));
+    }
+
+    /**
+     * Gets the file of a chunk.
+     *
+     * @param file the split file
+     * @param targetDir the directory to write the chunks to
+     * @param number the running number of the chunk, starting with 1
+     * @return the chunk file
+     */
+    private static File chunkFile(final File file, final File targetDir, final int number) {
+
+        final String name = file.getName();
+        final int extension = name.lastIndexOf('.');
+        final String base = extension > 0 ? name.substring(0, extension) : name;
+        return new File(targetDir, String.format("%s-part%03d.xml", base, number));
+    }
+
+    /**
+     * A chunk file being written.
+     */
+    private static final class Chunk {
+
+        private final File file;
+
+        private final StartElement root;
+
+        private final OutputStream out;
+
+        private final CountingOutputStream counter;
+
+        private final XMLEventWriter writer;
+
+        /**
+         * Create a new chunk file and write the document start and the root element.
+         *
+         * @param file the chunk file
+         * @param encoding the character encoding of the split file
+         * @param root the root element of the split file
+         * @throws IOException if the chunk file could not be created
+         * @throws XMLStreamException if the chunk could not be written
+         */
+        private Chunk(final File file, final String encoding, final StartElement root) throws IOException,
+            XMLStreamException {
+
+            this.file = file;
+            this.root = root;
+            out = new BufferedOutputStream(new FileOutputStream(file));
+            counter = new CountingOutputStream(out);
+            try {
+                synchronized (OUTPUT_FACTORY) {
+                    writer = OUTPUT_FACTORY.createXMLEventWriter(counter, encoding);
+                }
+                writer.add(EVENT_FACTORY.createStartDocument(encoding, "1.0"));
+                writer.add(EVENT_FACTORY.createCharacters("\n"));
+                writer.add(EVENT_FACTORY.createStartElement(root.getName(), copyAttributes(root), root
+                    .getNamespaces()));
+            } catch (XMLStreamException | RuntimeException e) {
+                out.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Gets the attributes of the root element to copy into the chunks.
+         *
+         * @param root the root element of the split file
+         * @return the attributes
+         */
+        private static Iterator<Attribute> copyAttributes(final StartElement root) {
+
+            final List<Attribute> attributes = new ArrayList<>();
+            for (Iterator<?> i = root.getAttributes(); i.hasNext();) {
+                final Attribute attribute = (Attribute) i.next();
+                if (!AGGREGATES.contains(attribute.getName().getLocalPart())) {
+                    attributes.add(attribute);
+                }
+            }
+            return attributes.iterator();
+        }
+
+        /**
+         * Checks if the chunk has reached the given size.
+         *
+         * @param chunkSize the chunk size in bytes
+         * @return true, if full
+         * @throws XMLStreamException if pending output could not be written
+         */
+        private boolean isFull(final long chunkSize) throws XMLStreamException {
+
+            writer.flush();
+            return counter.getByteCount() >= chunkSize;
+        }
+
+        /**
+         * Write the end of the root element and the document and close the chunk file.
+         *
+         * @throws IOException if the chunk file could not be closed
+         * @throws XMLStreamException if the chunk could not be written
+         */
+        private void close() throws IOException, XMLStreamException {
+
+            try {
+                writer.add(EVENT_FACTORY.createCharacters("\n"));
+                writer.add(EVENT_FACTORY.createEndElement(root.getName(), root.getNamespaces()));
+                writer.add(EVENT_FACTORY.createCharacters("\n"));
+                writer.add(EVENT_FACTORY.createEndDocument());
+                writer.close();
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
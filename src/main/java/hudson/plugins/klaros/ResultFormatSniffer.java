@@ -0,0 +1,274 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.input.BoundedInputStream;
+
+/**
+ * Checks result files on the node before they are uploaded. The file is read with a streaming XML parser
+ * which stops after the first few elements and never reads more than {@link #SNIFF_LIMIT} bytes, so memory
+ * use does not depend on the file size. Larger files are only checked up to the first few elements after
+ * the root element, smaller files are parsed completely, which also catches truncated files.
+ */
+final class ResultFormatSniffer {
+
+    /** The maximum number of bytes read from a result file. */
+    static final int SNIFF_LIMIT = 64 * 1024;
+
+    /** The number of elements following the root element to check in larger files. */
+    private static final int MAX_ELEMENTS = 16;
+
+    /**
+     * The encoding of result files which neither start with a byte order mark nor declare an encoding. It
+     * matches the charset of {@link KlarosTestResultPublisher#RESULT_CONTENT_TYPE} the files are sent with.
+     */
+    static final String DEFAULT_ENCODING = "ISO-8859-1";
+
+    /** The maximum number of bytes checked for a byte order mark and an encoding declaration. */
+    private static final int PROLOG_LIMIT = 256;
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    /**
+     * The outcome of checking a result file.
+     */
+    static final class Detection {
+
+        private final String format;
+
+        private final String error;
+
+        /**
+         * Instantiates a new detection.
+         *
+         * @param format the detected format id or null if the format is unknown
+         * @param error the reason the file is malformed or null if it is well formed
+         */
+        private Detection(final String format, final String error) {
+
+            this.format = format;
+            this.error = error;
+        }
+
+        /**
+         * Gets the detected format.
+         *
+         * @return the format id or null if the format is unknown
+         */
+        String getFormat() {
+
+            return format;
+        }
+
+        /**
+         * Gets the reason the file is malformed.
+         *
+         * @return the reason or null if the file is well formed
+         */
+        String getError() {
+
+            return error;
+        }
+    }
+
+    /**
+     * Hide the utility class constructor.
+     */
+    private ResultFormatSniffer() {
+
+    }
+
+    /**
+     * Creates the parser factory. External entities and DTDs are never resolved.
+     *
+     * @return the parser factory
+     */
+    static XMLInputFactory createFactory() {
+
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Gets the encoding to parse a result file with. Files which neither start with a byte order mark nor
+     * declare an encoding are read as {@link #DEFAULT_ENCODING}, like the server does.
+     *
+     * @param in the file content positioned at its start, must support mark and reset
+     * @return the default encoding, or null if the parser is to detect the encoding
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    static String getUndeclaredEncoding(final InputStream in) throws IOException {
+
+        final byte[] prolog = new byte[PROLOG_LIMIT];
+        int length = 0;
+        in.mark(PROLOG_LIMIT);
+        try {
+            int read;
+            while (length < prolog.length && (read = in.read(prolog, length, prolog.length - length)) > 0) {
+                length += read;
+            }
+        } finally {
+            in.reset();
+        }
+        if (length >= 2 && (prolog[0] == (byte) 0xfe && prolog[1] == (byte) 0xff
+            || prolog[0] == (byte) 0xff && prolog[1] == (byte) 0xfe)) {
+            return null;
+        }
+        if (length >= 3 && prolog[0] == (byte) 0xef && prolog[1] == (byte) 0xbb && prolog[2] == (byte) 0xbf) {
+            return null;
+        }
+        final String start = new String(prolog, 0, length, DEFAULT_ENCODING);
+        final int end = start.indexOf("?>");
+        if (start.startsWith("<?xml") && end > 0 && start.substring(0, end).contains("encoding")) {
+            return null;
+        }
+        return DEFAULT_ENCODING;
+    }
+
+    /**
+     * Check a result file and detect its format.
+     *
+     * @param file the result file
+     * @return the detection
+     */
+    static Detection sniff(final File file) {
+
+        final long length = file.length();
+        if (length == 0) {
+            return new Detection(null, "the file is empty");
+        }
+        final boolean complete = length <= SNIFF_LIMIT;
+
+        try (InputStream in =
+            new BoundedInputStream(new BufferedInputStream(new FileInputStream(file)), SNIFF_LIMIT)) {
+            final String encoding = getUndeclaredEncoding(in);
+            XMLStreamReader reader;
+            synchronized (FACTORY) {
+                reader =
+                    encoding != null ? FACTORY.createXMLStreamReader(in, encoding) : FACTORY
+                        .createXMLStreamReader(in);
+            }
+            String format = null;
+            int elements = 0;
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                        if (elements == 0) {
+                            format = detect(reader);
+                        }
+                        if (++elements > MAX_ELEMENTS && !complete) {
+                            return new Detection(format, null);
+                        }
+                    }
+                }
+            } catch (XMLStreamException e) {
+                if (!complete && elements > 0) {
+                    // The prefix may end within the document, nothing wrong seen so far
+                    return new Detection(format, null);
+                }
+                return new Detection(format, "the file is not well formed: " + e.getMessage());
+            } finally {
+                reader.close();
+            }
+            if (elements == 0) {
+                return new Detection(null, "the file contains no XML elements");
+            }
+            return new Detection(format, null);
+        } catch (XMLStreamException e) {
+            return new Detection(null, "the file is not well formed: " + e.getMessage());
+        } catch (IOException e) {
+            return new Detection(null, "the file could not be read: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Detect the result format from the root element.
+     *
+     * @param root the reader positioned on the root element
+     * @return the format id or null if unknown
+     */
+    private static String detect(final XMLStreamReader root) {
+
+        final String name = root.getLocalName();
+        final String namespace = root.getNamespaceURI() != null ? root.getNamespaceURI() : "";
+
+        switch (name) {
+        case "testsuites":
+        case "testsuite":
+            if (namespace.contains("check.sourceforge.net")) {
+                return "check";
+            }
+            if ("AllTests".equals(root.getAttributeValue(null, "name"))) {
+                return "googletest";
+            }
+            return "junit";
+        case "test-results":
+        case "test-run":
+            return "nunit";
+        case "TestRun":
+            return namespace.contains("TeamTest") ? "mstest" : "cppunit";
+        case "assemblies":
+        case "assembly":
+            return "xunitdotnet";
+        case "report":
+            return namespace.contains("gallio") ? "mbunit" : null;
+        case "CUNIT_TEST_RUN_REPORT":
+            return "cunit";
+        case "TestLog":
+        case "TestResult":
+            return "boosttest";
+        case "Site":
+            return "ctest";
+        case "gtester":
+            return "gtester";
+        case "testResults":
+            return "jmeter";
+        case "TestCase":
+            return "qtestlib";
+        case "valgrindoutput":
+            return "valgrind";
+        case "tusar":
+            return "tusar";
+        case "story":
+            return "jbehave";
+        default:
+            return null;
+        }
+    }
+}
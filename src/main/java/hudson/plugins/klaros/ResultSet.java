@@ -16,6 +16,7 @@ import java.io.Serializable;
 
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 /**
  * The result set specification.
@@ -26,8 +27,22 @@ public final class ResultSet implements Serializable {
 
     private static final String DEFAULT_FORMAT = "junit";
 
+    /** The format detecting the actual format of each result file. */
+    static final String AUTO_FORMAT = "auto";
+
+    /** The default number of parallel upload workers. */
+    static final int DEFAULT_UPLOAD_THREADS = 1;
+
+    /** The upper bound of parallel upload workers per result set. */
+    static final int MAX_UPLOAD_THREADS = 32;
+
     private String spec;
     private String format;
+    private int uploadThreads;
+    private boolean bundle;
+    private int splitSize;
+    private int mergeSize;
+    private boolean skipOldFiles;
 
     public ResultSet() {
 
@@ -99,4 +114,129 @@ public final class ResultSet implements Serializable {
 
         this.format = format;
     }
+
+    /**
+     * Creates a copy of this result set using another format.
+     *
+     * @param value the format of the copy
+     * @return the copy
+     */
+    ResultSet withFormat(final String value) {
+
+        final ResultSet copy = new ResultSet(spec, value);
+        copy.uploadThreads = uploadThreads;
+        copy.bundle = bundle;
+        copy.splitSize = splitSize;
+        copy.mergeSize = mergeSize;
+        copy.skipOldFiles = skipOldFiles;
+        return copy;
+    }
+
+    /**
+     * Gets the number of parallel upload workers.
+     *
+     * @return the upload worker count, at least 1
+     */
+    public int getUploadThreads() {
+
+        if (uploadThreads < 1) {
+            return DEFAULT_UPLOAD_THREADS;
+        }
+        return Math.min(uploadThreads, MAX_UPLOAD_THREADS);
+    }
+
+    /**
+     * Sets the number of parallel upload workers.
+     *
+     * @param uploadThreads the new upload worker count
+     */
+    @DataBoundSetter
+    public void setUploadThreads(int uploadThreads) {
+
+        this.uploadThreads = uploadThreads;
+    }
+
+    /**
+     * Checks if the matched files are uploaded as a single archive.
+     *
+     * @return true, if set
+     */
+    public boolean isBundle() {
+
+        return bundle;
+    }
+
+    /**
+     * Sets the bundle flag.
+     *
+     * @param bundle the new bundle flag
+     */
+    @DataBoundSetter
+    public void setBundle(boolean bundle) {
+
+        this.bundle = bundle;
+    }
+
+    /**
+     * Gets the size in megabytes above which result files are split at test suite boundaries.
+     *
+     * @return the split size, 0 if files are never split
+     */
+    public int getSplitSize() {
+
+        return Math.max(splitSize, 0);
+    }
+
+    /**
+     * Sets the split size.
+     *
+     * @param splitSize the new split size in megabytes, 0 to disable splitting
+     */
+    @DataBoundSetter
+    public void setSplitSize(int splitSize) {
+
+        this.splitSize = splitSize;
+    }
+
+    /**
+     * Gets the maximum size in megabytes of the aggregate documents small result files are merged into.
+     *
+     * @return the merge size, 0 if files are never merged
+     */
+    public int getMergeSize() {
+
+        return Math.max(mergeSize, 0);
+    }
+
+    /**
+     * Sets the merge size.
+     *
+     * @param mergeSize the new merge size in megabytes, 0 to disable merging
+     */
+    @DataBoundSetter
+    public void setMergeSize(int mergeSize) {
+
+        this.mergeSize = mergeSize;
+    }
+
+    /**
+     * Checks if matched files not modified since the build started are skipped.
+     *
+     * @return true, if set
+     */
+    public boolean isSkipOldFiles() {
+
+        return skipOldFiles;
+    }
+
+    /**
+     * Sets the skip old files flag.
+     *
+     * @param skipOldFiles the new skip old files flag
+     */
+    @DataBoundSetter
+    public void setSkipOldFiles(boolean skipOldFiles) {
+
+        this.skipOldFiles = skipOldFiles;
+    }
 }
@@ -0,0 +1,342 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Summarizes the tests of a result file while it is being sent. The file is read through a {@link Tee},
+ * which hands every byte read by the XML parser on to the upload, so the file is read only once and the
+ * parser never holds more than its read buffer. The test cases of the JUnit, Google Test, NUnit and
+ * xUnit.net formats are recognized.
+ */
+final class ResultSummarizer {
+
+    /** The formats whose test cases are recognized. */
+    private static final Set<String> FORMATS =
+        new HashSet<>(Arrays.asList("junit", "googletest", "nunit", "xunitdotnet"));
+
+    private static final XMLInputFactory FACTORY = ResultFormatSniffer.createFactory();
+
+    /**
+     * Hide the utility class constructor.
+     */
+    private ResultSummarizer() {
+
+    }
+
+    /**
+     * Checks if the test cases of a result format are recognized.
+     *
+     * @param format the result format id
+     * @return true, if supported
+     */
+    static boolean isSupported(final String format) {
+
+        return FORMATS.contains(format);
+    }
+
+    /**
+     * Summarize the tests of a result file. The stream is read up to the end of the document, the caller
+     * has to read the remainder of a {@link Tee}.
+     *
+     * @param in the result file content
+     * @return the summary or null if the content is not well formed
+     */
+    static ResultSummary summarize(final InputStream in) {
+
+        final ResultSummary summary = new ResultSummary();
+        XMLStreamReader reader = null;
+        try {
+            // Bytes read ahead by the buffer have passed a tee already and are not read again
+            final InputStream source = in.markSupported() ? in : new BufferedInputStream(in);
+            final String encoding = ResultFormatSniffer.getUndeclaredEncoding(source);
+            synchronized (FACTORY) {
+                reader =
+                    encoding != null ? FACTORY.createXMLStreamReader(source, encoding) : FACTORY
+                        .createXMLStreamReader(source);
+            }
+
+            // JUnit test cases are classified by their child elements
+            String name = null;
+            long duration = 0;
+            ResultSummary.Outcome outcome = null;
+            while (reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (name != null && "testcase".equals(reader.getLocalName())) {
+                        summary.record(name, outcome, duration);
+                        name = null;
+                    }
+                    continue;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                switch (reader.getLocalName()) {
+                case "testcase":
+                    name = qualify(attribute(reader, "classname"), attribute(reader, "name"));
+                    duration = millis(attribute(reader, "time"));
+                    outcome =
+                        "notrun".equals(attribute(reader, "status")) ? ResultSummary.Outcome.SKIPPED
+                            : ResultSummary.Outcome.PASSED;
+                    break;
+                case "failure":
+                    if (name != null && outcome != ResultSummary.Outcome.ERROR) {
+                        outcome = ResultSummary.Outcome.FAILED;
+                    }
+                    break;
+                case "error":
+                    if (name != null) {
+                        outcome = ResultSummary.Outcome.ERROR;
+                    }
+                    break;
+                case "skipped":
+                    if (name != null) {
+                        outcome = ResultSummary.Outcome.SKIPPED;
+                    }
+                    break;
+                case "test-case":
+                    final String time = attribute(reader, "time");
+                    summary.record(qualify(null, attribute(reader, "fullname") != null ? attribute(reader,
+                        "fullname") : attribute(reader, "name")), nunitOutcome(reader), millis(time != null ? time
+                        : attribute(reader, "duration")));
+                    break;
+                case "test":
+                    final String result = attribute(reader, "result");
+                    if (result != null) {
+                        summary.record(qualify(null, attribute(reader, "name")), xunitOutcome(result),
+                            millis(attribute(reader, "time")));
+                    }
+                    break;
+                default:
+                    break;
+                }
+            }
+            return summary;
+        } catch (XMLStreamException | IOException e) {
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // Nothing to release
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the outcome of an NUnit 2 or 3 test case.
+     *
+     * @param reader the reader positioned on the test case
+     * @return the outcome
+     */
+    private static ResultSummary.Outcome nunitOutcome(final XMLStreamReader reader) {
+
+        if ("False".equalsIgnoreCase(attribute(reader, "executed"))) {
+            return ResultSummary.Outcome.SKIPPED;
+        }
+        final String result = StringUtils.defaultString(attribute(reader, "result"));
+        switch (result) {
+        case "Success":
+        case "Passed":
+            return ResultSummary.Outcome.PASSED;
+        case "Failure":
+        case "Failed":
+            return "Error".equals(attribute(reader, "label")) ? ResultSummary.Outcome.ERROR
+                : ResultSummary.Outcome.FAILED;
+        case "Error":
+            return ResultSummary.Outcome.ERROR;
+        case "":
+            return "False".equalsIgnoreCase(attribute(reader, "success")) ? ResultSummary.Outcome.FAILED
+                : ResultSummary.Outcome.PASSED;
+        default:
+            return ResultSummary.Outcome.SKIPPED;
+        }
+    }
+
+    /**
+     * Gets the outcome of an xUnit.net test.
+     *
+     * @param result the result attribute
+     * @return the outcome
+     */
+    private static ResultSummary.Outcome xunitOutcome(final String result) {
+
+        switch (result) {
+        case "Pass":
+            return ResultSummary.Outcome.PASSED;
+        case "Fail":
+            return ResultSummary.Outcome.FAILED;
+        default:
+            return ResultSummary.Outcome.SKIPPED;
+        }
+    }
+
+    /**
+     * Gets an attribute of the current element.
+     *
+     * @param reader the reader
+     * @param name the attribute name
+     * @return the attribute value or null
+     */
+    private static String attribute(final XMLStreamReader reader, final String name) {
+
+        return reader.getAttributeValue(null, name);
+    }
+
+    /**
+     * Builds the name of a test.
+     *
+     * @param container the name of the class or suite, may be null
+     * @param name the name of the test, may be null
+     * @return the qualified name
+     */
+    private static String qualify(final String container, final String name) {
+
+        if (StringUtils.isBlank(container)) {
+            return StringUtils.defaultString(name);
+        }
+        return container + '.' + StringUtils.defaultString(name);
+    }
+
+    /**
+     * Parse a duration in seconds.
+     *
+     * @param seconds the duration in seconds, may use a thousands separator
+     * @return the duration in milliseconds, 0 if missing or malformed
+     */
+    private static long millis(final String seconds) {
+
+        if (seconds == null) {
+            return 0L;
+        }
+        try {
+            return Math.max(0L, Math.round(Double.parseDouble(seconds.replace(",", "").trim()) * 1000d));
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    /**
+     * An input stream handing every byte read on to a consumer. Closing it does not close the underlying
+     * stream.
+     */
+    abstract static class Tee extends FilterInputStream {
+
+        private final byte[] single = new byte[1];
+
+        /**
+         * Instantiates a new tee.
+         *
+         * @param in the stream to read from
+         */
+        Tee(final InputStream in) {
+
+            super(in);
+        }
+
+        /**
+         * Called for the bytes read.
+         *
+         * @param b the buffer
+         * @param off the offset of the bytes
+         * @param len the number of bytes
+         * @throws IOException if the bytes could not be handed on
+         */
+        protected abstract void consumed(byte[] b, int off, int len) throws IOException;
+
+        @Override
+        public int read() throws IOException {
+
+            final int c = super.read();
+            if (c >= 0) {
+                single[0] = (byte) c;
+                consumed(single, 0, 1);
+            }
+            return c;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+
+            final int n = super.read(b, off, len);
+            if (n > 0) {
+                consumed(b, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+
+            final byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            final int len = read(buffer, 0, buffer.length);
+            return Math.max(len, 0);
+        }
+
+        /**
+         * Leave the underlying stream open. Parsers may close their input at the end of the document, the
+         * remainder is still to be read then, so the caller closes the underlying stream.
+         */
+        @Override
+        public void close() {
+
+        }
+
+        @Override
+        public boolean markSupported() {
+
+            return false;
+        }
+
+        /**
+         * Read the remainder of the stream.
+         *
+         * @param buffer the buffer to read into
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        void drain(final byte[] buffer) throws IOException {
+
+            while (read(buffer, 0, buffer.length) >= 0) {
+                continue;
+            }
+        }
+    }
+}
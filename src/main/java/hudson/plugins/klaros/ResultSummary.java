@@ -0,0 +1,247 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A compact summary of exported test results: the number of tests per outcome, their total duration and
+ * the slowest tests. Summaries are computed on the exporting node and stored with the build, so the results
+ * can be shown without asking the Klaros-Testmanagement server and without reading the result files again.
+ */
+public final class ResultSummary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of slowest tests kept. */
+    static final int SLOWEST = 10;
+
+    /**
+     * The outcome of a single test.
+     */
+    enum Outcome {
+        /** The test passed. */
+        PASSED,
+        /** An assertion of the test failed. */
+        FAILED,
+        /** The test ended with an unexpected error. */
+        ERROR,
+        /** The test was not run. */
+        SKIPPED
+    }
+
+    private int passed;
+    private int failed;
+    private int errors;
+    private int skipped;
+    private long duration;
+
+    /** The slowest tests, slowest first. */
+    private final List<TestTiming> slowest = new ArrayList<>();
+
+    /**
+     * Record a test.
+     *
+     * @param name the name of the test
+     * @param outcome the outcome
+     * @param millis the duration in milliseconds
+     */
+    void record(final String name, final Outcome outcome, final long millis) {
+
+        switch (outcome) {
+        case PASSED:
+            passed++;
+            break;
+        case FAILED:
+            failed++;
+            break;
+        case ERROR:
+            errors++;
+            break;
+        default:
+            skipped++;
+            break;
+        }
+        duration += millis;
+        if (outcome != Outcome.SKIPPED) {
+            addTiming(new TestTiming(name, millis));
+        }
+    }
+
+    /**
+     * Add the tests of another summary to this one.
+     *
+     * @param other the other summary, may be null
+     */
+    synchronized void add(final ResultSummary other) {
+
+        if (other == null) {
+            return;
+        }
+        passed += other.passed;
+        failed += other.failed;
+        errors += other.errors;
+        skipped += other.skipped;
+        duration += other.duration;
+        for (TestTiming timing : other.slowest) {
+            addTiming(timing);
+        }
+    }
+
+    /**
+     * Keep a test if it is among the slowest.
+     *
+     * @param timing the test timing
+     */
+    private void addTiming(final TestTiming timing) {
+
+        if (slowest.size() == SLOWEST && timing.duration <= slowest.get(SLOWEST - 1).duration) {
+            return;
+        }
+        int index = slowest.size();
+        while (index > 0 && slowest.get(index - 1).duration < timing.duration) {
+            index--;
+        }
+        slowest.add(index, timing);
+        if (slowest.size() > SLOWEST) {
+            slowest.remove(SLOWEST);
+        }
+    }
+
+    /**
+     * Gets the number of tests.
+     *
+     * @return the number of tests
+     */
+    public synchronized int getTotal() {
+
+        return passed + failed + errors + skipped;
+    }
+
+    /**
+     * Gets the number of passed tests.
+     *
+     * @return the number of passed tests
+     */
+    public synchronized int getPassed() {
+
+        return passed;
+    }
+
+    /**
+     * Gets the number of failed tests.
+     *
+     * @return the number of failed tests
+     */
+    public synchronized int getFailed() {
+
+        return failed;
+    }
+
+    /**
+     * Gets the number of tests ended with an error.
+     *
+     * @return the number of erroneous tests
+     */
+    public synchronized int getErrors() {
+
+        return errors;
+    }
+
+    /**
+     * Gets the number of skipped tests.
+     *
+     * @return the number of skipped tests
+     */
+    public synchronized int getSkipped() {
+
+        return skipped;
+    }
+
+    /**
+     * Gets the total duration of all tests.
+     *
+     * @return the duration in milliseconds
+     */
+    public synchronized long getDuration() {
+
+        return duration;
+    }
+
+    /**
+     * Gets the slowest tests.
+     *
+     * @return the slowest tests, slowest first
+     */
+    public synchronized List<TestTiming> getSlowest() {
+
+        return Collections.unmodifiableList(new ArrayList<>(slowest));
+    }
+
+    /**
+     * The duration of a single test.
+     */
+    public static final class TestTiming implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final long duration;
+
+        /**
+         * Instantiates a new test timing.
+         *
+         * @param name the test name
+         * @param duration the duration in milliseconds
+         */
+        TestTiming(final String name, final long duration) {
+
+            this.name = name;
+            this.duration = duration;
+        }
+
+        /**
+         * Gets the test name.
+         *
+         * @return the name
+         */
+        public String getName() {
+
+            return name;
+        }
+
+        /**
+         * Gets the duration.
+         *
+         * @return the duration in milliseconds
+         */
+        public long getDuration() {
+
+            return duration;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.ConnectException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.httpclient.ConnectTimeoutException;
+import org.apache.commons.httpclient.NoHttpResponseException;
+
+/**
+ * Decides which failed imports are retried and how long to wait before the next attempt. The delay grows
+ * exponentially with each attempt and is randomized, so uploads failing at the same time do not hit the
+ * recovering server at the same time again. The policy also carries the settings of the
+ * {@link CircuitBreaker} of the Klaros URL, as both are configured globally but applied on the node
+ * performing the upload.
+ */
+final class RetryPolicy implements Serializable {
+
+    private static final long serialVersionUID = 3284616702373471937L;
+
+    /** The default number of retries per request. */
+    static final int DEFAULT_RETRIES = 3;
+
+    /** The default delay before the first retry in milliseconds. */
+    static final long DEFAULT_RETRY_DELAY = 1000L;
+
+    /** The maximum delay between retries in milliseconds. */
+    static final long MAX_RETRY_DELAY = 60000L;
+
+    /** The default number of consecutive failures opening the circuit breaker. */
+    static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    /** The default time in milliseconds the circuit breaker stays open before probing the server. */
+    static final long DEFAULT_OPEN_DURATION = 30000L;
+
+    private final int retries;
+
+    private final long retryDelay;
+
+    private final int failureThreshold;
+
+    private final long openDuration;
+
+    /**
+     * Instantiates a new retry policy.
+     *
+     * @param retries the number of retries per request, zero disables retries
+     * @param retryDelay the delay before the first retry in milliseconds
+     * @param failureThreshold the number of consecutive failures opening the circuit breaker, zero disables
+     *            the circuit breaker
+     * @param openDuration the time in milliseconds the circuit breaker stays open
+     */
+    RetryPolicy(final int retries, final long retryDelay, final int failureThreshold, final long openDuration) {
+
+        this.retries = Math.max(0, retries);
+        this.retryDelay = Math.max(0L, Math.min(MAX_RETRY_DELAY, retryDelay));
+        this.failureThreshold = Math.max(0, failureThreshold);
+        this.openDuration = Math.max(0L, openDuration);
+    }
+
+    /**
+     * Gets the number of retries per request.
+     *
+     * @return the number of retries
+     */
+    int getRetries() {
+
+        return retries;
+    }
+
+    /**
+     * Gets the number of consecutive failures opening the circuit breaker.
+     *
+     * @return the failure threshold, zero if the circuit breaker is disabled
+     */
+    int getFailureThreshold() {
+
+        return failureThreshold;
+    }
+
+    /**
+     * Gets the time the circuit breaker stays open before probing the server.
+     *
+     * @return the open duration in milliseconds
+     */
+    long getOpenDuration() {
+
+        return openDuration;
+    }
+
+    /**
+     * Gets the randomized delay before a retry. Half of the exponentially growing delay is fixed, the other
+     * half is random. A delay requested by the server is honored up to {@link #MAX_RETRY_DELAY}.
+     *
+     * @param attempt the number of the failed attempt, starting with zero
+     * @param retryAfter the delay requested by the server in milliseconds or a negative value
+     * @return the delay in milliseconds
+     */
+    long getDelay(final int attempt, final long retryAfter) {
+
+        if (retryAfter >= 0) {
+            return Math.min(MAX_RETRY_DELAY, retryAfter);
+        }
+        final long delay = Math.min(MAX_RETRY_DELAY, retryDelay << Math.min(attempt, 16));
+        return delay / 2 + (delay > 1 ? ThreadLocalRandom.current().nextLong(delay / 2 + 1) : 0L);
+    }
+
+    /**
+     * Checks whether a response status signals a temporary server problem which kept the server from
+     * importing the request, so it is safe to repeat. A bad gateway or gateway timeout from a proxy is not
+     * repeated, as the server behind it may still be importing or may already have imported the result file.
+     *
+     * @param status the http response status
+     * @return true, if the request may succeed when repeated
+     */
+    static boolean isTransient(final int status) {
+
+        switch (status) {
+        case HttpServletResponse.SC_REQUEST_TIMEOUT:
+        case 429: // Too Many Requests
+        case HttpServletResponse.SC_SERVICE_UNAVAILABLE:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether a response status signals a problem of the server or a proxy in front of it, which
+     * counts for the circuit breaker.
+     *
+     * @param status the http response status
+     * @return true, if the server or the proxy failed
+     */
+    static boolean isServerFailure(final int status) {
+
+        return isTransient(status) || status == HttpServletResponse.SC_BAD_GATEWAY
+            || status == HttpServletResponse.SC_GATEWAY_TIMEOUT;
+    }
+
+    /**
+     * Checks whether a request failed before the server could have imported it, so it is safe to repeat.
+     * These are failures to connect, to get a pooled connection in time and stale kept-alive connections
+     * closed by the server without a response. A read timeout or a connection reset after the request was
+     * sent is not repeated, as the server may already have imported the result file and a repeated request
+     * would import it twice.
+     *
+     * @param error the request failure
+     * @return true, if the request may be repeated
+     */
+    static boolean isTransient(final Exception error) {
+
+        return error instanceof ConnectException || error instanceof ConnectTimeoutException
+            || error instanceof NoHttpResponseException;
+    }
+
+    /**
+     * Checks whether a request failure signals a problem of the connection or the server, which counts for
+     * the circuit breaker. Missing result files say nothing about the server.
+     *
+     * @param error the request failure
+     * @return true, if the failure is due to the connection or the server
+     */
+    static boolean isConnectionFailure(final Exception error) {
+
+        return error instanceof IOException && !(error instanceof FileNotFoundException);
+    }
+}
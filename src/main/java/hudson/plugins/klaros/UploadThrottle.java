@@ -0,0 +1,425 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the load all builds put on a Klaros-Testmanagement application URL. Each import request needs a
+ * lease granted by the master. At most the configured number of leases per URL are held at the same time, and
+ * the requests are started so the uploaded bytes do not exceed the configured rate. Nodes ask for leases
+ * through a remote reference to a {@link Session}, so the limits apply to the exports of all nodes. Like the
+ * {@link CircuitBreaker}, one throttle is kept per URL, but only in the master JVM.
+ * <p>
+ * Waiting requests are served by priority class first. Within a class the jobs share the uploads by their
+ * weight using start time fair queuing: each request is tagged with the virtual time its job may start it,
+ * advanced by its size divided by the weight of the job, and the request with the lowest tag is served
+ * next. Every result file needs its own lease, so a job exporting many files cannot hold back the requests
+ * of other jobs for more than a single upload.
+ */
+final class UploadThrottle {
+
+    /**
+     * The leases of an export, which may be used remotely.
+     */
+    interface Leases {
+
+        /**
+         * Wait for a lease to upload the given number of bytes.
+         *
+         * @param bytes the number of bytes to upload
+         * @param timeout the maximum time to wait in milliseconds, zero to wait without limit
+         * @return true, if the lease was granted, false if the time ran out or the export ended
+         * @throws IOException if the master could not be reached
+         * @throws InterruptedException if the calling thread was interrupted while waiting
+         */
+        boolean acquire(long bytes, long timeout) throws IOException, InterruptedException;
+
+        /**
+         * Return a lease granted before.
+         *
+         * @throws IOException if the master could not be reached
+         */
+        void release() throws IOException;
+    }
+
+    /** The priority class served first. */
+    static final String PRIORITY_HIGH = "high";
+
+    /** The default priority class. */
+    static final String PRIORITY_NORMAL = "normal";
+
+    /** The priority class served last. */
+    static final String PRIORITY_LOW = "low";
+
+    /** The default share of a job. */
+    static final int DEFAULT_WEIGHT = 1;
+
+    /** The upper bound of the share of a job. */
+    static final int MAX_WEIGHT = 100;
+
+    /** The minimum cost of a request in bytes, so small files still account for the request overhead. */
+    static final long MIN_COST = 64 * 1024L;
+
+    private static final Map<String, UploadThrottle> THROTTLES = new ConcurrentHashMap<>();
+
+    private final List<Ticket> waiting = new ArrayList<>();
+
+    /** The jobs with an open session, by job name. */
+    private final Map<String, Flow> flows = new HashMap<>();
+
+    /** The virtual time of each priority class, the tag of the request last served. */
+    private final double[] virtualTime = new double[3];
+
+    private long sequence;
+
+    private int maxUploads;
+
+    private long maxRate;
+
+    private int active;
+
+    /** The {@link System#nanoTime()} until which the bandwidth has been handed out. */
+    private long reserved = System.nanoTime();
+
+    /**
+     * Instantiates a new upload throttle.
+     */
+    private UploadThrottle() {
+
+    }
+
+    /**
+     * Gets the throttle of a Klaros application URL and applies the current limits.
+     *
+     * @param applicationURL the Klaros application url
+     * @param maxUploads the maximum number of concurrent uploads, zero for no limit
+     * @param maxRate the maximum upload rate in bytes per second, zero for no limit
+     * @return the upload throttle
+     */
+    static UploadThrottle get(final String applicationURL, final int maxUploads, final long maxRate) {
+
+        final String key = applicationURL != null ? applicationURL : "";
+        UploadThrottle throttle = THROTTLES.get(key);
+        if (throttle == null) {
+            synchronized (THROTTLES) {
+                throttle = THROTTLES.get(key);
+                if (throttle == null) {
+                    throttle = new UploadThrottle();
+                    THROTTLES.put(key, throttle);
+                }
+            }
+        }
+        synchronized (throttle) {
+            throttle.maxUploads = maxUploads;
+            throttle.maxRate = maxRate;
+            throttle.notifyAll();
+        }
+        return throttle;
+    }
+
+    /**
+     * Open the session of an export. All leases still held when the session is closed are returned, so
+     * exports of failed or disconnected nodes do not block others.
+     *
+     * @param job the full name of the exporting job, sessions of the same job share its weight
+     * @param priority the priority class, one of {@link #PRIORITY_HIGH}, {@link #PRIORITY_NORMAL} or
+     *            {@link #PRIORITY_LOW}
+     * @param weight the share of the job within its priority class
+     * @return the new session
+     */
+    synchronized Session open(final String job, final String priority, final int weight) {
+
+        final String key = job != null ? job : "";
+        Flow flow = flows.get(key);
+        if (flow == null) {
+            flow = new Flow();
+            flows.put(key, flow);
+        }
+        flow.sessions++;
+        return new Session(key, flow, rank(priority), Math.min(Math.max(weight, 1), MAX_WEIGHT));
+    }
+
+    /**
+     * Gets the rank of a priority class, lower ranks are served first.
+     *
+     * @param priority the priority class
+     * @return the rank
+     */
+    static int rank(final String priority) {
+
+        if (PRIORITY_HIGH.equals(priority)) {
+            return 0;
+        }
+        if (PRIORITY_LOW.equals(priority)) {
+            return 2;
+        }
+        return 1;
+    }
+
+    /**
+     * Wait until a session may start an upload.
+     *
+     * @param session the session
+     * @param bytes the number of bytes to upload
+     * @param timeout the maximum time to wait in milliseconds, zero to wait without limit
+     * @return true, if the lease was granted
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     */
+    private boolean acquire(final Session session, final long bytes, final long timeout)
+        throws InterruptedException {
+
+        final long deadline = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0L;
+        final long delay;
+        synchronized (this) {
+            final Ticket ticket = enqueue(session, bytes);
+            try {
+                while (next() != ticket || maxUploads > 0 && active >= maxUploads) {
+                    if (session.closed) {
+                        return false;
+                    }
+                    if (deadline == 0) {
+                        wait();
+                    } else {
+                        final long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                }
+                if (session.closed) {
+                    return false;
+                }
+
+                // Space the starts of the uploads by the time their bytes take at the maximum rate
+                final long now = System.nanoTime();
+                final long start = maxRate > 0 && reserved - now > 0 ? reserved : now;
+                if (deadline != 0 && start - deadline > 0) {
+                    return false;
+                }
+                if (maxRate > 0) {
+                    reserved = start + (long) (bytes * (double) TimeUnit.SECONDS.toNanos(1) / maxRate);
+                }
+                delay = start - now;
+                virtualTime[session.rank] = ticket.tag;
+                active++;
+                session.held++;
+            } finally {
+                waiting.remove(ticket);
+                notifyAll();
+            }
+        }
+        if (delay > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                release(session);
+                throw e;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add a request to the waiting requests and tag it with the virtual start time of its job.
+     *
+     * @param session the session
+     * @param bytes the number of bytes to upload
+     * @return the waiting request
+     */
+    private Ticket enqueue(final Session session, final long bytes) {
+
+        final Flow flow = session.flow;
+        final double tag = Math.max(virtualTime[session.rank], flow.finish);
+        flow.finish = tag + (double) Math.max(bytes, MIN_COST) / session.weight;
+        final Ticket ticket = new Ticket(session.rank, tag, sequence++);
+        waiting.add(ticket);
+        return ticket;
+    }
+
+    /**
+     * Gets the waiting request to serve next.
+     *
+     * @return the request
+     */
+    private Ticket next() {
+
+        Ticket next = null;
+        for (Ticket ticket : waiting) {
+            if (next == null || ticket.isBefore(next)) {
+                next = ticket;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Return a lease of a session.
+     *
+     * @param session the session
+     */
+    private synchronized void release(final Session session) {
+
+        if (session.held > 0) {
+            session.held--;
+            active--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Close a session and return all of its leases.
+     *
+     * @param session the session
+     */
+    private synchronized void close(final Session session) {
+
+        if (session.closed) {
+            return;
+        }
+        session.closed = true;
+        active -= session.held;
+        session.held = 0;
+        if (--session.flow.sessions == 0) {
+            flows.remove(session.job);
+        }
+        notifyAll();
+    }
+
+    /**
+     * The scheduling state of a job. Guarded by the lock of the throttle.
+     */
+    private static final class Flow {
+
+        /** The number of open sessions of the job. */
+        private int sessions;
+
+        /** The virtual time the last request of the job finishes. */
+        private double finish;
+    }
+
+    /**
+     * A request waiting for a lease.
+     */
+    private static final class Ticket {
+
+        private final int rank;
+
+        private final double tag;
+
+        private final long sequence;
+
+        /**
+         * Instantiates a new ticket.
+         *
+         * @param rank the rank of the priority class
+         * @param tag the virtual start time
+         * @param sequence the arrival order
+         */
+        private Ticket(final int rank, final double tag, final long sequence) {
+
+            this.rank = rank;
+            this.tag = tag;
+            this.sequence = sequence;
+        }
+
+        /**
+         * Checks if this request is served before another one.
+         *
+         * @param other the other request
+         * @return true, if served first
+         */
+        private boolean isBefore(final Ticket other) {
+
+            if (rank != other.rank) {
+                return rank < other.rank;
+            }
+            if (tag != other.tag) {
+                return tag < other.tag;
+            }
+            return sequence < other.sequence;
+        }
+    }
+
+    /**
+     * The leases of a single export. Guarded by the lock of the throttle.
+     */
+    final class Session implements Leases {
+
+        private final String job;
+
+        private final Flow flow;
+
+        private final int rank;
+
+        private final int weight;
+
+        private int held;
+
+        private boolean closed;
+
+        /**
+         * Instantiates a new session.
+         *
+         * @param job the job name
+         * @param flow the scheduling state of the job
+         * @param rank the rank of the priority class
+         * @param weight the share of the job
+         */
+        private Session(final String job, final Flow flow, final int rank, final int weight) {
+
+            this.job = job;
+            this.flow = flow;
+            this.rank = rank;
+            this.weight = weight;
+        }
+
+        @Override
+        public boolean acquire(final long bytes, final long timeout) throws InterruptedException {
+
+            return UploadThrottle.this.acquire(this, bytes, timeout);
+        }
+
+        @Override
+        public void release() {
+
+            UploadThrottle.this.release(this);
+        }
+
+        /**
+         * Close the session and return all of its leases.
+         */
+        void close() {
+
+            UploadThrottle.this.close(this);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import hudson.Util;
+import hudson.util.FormValidation;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Caches the results of form validations contacting a Klaros server for a short time. Identical checks
+ * running concurrently are coalesced into a single request whose result is shared by all callers. The
+ * cache keys are digests of the check parameters, so no credentials are kept in memory.
+ */
+final class ValidationCache {
+
+    /** The time in milliseconds a validation result is reused. */
+    static final long TTL = TimeUnit.SECONDS.toMillis(30);
+
+    /** The maximum number of cached validation results. */
+    private static final int MAX_ENTRIES = 256;
+
+    private final Map<String, CachedResult> results = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, CachedResult> eldest) {
+
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private final ConcurrentMap<String, FutureTask<FormValidation>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * A validation result and the time it was computed.
+     */
+    private static final class CachedResult {
+
+        private final FormValidation result;
+
+        private final long created = System.currentTimeMillis();
+
+        /**
+         * Instantiates a new cached result.
+         *
+         * @param result the validation result
+         */
+        private CachedResult(final FormValidation result) {
+
+            this.result = result;
+        }
+    }
+
+    /**
+     * Gets the result of a validation, running it only if no recent result is cached and no identical
+     * validation is running.
+     *
+     * @param check the validation
+     * @param parameters the parameters identifying the validation
+     * @return the validation result
+     * @throws IOException Signals that an I/O exception has occurred.
+     * @throws ServletException the servlet exception
+     */
+    FormValidation check(final Callable<FormValidation> check, final String... parameters) throws IOException,
+        ServletException {
+
+        final String key = Util.getDigestOf(StringUtils.join(parameters, '\n'));
+        synchronized (results) {
+            final CachedResult cached = results.get(key);
+            if (cached != null && System.currentTimeMillis() - cached.created < TTL) {
+                return cached.result;
+            }
+        }
+
+        final FutureTask<FormValidation> task = new FutureTask<>(check);
+        FutureTask<FormValidation> running = pending.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+                if (!task.isCancelled()) {
+                    try {
+                        final FormValidation result = task.get();
+                        synchronized (results) {
+                            results.put(key, new CachedResult(result));
+                        }
+                    } catch (ExecutionException e) {
+                        // not cached, reported below
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                pending.remove(key, task);
+            }
+        }
+
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return FormValidation.error(e, "Interrupted");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof ServletException) {
+                throw (ServletException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A precompiled string template containing <code>${NAME}</code> variable references. The template is parsed
+ * once and can then be expanded any number of times in a single pass over its segments. References which
+ * cannot be resolved are kept verbatim.
+ */
+final class VariableTemplate {
+
+    private static final String PREFIX = "${";
+    private static final char SUFFIX = '}';
+
+    /** The literal text segments, one more than there are variable references. */
+    private final String[] literals;
+
+    /** The names of the referenced variables. */
+    private final String[] names;
+
+    /**
+     * Instantiates a new variable template.
+     *
+     * @param literals the literal text segments
+     * @param names the variable names
+     */
+    private VariableTemplate(final String[] literals, final String[] names) {
+
+        this.literals = literals;
+        this.names = names;
+    }
+
+    /**
+     * Compile the given value into a template.
+     *
+     * @param value the value to compile, may be null
+     * @return the compiled template or null if the value was null
+     */
+    static VariableTemplate compile(final String value) {
+
+        if (value == null) {
+            return null;
+        }
+
+        final List<String> literals = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        int start = 0;
+        int index = value.indexOf(PREFIX);
+        while (index >= 0) {
+            final int end = value.indexOf(SUFFIX, index + PREFIX.length());
+            if (end < 0) {
+                break;
+            }
+            literals.add(value.substring(start, index));
+            names.add(value.substring(index + PREFIX.length(), end));
+            start = end + 1;
+            index = value.indexOf(PREFIX, start);
+        }
+        literals.add(value.substring(start));
+        return new VariableTemplate(literals.toArray(new String[literals.size()]), names.toArray(new String[names
+            .size()]));
+    }
+
+    /**
+     * Checks if this template does not reference any variables.
+     *
+     * @return true, if the expansion result is always the same
+     */
+    boolean isConstant() {
+
+        return names.length == 0;
+    }
+
+    /**
+     * Expand the variable references of this template. Variables are looked up in the primary map first.
+     *
+     * @param primary the primary variables, e.g. the build environment
+     * @param secondary the secondary variables, e.g. the build parameters
+     * @return the expanded string
+     */
+    String expand(final Map<String, String> primary, final Map<String, String> secondary) {
+
+        if (isConstant()) {
+            return literals[0];
+        }
+
+        final StringBuilder result = new StringBuilder(literals[0]);
+        for (int i = 0; i < names.length; i++) {
+            String value = primary.get(names[i]);
+            if (value == null) {
+                value = secondary.get(names[i]);
+            }
+            if (value != null) {
+                result.append(value);
+            } else {
+                result.append(PREFIX).append(names[i]).append(SUFFIX);
+            }
+            result.append(literals[i + 1]);
+        }
+        return result.toString();
+    }
+}
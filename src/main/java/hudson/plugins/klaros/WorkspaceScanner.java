@@ -0,0 +1,363 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.tools.ant.DirectoryScanner;
+
+/**
+ * Scans a workspace for the files matching an Ant style include specification, as used for the result sets.
+ * The patterns are compiled once per specification and directories which cannot contain a match, like
+ * those outside the literal prefix of all patterns, are not entered at all. Matches are passed on while the
+ * walk is still in progress, so they can be processed before the whole workspace has been scanned.
+ * <p>
+ * The semantics follow {@link hudson.Util#createFileSet(File, String)}: patterns are separated by commas,
+ * <tt>**</tt> matches any number of directories, <tt>*</tt> and <tt>?</tt> match within a single path
+ * segment, a trailing slash stands for <tt>/**</tt> and Ant's default excludes apply.
+ */
+final class WorkspaceScanner {
+
+    private final List<AntPattern> includes = new ArrayList<>();
+
+    private final List<AntPattern> excludes = new ArrayList<>();
+
+    /** The excludes of the form <tt>dir/**</tt>, given by their directory pattern. */
+    private final List<AntPattern> excludedDirs = new ArrayList<>();
+
+    private long modifiedSince;
+
+    private int skippedOld;
+
+    /**
+     * Receives the matching files.
+     */
+    interface Listener {
+
+        /**
+         * Called for each matching file.
+         *
+         * @param path the path relative to the scanned directory, using forward slashes as separator
+         * @param file the file
+         */
+        void found(String path, File file);
+    }
+
+    /**
+     * Instantiates a new scanner for an include specification.
+     *
+     * @param spec the comma separated include patterns
+     */
+    WorkspaceScanner(final String spec) {
+
+        for (String include : StringUtils.split(spec, ',')) {
+            if (StringUtils.isNotBlank(include)) {
+                includes.add(new AntPattern(include.trim()));
+            }
+        }
+        for (String exclude : DirectoryScanner.getDefaultExcludes()) {
+            final AntPattern pattern = new AntPattern(exclude);
+            excludes.add(pattern);
+            if (exclude.endsWith("/**")) {
+                excludedDirs.add(new AntPattern(exclude.substring(0, exclude.length() - 3)));
+            }
+        }
+    }
+
+    /**
+     * Only report files modified at or after the given time.
+     *
+     * @param time the time in milliseconds since the epoch, 0 to report all files
+     */
+    void setModifiedSince(final long time) {
+
+        this.modifiedSince = time;
+    }
+
+    /**
+     * Gets the number of matching files skipped by the last scan because they were not modified since the
+     * given time.
+     *
+     * @return the number of skipped files
+     */
+    int getSkippedOld() {
+
+        return skippedOld;
+    }
+
+    /**
+     * Scan a directory. Symbolic links are followed, unreadable files and directories are ignored.
+     *
+     * @param baseDir the directory to scan
+     * @param listener the listener receiving the matching files
+     * @throws IOException if the directory does not exist or could not be read
+     * @throws InterruptedException if the current thread was interrupted while scanning
+     */
+    void scan(final File baseDir, final Listener listener) throws IOException, InterruptedException {
+
+        skippedOld = 0;
+        if (!baseDir.isDirectory()) {
+            throw new IOException("The directory " + baseDir + " does not exist");
+        }
+        if (includes.isEmpty()) {
+            return;
+        }
+        final Deque<String> dirs = new ArrayDeque<>();
+        final Deque<String> segments = new ArrayDeque<>();
+        Files.walkFileTree(baseDir.toPath(), EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+            new SimpleFileVisitor<Path>() {
+
+                @Override
+                public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+
+                    if (Thread.currentThread().isInterrupted()) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    if (dirs.isEmpty()) {
+                        dirs.push("");
+                        return FileVisitResult.CONTINUE;
+                    }
+                    final String name = dir.getFileName().toString();
+                    segments.addLast(name);
+                    final String path = dirs.peek().isEmpty() ? name : dirs.peek() + '/' + name;
+                    if (isExcludedDir(path) || !couldContainMatch(segments)) {
+                        segments.removeLast();
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    dirs.push(path);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+
+                    if (!attrs.isRegularFile()) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    final String name = file.getFileName().toString();
+                    final String path = dirs.peek().isEmpty() ? name : dirs.peek() + '/' + name;
+                    if (isIncluded(path)) {
+                        if (modifiedSince > 0 && attrs.lastModifiedTime().toMillis() < modifiedSince) {
+                            skippedOld++;
+                        } else {
+                            listener.found(path, file.toFile());
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+
+                    // Unreadable entries and symbolic link cycles are skipped like Ant does
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(final Path dir, final IOException e) {
+
+                    dirs.pop();
+                    if (!segments.isEmpty() && !dirs.isEmpty()) {
+                        segments.removeLast();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Checks if a file is matched by an include and not matched by an exclude.
+     *
+     * @param path the relative path of the file
+     * @return true, if included
+     */
+    private boolean isIncluded(final String path) {
+
+        boolean included = false;
+        for (AntPattern include : includes) {
+            if (include.matches(path)) {
+                included = true;
+                break;
+            }
+        }
+        if (included) {
+            for (AntPattern exclude : excludes) {
+                if (exclude.matches(path)) {
+                    return false;
+                }
+            }
+        }
+        return included;
+    }
+
+    /**
+     * Checks if a directory and all of its content is excluded.
+     *
+     * @param path the relative path of the directory
+     * @return true, if excluded
+     */
+    private boolean isExcludedDir(final String path) {
+
+        for (AntPattern exclude : excludedDirs) {
+            if (exclude.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if any include may match a file below a directory.
+     *
+     * @param segments the path segments of the directory
+     * @return true, if the directory has to be scanned
+     */
+    private boolean couldContainMatch(final Deque<String> segments) {
+
+        final String[] dir = segments.toArray(new String[segments.size()]);
+        for (AntPattern include : includes) {
+            if (include.couldMatchBelow(dir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A compiled Ant style path pattern.
+     */
+    private static final class AntPattern {
+
+        private static final String ANY_DIRS = "**";
+
+        /** The pattern of each path segment, null for <tt>**</tt>. */
+        private final Pattern[] segments;
+
+        private final Pattern pattern;
+
+        /**
+         * Compile a pattern.
+         *
+         * @param spec the Ant style pattern
+         */
+        private AntPattern(final String spec) {
+
+            String normalized = spec.replace('\\', '/');
+            if (normalized.endsWith("/")) {
+                normalized += ANY_DIRS;
+            }
+            final String[] parts = StringUtils.split(normalized, '/');
+            segments = new Pattern[parts.length];
+            final StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < parts.length; i++) {
+                final boolean last = i == parts.length - 1;
+                if (ANY_DIRS.equals(parts[i])) {
+                    regex.append(last ? ".*" : "(?:[^/]*/)*");
+                } else {
+                    final String segment = translate(parts[i]);
+                    segments[i] = Pattern.compile(segment);
+                    regex.append(segment);
+                    if (!last) {
+                        regex.append('/');
+                    }
+                }
+            }
+            pattern = Pattern.compile(regex.toString());
+        }
+
+        /**
+         * Translate a path segment pattern into a regular expression.
+         *
+         * @param segment the segment pattern
+         * @return the regular expression
+         */
+        private static String translate(final String segment) {
+
+            final StringBuilder regex = new StringBuilder();
+            final StringBuilder literal = new StringBuilder();
+            for (char c : segment.toCharArray()) {
+                if (c == '*' || c == '?') {
+                    if (literal.length() > 0) {
+                        regex.append(Pattern.quote(literal.toString()));
+                        literal.setLength(0);
+                    }
+                    regex.append(c == '*' ? "[^/]*" : "[^/]");
+                } else {
+                    literal.append(c);
+                }
+            }
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+            }
+            return regex.toString();
+        }
+
+        /**
+         * Checks if the pattern matches a path.
+         *
+         * @param path the relative path using forward slashes
+         * @return true, if matched
+         */
+        private boolean matches(final String path) {
+
+            return pattern.matcher(path).matches();
+        }
+
+        /**
+         * Checks if the pattern may match a file below a directory.
+         *
+         * @param dir the path segments of the directory
+         * @return true, if a match is possible
+         */
+        private boolean couldMatchBelow(final String[] dir) {
+
+            for (int i = 0; i < dir.length; i++) {
+                if (i < segments.length && segments[i] == null) {
+                    return true;
+                }
+                if (i >= segments.length - 1 || !segments[i].matcher(dir[i]).matches()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import hudson.Util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * A request entity which streams a list of result files as a single zip archive. The archive is written
+ * directly to the connection while it is sent, using chunked transfer encoding, so it never exists as a
+ * whole on disk or in memory.
+ */
+final class ZipBundleRequestEntity implements RequestEntity {
+
+    /** The content type of the archive. */
+    static final String CONTENT_TYPE = "application/zip";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File baseDir;
+    private final List<File> files;
+
+    private final Map<File, String> digests = new LinkedHashMap<>();
+
+    private long rawLength;
+    private long compressedLength;
+
+    /**
+     * Instantiates a new zip bundle request entity.
+     *
+     * @param baseDir the base directory the archive entry names are relative to
+     * @param files the files to bundle
+     */
+    ZipBundleRequestEntity(final File baseDir, final List<File> files) {
+
+        this.baseDir = baseDir;
+        this.files = files;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+
+        return true;
+    }
+
+    @Override
+    public void writeRequest(final OutputStream out) throws IOException {
+
+        // Shield the connection stream from being closed along with the archive
+        final CountingOutputStream counter = new CountingOutputStream(new CloseShieldOutputStream(out));
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long raw = 0;
+        digests.clear();
+        try (ZipOutputStream zip = new ZipOutputStream(counter)) {
+            for (File file : files) {
+                final MessageDigest md = ResultFileRequestEntity.createDigest();
+                final ZipEntry entry = new ZipEntry(entryName(file));
+                entry.setTime(file.lastModified());
+                zip.putNextEntry(entry);
+                try (InputStream in = new FileInputStream(file)) {
+                    int len;
+                    while ((len = in.read(buffer)) >= 0) {
+                        md.update(buffer, 0, len);
+                        zip.write(buffer, 0, len);
+                        raw += len;
+                    }
+                }
+                zip.closeEntry();
+                digests.put(file, Util.toHexString(md.digest()));
+            }
+        }
+        out.flush();
+        rawLength = raw;
+        compressedLength = counter.getByteCount();
+    }
+
+    /**
+     * Gets the archive entry name of a file, its path relative to the base directory.
+     *
+     * @param file the file
+     * @return the entry name
+     */
+    private String entryName(final File file) {
+
+        return relativePath(baseDir, file);
+    }
+
+    /**
+     * Gets the path of a file relative to a base directory, using forward slashes as separator.
+     *
+     * @param baseDir the base directory
+     * @param file the file
+     * @return the relative path or the file name if the file is not located below the base directory
+     */
+    static String relativePath(final File baseDir, final File file) {
+
+        final String base = baseDir.getAbsolutePath();
+        final String path = file.getAbsolutePath();
+        final String relative =
+            path.startsWith(base) && path.length() > base.length() ? path.substring(base.length() + 1) : file
+                .getName();
+        return relative.replace(File.separatorChar, '/');
+    }
+
+    @Override
+    public long getContentLength() {
+
+        return -1;
+    }
+
+    @Override
+    public String getContentType() {
+
+        return CONTENT_TYPE;
+    }
+
+    /**
+     * Gets the number of uncompressed bytes bundled by the last request.
+     *
+     * @return the raw length
+     */
+    long getRawLength() {
+
+        return rawLength;
+    }
+
+    /**
+     * Gets the hex encoded content digests of the files bundled by the last request.
+     *
+     * @return the digests by file
+     */
+    Map<File, String> getDigests() {
+
+        return digests;
+    }
+
+    /**
+     * Gets the number of archive bytes sent by the last request.
+     *
+     * @return the compressed length
+     */
+    long getCompressedLength() {
+
+        return compressedLength;
+    }
+}
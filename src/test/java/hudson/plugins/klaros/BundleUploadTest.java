@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import static org.junit.Assert.assertEquals;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleProject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+/**
+ * Exports the same result set once as a single zip archive and once file by file to a {@link StubImporter}
+ * and checks that both upload paths import the same result files.
+ */
+public class BundleUploadTest {
+
+    private static final int FILES = 12;
+
+    /** The Jenkins instance. */
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private StubImporter importer;
+
+    /**
+     * Start the stub importer and register it as Klaros installation.
+     *
+     * @throws IOException if the stub could not be started
+     */
+    @Before
+    public void startImporter() throws IOException {
+
+        importer = new StubImporter(0L, 0.0, 0L, 0L);
+        importer.setRecording(true);
+        j.jenkins.getDescriptorByType(KlarosTestResultPublisher.DescriptorImpl.class).setUrls(
+            Collections.singletonList(importer.getUrl()));
+    }
+
+    /**
+     * Stop the stub importer.
+     */
+    @After
+    public void stopImporter() {
+
+        importer.stop();
+    }
+
+    /**
+     * The archive and the streamed per file upload import the same result files.
+     *
+     * @throws Exception if a build failed
+     */
+    @Test
+    public void archiveAndStreamedUploadImportTheSameResults() throws Exception {
+
+        final List<String> bundled = export("bundled", true, false);
+        final List<String> streamed = export("streamed", false, false);
+
+        assertEquals(FILES, bundled.size());
+        assertEquals(bundled, streamed);
+    }
+
+    /**
+     * Compressed streamed uploads import the same result files as the archive.
+     *
+     * @throws Exception if a build failed
+     */
+    @Test
+    public void archiveAndCompressedStreamedUploadImportTheSameResults() throws Exception {
+
+        final List<String> bundled = export("bundled", true, false);
+        final List<String> streamed = export("compressed", false, true);
+
+        assertEquals(FILES, bundled.size());
+        assertEquals(bundled, streamed);
+    }
+
+    /**
+     * Build a project exporting the result files and collect the result files imported by the stub.
+     *
+     * @param name the project name
+     * @param bundle true to upload the result set as a single archive
+     * @param compress true to compress the uploads
+     * @return the imported result formats and contents, sorted
+     * @throws Exception if the build failed
+     */
+    private List<String> export(final String name, final boolean bundle, final boolean compress)
+        throws Exception {
+
+        final FreeStyleProject project = j.createFreeStyleProject(name);
+        project.getBuildersList().add(new ResultFileBuilder());
+        final ResultSet resultSet = new ResultSet("reports/**/*.xml", "junit");
+        resultSet.setBundle(bundle);
+        final KlarosTestResultPublisher publisher =
+            new KlarosTestResultPublisher("P00001", "", "ENV00001", "SUT00001", false, null, null,
+                new ResultSet[]{resultSet }, importer.getUrl(), "", "");
+        publisher.setForceFullExport(true);
+        publisher.setCompressUploads(compress);
+        project.getPublishersList().add(publisher);
+
+        importer.reset();
+        j.buildAndAssertSuccess(project);
+
+        final List<String> imported = new ArrayList<>();
+        for (StubImporter.Import result : importer.getImports()) {
+            imported.add(result.getType() + '\n' + new String(result.getContent(), StandardCharsets.UTF_8));
+        }
+        Collections.sort(imported);
+        return imported;
+    }
+
+    /**
+     * Creates JUnit result files of different sizes in nested directories of the workspace.
+     */
+    public static class ResultFileBuilder extends TestBuilder {
+
+        @Override
+        public boolean perform(final AbstractBuild<?, ?> build, final Launcher launcher,
+            final BuildListener listener) throws InterruptedException, IOException {
+
+            final FilePath reports = build.getWorkspace().child("reports");
+            for (int i = 0; i < FILES; i++) {
+                final StringBuilder content = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+                content.append("<testsuite name=\"Suite").append(i).append("\">\n");
+                for (int test = 0; test <= i * 10; test++) {
+                    content.append("  <testcase classname=\"Suite").append(i).append("\" name=\"test")
+                        .append(test).append("\" time=\"0.").append(test % 10).append("\"/>\n");
+                }
+                content.append("</testsuite>\n");
+                reports.child("module" + i % 3).child("TEST-Suite" + i + ".xml").write(content.toString(),
+                    "UTF-8");
+            }
+            return true;
+        }
+    }
+}
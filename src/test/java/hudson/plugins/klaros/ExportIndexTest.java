@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Records entries in the {@link ExportIndex} of a job and looks them up again.
+ */
+public class ExportIndexTest {
+
+    private static final String DIGEST_A = digest('a');
+
+    private static final String DIGEST_B = digest('b');
+
+    /** The job directory. */
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File jobDir;
+
+    /**
+     * Create the job directory.
+     *
+     * @throws IOException if the directory could not be created
+     */
+    @Before
+    public void createJobDir() throws IOException {
+
+        jobDir = temp.newFolder("job");
+    }
+
+    /**
+     * A lookup returns the digests of known files and only the acceptances for the given identity.
+     *
+     * @throws IOException if the index could not be written or read
+     */
+    @Test
+    public void looksUpRecordedFiles() throws IOException {
+
+        final ExportIndex entries = new ExportIndex();
+        entries.add("a|1|1", DIGEST_A, "first");
+        entries.add("b|1|1", DIGEST_B, "second");
+        ExportIndex.record(jobDir, entries);
+
+        final ExportIndex.Lookup lookup = ExportIndex.open(jobDir);
+        final ExportIndex found = lookup.lookup(Arrays.asList("a|1|1", "b|1|1", "c|1|1"), "first");
+
+        assertTrue(found.isAccepted(DIGEST_A, "first"));
+        assertFalse(found.isAccepted(DIGEST_B, "first"));
+        assertFalse(found.isAccepted(DIGEST_B, "second"));
+        assertTrue(lookup.lookup(Arrays.asList("b|1|1"), "second").isAccepted(DIGEST_B, "second"));
+        assertTrue(lookup.lookup(Arrays.asList("c|1|1"), "first").isEmpty());
+    }
+
+    /**
+     * The status key of a file changes when the file is modified.
+     *
+     * @throws IOException if the file could not be written
+     */
+    @Test
+    public void changesStatusKeyOnModification() throws IOException {
+
+        final File file = temp.newFile("TEST-a.xml");
+        final ExportIndex index = new ExportIndex();
+        index.add(file, DIGEST_A, "first");
+        assertEquals(DIGEST_A, index.getDigest(file));
+
+        Files.write(file.toPath(), "<testsuite/>".getBytes(StandardCharsets.UTF_8));
+        assertNull(index.getDigest(file));
+    }
+
+    /**
+     * Each record appends its entries, which are read back when the index file is loaded.
+     *
+     * @throws IOException if the index could not be written or read
+     */
+    @Test
+    public void appendsRecordedEntries() throws IOException {
+
+        final ExportIndex first = new ExportIndex();
+        first.add("a|1|1", DIGEST_A, "first");
+        ExportIndex.record(jobDir, first);
+        final ExportIndex second = new ExportIndex();
+        second.add("b|1|1", DIGEST_B, "first");
+        ExportIndex.record(jobDir, second);
+        ExportIndex.record(jobDir, new ExportIndex());
+
+        assertEquals(4, lines().length);
+        final ExportIndex loaded = ExportIndex.load(jobDir);
+        assertTrue(loaded.isAccepted(DIGEST_A, "first"));
+        assertTrue(loaded.isAccepted(DIGEST_B, "first"));
+    }
+
+    /**
+     * The index file is rewritten once it holds more outdated lines than entries.
+     *
+     * @throws IOException if the index could not be written or read
+     */
+    @Test
+    public void compactsIndexFile() throws IOException {
+
+        final ExportIndex entries = new ExportIndex();
+        for (int i = 0; i < 100; i++) {
+            entries.add("f" + i + "|1|1", digest((char) ('a' + i % 6)), "first");
+        }
+        for (int i = 0; i < 50; i++) {
+            ExportIndex.record(jobDir, entries);
+            assertTrue(lines().length <= 2 * 106 + 1000);
+        }
+        assertTrue(ExportIndex.load(jobDir).isAccepted(digest('c'), "first"));
+    }
+
+    /**
+     * A line cut off while it was appended is skipped.
+     *
+     * @throws IOException if the index could not be written or read
+     */
+    @Test
+    public void skipsTruncatedLines() throws IOException {
+
+        final String content = "F\ta|1|1\t" + DIGEST_A + "\nA\t" + DIGEST_A + ":first\nF\tb|1|1\t"
+            + DIGEST_B.substring(0, 10);
+        Files.write(new File(jobDir, ExportIndex.FILE_NAME).toPath(), content.getBytes(StandardCharsets.UTF_8));
+
+        final ExportIndex.Lookup lookup = ExportIndex.open(jobDir);
+        assertTrue(lookup.lookup(Collections.singletonList("a|1|1"), "first").isAccepted(DIGEST_A, "first"));
+        assertTrue(lookup.lookup(Collections.singletonList("b|1|1"), "first").isEmpty());
+    }
+
+    /**
+     * Once the index is full, the least recently used entries are dropped first.
+     */
+    @Test
+    public void dropsLeastRecentlyUsedEntries() {
+
+        final ExportIndex index = new ExportIndex();
+        for (int i = 0; i < ExportIndex.MAX_ENTRIES; i++) {
+            index.add("f" + i, "d" + i, "first");
+        }
+        assertTrue(index.isAccepted("d0", "first"));
+
+        index.add("f" + ExportIndex.MAX_ENTRIES, "d" + ExportIndex.MAX_ENTRIES, "first");
+
+        assertTrue(index.isAccepted("d0", "first"));
+        assertFalse(index.isAccepted("d1", "first"));
+        assertTrue(index.isAccepted("d2", "first"));
+    }
+
+    /**
+     * Gets the lines of the index file.
+     *
+     * @return the lines
+     * @throws IOException if the file could not be read
+     */
+    private String[] lines() throws IOException {
+
+        return new String(Files.readAllBytes(new File(jobDir, ExportIndex.FILE_NAME).toPath()),
+            StandardCharsets.UTF_8).split("\n");
+    }
+
+    /**
+     * Creates a content digest consisting of a single repeated hex digit.
+     *
+     * @param c the hex digit
+     * @return the digest
+     */
+    private static String digest(final char c) {
+
+        final char[] digest = new char[ResultFileRequestEntity.createDigest().getDigestLength() * 2];
+        Arrays.fill(digest, c);
+        return new String(digest);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Appends export records to the {@link ExportTrend} of a job and reads them back.
+ */
+public class ExportTrendTest {
+
+    /** The job directory. */
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File jobDir;
+
+    /**
+     * Create the job directory.
+     *
+     * @throws IOException if the directory could not be created
+     */
+    @Before
+    public void createJobDir() throws IOException {
+
+        jobDir = temp.newFolder("job");
+    }
+
+    /**
+     * The last records are read oldest first with the figures of their reports.
+     *
+     * @throws IOException if the trend could not be written or read
+     */
+    @Test
+    public void readsLastRecords() throws IOException {
+
+        for (int build = 1; build <= 5; build++) {
+            append(build);
+        }
+
+        final List<ExportTrend.Point> points = ExportTrend.read(jobDir, 3);
+
+        assertEquals(3, points.size());
+        for (int i = 0; i < 3; i++) {
+            final ExportTrend.Point point = points.get(i);
+            final int build = i + 3;
+            assertEquals(build, point.getBuild());
+            assertEquals(build * 1000L, point.getTimestamp());
+            assertEquals(500L, point.getDuration());
+            assertEquals(2, point.getFiles());
+            assertEquals(1, point.getFailed());
+            assertEquals(build * 2048L, point.getRawBytes());
+            assertEquals(2 * 100L, point.getSentBytes());
+            assertEquals(build * 2048L * 2, point.getThroughput());
+        }
+        assertEquals(5, ExportTrend.read(jobDir, 10).size());
+        assertEquals(5L * ExportTrend.RECORD_SIZE, new File(jobDir, ExportTrend.FILE_NAME).length());
+    }
+
+    /**
+     * A record cut short by a crash is completed by the next append and skipped when reading.
+     *
+     * @throws IOException if the trend could not be written or read
+     */
+    @Test
+    public void skipsTruncatedRecords() throws IOException {
+
+        append(1);
+        append(2);
+        try (OutputStream out = new FileOutputStream(new File(jobDir, ExportTrend.FILE_NAME), true)) {
+            out.write(new byte[ExportTrend.RECORD_SIZE / 2]);
+        }
+        append(3);
+
+        final List<ExportTrend.Point> points = ExportTrend.read(jobDir, 10);
+
+        assertEquals(3, points.size());
+        assertEquals(1, points.get(0).getBuild());
+        assertEquals(2, points.get(1).getBuild());
+        assertEquals(3, points.get(2).getBuild());
+        assertEquals(3000L, points.get(2).getTimestamp());
+    }
+
+    /**
+     * A job without exports has an empty trend.
+     *
+     * @throws IOException if the trend could not be read
+     */
+    @Test
+    public void readsMissingTrend() throws IOException {
+
+        assertTrue(ExportTrend.read(jobDir, 10).isEmpty());
+        assertEquals(0L, ExportTrend.lastModified(jobDir));
+    }
+
+    /**
+     * Append the record of an export with two accepted files and a failed one.
+     *
+     * @param build the build number
+     * @throws IOException if the trend could not be written
+     */
+    private void append(final int build) throws IOException {
+
+        final ExportReport report = new ExportReport();
+        report.add(new ExportReport.Entry("a", "junit", "200", 1, build * 1024L, 100L, 200L, 0, null));
+        report.add(new ExportReport.Entry("b", "junit", "200", 1, build * 1024L, 100L, 200L, 0, null));
+        report.add(new ExportReport.Entry("c", "junit", "500", 1, 4096L, 4096L, 200L, 2, "error"));
+        report.setDuration(500L);
+        ExportTrend.append(jobDir, build, build * 1000L, report);
+    }
+}
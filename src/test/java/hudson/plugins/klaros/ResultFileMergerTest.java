@@ -0,0 +1,271 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import hudson.Util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Merges result files with the {@link ResultFileMerger} and checks that the aggregates are well formed
+ * documents of the same format holding all test cases of the merged files.
+ */
+public class ResultFileMergerTest {
+
+    private static final long LIMIT = 1024 * 1024;
+
+    /** The directory holding the result files and aggregates. */
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    /**
+     * JUnit files with a test suite or a set of test suites as root are merged into one aggregate.
+     *
+     * @throws IOException if a file could not be written or read
+     */
+    @Test
+    public void mergesJUnitFiles() throws IOException {
+
+        final List<File> files = Arrays.asList(
+            write("TEST-a.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<testsuite name=\"a\" tests=\"2\" failures=\"1\">"
+                + "<testcase classname=\"a\" name=\"one\" time=\"0.1\"/>"
+                + "<testcase classname=\"a\" name=\"two\"><failure message=\"no\"/></testcase></testsuite>"),
+            write("TEST-b.xml", "<testsuite name=\"b\" tests=\"1\">"
+                + "<testcase classname=\"b\" name=\"caf\u00e9\"><skipped/></testcase></testsuite>",
+                "ISO-8859-1"),
+            write("TEST-c.xml", "<testsuites tests=\"2\"><properties/>"
+                + "<testsuite name=\"c\"><testcase classname=\"c\" name=\"one\"><error/></testcase></testsuite>"
+                + "<testsuite name=\"d\"><testcase classname=\"d\" name=\"one\"/></testsuite></testsuites>"));
+
+        final ResultFileMerger.Merge merge = merge(files, "junit");
+
+        assertTrue(merge.getUnmerged().isEmpty());
+        assertEquals(1, merge.getAggregates().size());
+        final ResultFileMerger.Aggregate aggregate = merge.getAggregates().get(0);
+        assertRoundTrip(files, aggregate, "junit");
+        final String content =
+            new String(Files.readAllBytes(aggregate.getFile().toPath()), StandardCharsets.UTF_8);
+        assertEquals(4, count(content, "<testsuite "));
+        assertTrue(content.contains("caf\u00e9"));
+        assertFalse(content.contains("tests=\"2\">"));
+    }
+
+    /**
+     * xUnit.net files with an assembly or a set of assemblies as root are merged into one aggregate.
+     *
+     * @throws IOException if a file could not be written or read
+     */
+    @Test
+    public void mergesXUnitFiles() throws IOException {
+
+        final List<File> files = Arrays.asList(
+            write("a.xml", "<assemblies><assembly name=\"a.dll\"><collection>"
+                + "<test name=\"a.one\" result=\"Pass\" time=\"0.5\"/>"
+                + "<test name=\"a.two\" result=\"Fail\"/></collection></assembly></assemblies>"),
+            write("b.xml", "<assembly name=\"b.dll\"><collection>"
+                + "<test name=\"b.one\" result=\"Skip\"/></collection></assembly>"));
+
+        final ResultFileMerger.Merge merge = merge(files, "xunitdotnet");
+
+        assertTrue(merge.getUnmerged().isEmpty());
+        assertEquals(1, merge.getAggregates().size());
+        final ResultFileMerger.Aggregate aggregate = merge.getAggregates().get(0);
+        assertRoundTrip(files, aggregate, "xunitdotnet");
+        final String content =
+            new String(Files.readAllBytes(aggregate.getFile().toPath()), StandardCharsets.UTF_8);
+        assertEquals(2, count(content, "<assembly "));
+    }
+
+    /**
+     * NUnit documents allow a single test suite below their root, so they are not merged.
+     */
+    @Test
+    public void doesNotMergeNUnitFiles() {
+
+        assertFalse(ResultFileMerger.isSupported("nunit"));
+    }
+
+    /**
+     * Files of another layout are left alone, and an aggregate of a single file is dropped.
+     *
+     * @throws IOException if a file could not be written or read
+     */
+    @Test
+    public void leavesOtherFilesAlone() throws IOException {
+
+        final File suite = write("TEST-a.xml", "<testsuite name=\"a\"><testcase name=\"one\"/></testsuite>");
+        final File other = write("other.xml", "<test-results><test-suite name=\"a\"/></test-results>");
+
+        final ResultFileMerger.Merge merge = merge(Arrays.asList(suite, other), "junit");
+
+        assertTrue(merge.getAggregates().isEmpty());
+        assertEquals(Arrays.asList(other, suite), merge.getUnmerged());
+    }
+
+    /**
+     * A new aggregate is started once the size limit would be exceeded.
+     *
+     * @throws IOException if a file could not be written or read
+     */
+    @Test
+    public void startsNewAggregateAtLimit() throws IOException {
+
+        final List<File> files = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            files.add(write("TEST-" + i + ".xml",
+                "<testsuite name=\"s" + i + "\"><testcase name=\"t\"/></testsuite>"));
+        }
+
+        final ResultFileMerger.Merge merge =
+            ResultFileMerger.merge(files, "junit", temp.newFolder(), files.get(0).length() * 2 + 100);
+
+        assertEquals(2, merge.getAggregates().size());
+        for (ResultFileMerger.Aggregate aggregate : merge.getAggregates()) {
+            assertEquals(2, aggregate.getSources().size());
+        }
+    }
+
+    /**
+     * Checks that an aggregate is a well formed document of the given format holding the test cases of
+     * all merged files, and that the digests of the merged files are those of their content.
+     *
+     * @param files the merged files
+     * @param aggregate the aggregate
+     * @param format the result format id
+     * @throws IOException if a file could not be read
+     */
+    private static void assertRoundTrip(final List<File> files, final ResultFileMerger.Aggregate aggregate,
+        final String format) throws IOException {
+
+        assertEquals(files, new ArrayList<>(aggregate.getSources().keySet()));
+        final ResultFormatSniffer.Detection detection = ResultFormatSniffer.sniff(aggregate.getFile());
+        assertNull(detection.getError());
+        assertEquals(format, detection.getFormat());
+
+        final ResultSummary expected = new ResultSummary();
+        for (Map.Entry<File, String> source : aggregate.getSources().entrySet()) {
+            final byte[] content = Files.readAllBytes(source.getKey().toPath());
+            assertEquals(Util.toHexString(ResultFileRequestEntity.createDigest().digest(content)), source
+                .getValue());
+            expected.add(summarize(source.getKey()));
+        }
+        final ResultSummary merged = summarize(aggregate.getFile());
+        assertEquals(expected.getTotal(), merged.getTotal());
+        assertEquals(expected.getPassed(), merged.getPassed());
+        assertEquals(expected.getFailed(), merged.getFailed());
+        assertEquals(expected.getErrors(), merged.getErrors());
+        assertEquals(expected.getSkipped(), merged.getSkipped());
+    }
+
+    /**
+     * Summarize the tests of a file.
+     *
+     * @param file the file
+     * @return the summary
+     * @throws IOException if the file could not be read
+     */
+    private static ResultSummary summarize(final File file) throws IOException {
+
+        try (InputStream in = new FileInputStream(file)) {
+            return ResultSummarizer.summarize(in);
+        }
+    }
+
+    /**
+     * Merge files into a new directory.
+     *
+     * @param files the files
+     * @param format the result format id
+     * @return the merge
+     * @throws IOException if an aggregate could not be written
+     */
+    private ResultFileMerger.Merge merge(final List<File> files, final String format) throws IOException {
+
+        return ResultFileMerger.merge(files, format, temp.newFolder(), LIMIT);
+    }
+
+    /**
+     * Write a UTF-8 result file.
+     *
+     * @param name the file name
+     * @param content the content
+     * @return the file
+     * @throws IOException if the file could not be written
+     */
+    private File write(final String name, final String content) throws IOException {
+
+        return write(name, content, "UTF-8");
+    }
+
+    /**
+     * Write a result file.
+     *
+     * @param name the file name
+     * @param content the content
+     * @param encoding the character encoding
+     * @return the file
+     * @throws IOException if the file could not be written
+     */
+    private File write(final String name, final String content, final String encoding) throws IOException {
+
+        final File file = new File(temp.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(encoding));
+        return file;
+    }
+
+    /**
+     * Count the occurrences of a string.
+     *
+     * @param content the content to search
+     * @param text the string to count
+     * @return the number of occurrences
+     */
+    private static int count(final String content, final String text) {
+
+        int count = 0;
+        for (int i = content.indexOf(text); i >= 0; i = content.indexOf(text, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import hudson.Util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Splits result files with the {@link ResultFileSplitter} and checks that the chunks are well formed JUnit
+ * documents holding all test suites of the split file in document order.
+ */
+public class ResultFileSplitterTest {
+
+    private static final int SUITES = 6;
+
+    /** The directory holding the result files and chunks. */
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    /**
+     * Each test suite gets its own chunk if the chunk size is smaller than a single suite.
+     *
+     * @throws Exception if the file could not be split
+     */
+    @Test
+    public void splitsAtTestSuites() throws Exception {
+
+        final File file = write("TEST-all.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + suites()
+            + "\n<!-- trailer -->\n", "UTF-8");
+        final File targetDir = temp.newFolder();
+
+        final ResultFileSplitter.Split split = ResultFileSplitter.split(file, targetDir, 1L);
+
+        assertNotNull(split);
+        assertEquals(SUITES, split.getChunks().size());
+        assertEquals(new File(targetDir, "TEST-all-part001.xml"), split.getChunks().get(0));
+        assertEquals(Util.toHexString(ResultFileRequestEntity.createDigest().digest(
+            Files.readAllBytes(file.toPath()))), split.getDigest());
+        assertChunks(file, split.getChunks(), "UTF-8");
+        for (File chunk : split.getChunks()) {
+            final String content = read(chunk, "UTF-8");
+            assertTrue(content.contains("<testsuites name=\"all\">"));
+            assertFalse(content.contains("tests=\"" + SUITES * 2 + "\""));
+        }
+    }
+
+    /**
+     * A chunk holds further test suites until it has reached the chunk size.
+     *
+     * @throws Exception if the file could not be split
+     */
+    @Test
+    public void fillsChunksUpToChunkSize() throws Exception {
+
+        final File file = write("TEST-all.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + suites(), "UTF-8");
+        final long chunkSize = file.length() / 3;
+
+        final ResultFileSplitter.Split split = ResultFileSplitter.split(file, temp.newFolder(), chunkSize);
+
+        assertNotNull(split);
+        assertTrue(split.getChunks().size() > 1);
+        assertTrue(split.getChunks().size() < SUITES);
+        final List<File> chunks = split.getChunks();
+        for (File chunk : chunks.subList(0, chunks.size() - 1)) {
+            assertTrue(chunk.length() >= chunkSize);
+        }
+        assertChunks(file, chunks, "UTF-8");
+    }
+
+    /**
+     * The chunks keep the encoding of the split file, which defaults to ISO-8859-1 without a declaration.
+     *
+     * @throws Exception if the file could not be split
+     */
+    @Test
+    public void keepsEncoding() throws Exception {
+
+        final File file = write("TEST-all.xml", suites(), "ISO-8859-1");
+
+        final ResultFileSplitter.Split split = ResultFileSplitter.split(file, temp.newFolder(), 1L);
+
+        assertNotNull(split);
+        assertChunks(file, split.getChunks(), "ISO-8859-1");
+        assertTrue(read(split.getChunks().get(0), "ISO-8859-1").contains("caf\u00e9"));
+    }
+
+    /**
+     * Files with a single test suite as root or with only a single chunk are not split, and no chunks are
+     * left behind.
+     *
+     * @throws Exception if the file could not be split
+     */
+    @Test
+    public void leavesSingleChunksAlone() throws Exception {
+
+        final File targetDir = temp.newFolder();
+        final File suite = write("TEST-a.xml", "<testsuite name=\"a\"><testcase name=\"one\"/></testsuite>",
+            "UTF-8");
+        final File suites = write("TEST-all.xml", suites(), "UTF-8");
+
+        assertNull(ResultFileSplitter.split(suite, targetDir, 1L));
+        assertNull(ResultFileSplitter.split(suites, targetDir, suites.length() * 2));
+        assertEquals(0, targetDir.list().length);
+    }
+
+    /**
+     * A file which is not well formed cannot be split.
+     *
+     * @throws Exception if the file could not be split
+     */
+    @Test(expected = XMLStreamException.class)
+    public void rejectsMalformedFiles() throws Exception {
+
+        final File file = write("TEST-all.xml", "<testsuites><testsuite name=\"a\"></testsuites>", "UTF-8");
+
+        ResultFileSplitter.split(file, temp.newFolder(), 1L);
+    }
+
+    /**
+     * Checks that the chunks are JUnit documents of the given encoding, which together hold the test suites
+     * of the split file in document order.
+     *
+     * @param file the split file
+     * @param chunks the chunks
+     * @param encoding the character encoding
+     * @throws IOException if a file could not be read
+     */
+    private static void assertChunks(final File file, final List<File> chunks, final String encoding)
+        throws IOException {
+
+        final StringBuilder names = new StringBuilder();
+        final ResultSummary expected = summarize(file);
+        final ResultSummary split = new ResultSummary();
+        for (File chunk : chunks) {
+            final ResultFormatSniffer.Detection detection = ResultFormatSniffer.sniff(chunk);
+            assertNull(detection.getError());
+            assertEquals("junit", detection.getFormat());
+            final String content = read(chunk, encoding);
+            assertTrue(content.startsWith("<?xml version=\"1.0\" encoding=\"" + encoding + "\""));
+            for (int i = content.indexOf("<testsuite name=\""); i >= 0; i =
+                content.indexOf("<testsuite name=\"", i + 1)) {
+                names.append(content.charAt(i + "<testsuite name=\"".length()));
+            }
+            split.add(summarize(chunk));
+        }
+        assertEquals("abcdef", names.toString());
+        assertEquals(expected.getTotal(), split.getTotal());
+        assertEquals(expected.getPassed(), split.getPassed());
+        assertEquals(expected.getFailed(), split.getFailed());
+        assertEquals(expected.getErrors(), split.getErrors());
+        assertEquals(expected.getSkipped(), split.getSkipped());
+    }
+
+    /**
+     * Gets a set of test suites with two test cases each.
+     *
+     * @return the document without declaration
+     */
+    private static String suites() {
+
+        final StringBuilder content = new StringBuilder("<testsuites name=\"all\" tests=\"" + SUITES * 2 + "\">");
+        for (int i = 0; i < SUITES; i++) {
+            final char name = (char) ('a' + i);
+            content.append("\n  <testsuite name=\"").append(name).append("\">")
+                .append("<testcase classname=\"").append(name).append("\" name=\"caf\u00e9\"/>")
+                .append("<testcase classname=\"").append(name).append("\" name=\"two\">")
+                .append(i % 2 == 0 ? "<failure message=\"no\"/>" : "<skipped/>")
+                .append("</testcase></testsuite>");
+        }
+        return content.append("\n</testsuites>").toString();
+    }
+
+    /**
+     * Summarize the tests of a file.
+     *
+     * @param file the file
+     * @return the summary
+     * @throws IOException if the file could not be read
+     */
+    private static ResultSummary summarize(final File file) throws IOException {
+
+        try (InputStream in = new FileInputStream(file)) {
+            return ResultSummarizer.summarize(in);
+        }
+    }
+
+    /**
+     * Read a file.
+     *
+     * @param file the file
+     * @param encoding the character encoding
+     * @return the content
+     * @throws IOException if the file could not be read
+     */
+    private static String read(final File file, final String encoding) throws IOException {
+
+        return new String(Files.readAllBytes(file.toPath()), encoding);
+    }
+
+    /**
+     * Write a result file.
+     *
+     * @param name the file name
+     * @param content the content
+     * @param encoding the character encoding
+     * @return the file
+     * @throws IOException if the file could not be written
+     */
+    private File write(final String name, final String content, final String encoding) throws IOException {
+
+        final File file = new File(temp.getRoot(), name);
+        Files.write(file.toPath(), content.getBytes(encoding));
+        return file;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Summarizes result files of the supported formats with the {@link ResultSummarizer}.
+ */
+public class ResultSummarizerTest {
+
+    /**
+     * JUnit test cases are classified by their child elements, an error outweighs a failure.
+     */
+    @Test
+    public void summarizesJUnit() {
+
+        final ResultSummary summary = summarize("<testsuites><testsuite name=\"s\">"
+            + "<testcase classname=\"a.B\" name=\"pass\" time=\"1,234.5\"/>"
+            + "<testcase classname=\"a.B\" name=\"fail\" time=\"0.25\"><failure message=\"no\"/></testcase>"
+            + "<testcase classname=\"a.B\" name=\"error\"><failure/><error/></testcase>"
+            + "<testcase classname=\"a.B\" name=\"skip\"><skipped/></testcase>"
+            + "<testcase classname=\"a.B\" name=\"notrun\" status=\"notrun\" time=\"x\"/>"
+            + "</testsuite></testsuites>");
+
+        assertCounts(summary, 1, 1, 1, 2);
+        assertEquals(1234750L, summary.getDuration());
+        assertEquals(3, summary.getSlowest().size());
+        assertEquals("a.B.pass", summary.getSlowest().get(0).getName());
+        assertEquals(1234500L, summary.getSlowest().get(0).getDuration());
+        assertEquals("a.B.fail", summary.getSlowest().get(1).getName());
+    }
+
+    /**
+     * The outcomes of NUnit 2 and 3 test cases are taken from their attributes.
+     */
+    @Test
+    public void summarizesNUnit() {
+
+        final ResultSummary nunit2 = summarize("<test-results><test-suite name=\"s\"><results>"
+            + "<test-case name=\"a.pass\" executed=\"True\" result=\"Success\" time=\"0.5\"/>"
+            + "<test-case name=\"a.fail\" executed=\"True\" result=\"Failure\"/>"
+            + "<test-case name=\"a.error\" executed=\"True\" result=\"Error\"/>"
+            + "<test-case name=\"a.ignored\" executed=\"False\" result=\"Ignored\"/>"
+            + "<test-case name=\"a.old\" executed=\"True\" success=\"False\"/>"
+            + "</results></test-suite></test-results>");
+        final ResultSummary nunit3 = summarize("<test-run><test-suite name=\"s\">"
+            + "<test-case fullname=\"a.pass\" name=\"pass\" result=\"Passed\" duration=\"0.5\"/>"
+            + "<test-case fullname=\"a.fail\" name=\"fail\" result=\"Failed\"/>"
+            + "<test-case fullname=\"a.error\" name=\"error\" result=\"Failed\" label=\"Error\"/>"
+            + "<test-case fullname=\"a.skip\" name=\"skip\" result=\"Skipped\"/>"
+            + "<test-case fullname=\"a.open\" name=\"open\" result=\"Inconclusive\"/>"
+            + "</test-suite></test-run>");
+
+        assertCounts(nunit2, 1, 2, 1, 1);
+        assertEquals(500L, nunit2.getDuration());
+        assertCounts(nunit3, 1, 1, 1, 2);
+        assertEquals(500L, nunit3.getDuration());
+        assertEquals("a.pass", nunit3.getSlowest().get(0).getName());
+    }
+
+    /**
+     * The outcomes of xUnit.net tests are taken from their result attribute.
+     */
+    @Test
+    public void summarizesXUnit() {
+
+        final ResultSummary summary = summarize("<assemblies><assembly name=\"a.dll\"><collection>"
+            + "<test name=\"a.pass\" result=\"Pass\" time=\"0.1\"/><test name=\"a.fail\" result=\"Fail\"/>"
+            + "<test name=\"a.skip\" result=\"Skip\"/><test name=\"a.none\"/>"
+            + "</collection></assembly></assemblies>");
+
+        assertCounts(summary, 1, 1, 0, 1);
+        assertEquals(100L, summary.getDuration());
+    }
+
+    /**
+     * Content which is not well formed has no summary.
+     */
+    @Test
+    public void rejectsMalformedContent() {
+
+        assertNull(summarize("<testsuite><testcase name=\"a\"></testsuite>"));
+        assertFalse(ResultSummarizer.isSupported("cppunit"));
+    }
+
+    /**
+     * A tee hands every byte on exactly once and in order, and leaves the underlying stream open.
+     *
+     * @throws IOException if the content could not be read
+     */
+    @Test
+    public void handsEveryByteOnce() throws IOException {
+
+        final StringBuilder content =
+            new StringBuilder("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n<testsuite>");
+        for (int i = 0; i < 1000; i++) {
+            content.append("<testcase classname=\"caf\u00e9\" name=\"t").append(i).append("\"/>");
+        }
+        content.append("</testsuite>\n<!-- trailer -->\n");
+        final byte[] bytes = content.toString().getBytes(StandardCharsets.ISO_8859_1);
+        final boolean[] closed = new boolean[1];
+        final ByteArrayInputStream in = new ByteArrayInputStream(bytes) {
+
+            @Override
+            public void close() {
+
+                closed[0] = true;
+            }
+        };
+        final ByteArrayOutputStream consumed = new ByteArrayOutputStream();
+        final ResultSummarizer.Tee tee = new ResultSummarizer.Tee(in) {
+
+            @Override
+            protected void consumed(final byte[] b, final int off, final int len) {
+
+                consumed.write(b, off, len);
+            }
+        };
+
+        final ResultSummary summary = ResultSummarizer.summarize(tee);
+        tee.drain(new byte[100]);
+
+        assertCounts(summary, 1000, 0, 0, 0);
+        assertEquals("caf\u00e9.t0", summary.getSlowest().get(0).getName());
+        assertArrayEquals(bytes, consumed.toByteArray());
+        assertFalse(closed[0]);
+    }
+
+    /**
+     * Only the slowest tests are kept, slowest first, also when summaries are added.
+     */
+    @Test
+    public void keepsSlowestTests() {
+
+        final ResultSummary summary = new ResultSummary();
+        final ResultSummary other = new ResultSummary();
+        for (int i = 0; i < ResultSummary.SLOWEST * 2; i++) {
+            (i % 2 == 0 ? summary : other).record("t" + i, ResultSummary.Outcome.PASSED, i);
+        }
+        other.record("skipped", ResultSummary.Outcome.SKIPPED, 1000L);
+        summary.add(other);
+        summary.add(null);
+
+        assertCounts(summary, ResultSummary.SLOWEST * 2, 0, 0, 1);
+        assertEquals(ResultSummary.SLOWEST, summary.getSlowest().size());
+        for (int i = 0; i < ResultSummary.SLOWEST; i++) {
+            assertEquals("t" + (ResultSummary.SLOWEST * 2 - 1 - i), summary.getSlowest().get(i).getName());
+        }
+    }
+
+    /**
+     * Checks the number of tests of each outcome.
+     *
+     * @param summary the summary
+     * @param passed the number of passed tests
+     * @param failed the number of failed tests
+     * @param errors the number of tests ended with an error
+     * @param skipped the number of skipped tests
+     */
+    private static void assertCounts(final ResultSummary summary, final int passed, final int failed,
+        final int errors, final int skipped) {
+
+        assertEquals(passed, summary.getPassed());
+        assertEquals(failed, summary.getFailed());
+        assertEquals(errors, summary.getErrors());
+        assertEquals(skipped, summary.getSkipped());
+        assertEquals(passed + failed + errors + skipped, summary.getTotal());
+    }
+
+    /**
+     * Summarize ASCII content without declaration.
+     *
+     * @param content the content
+     * @return the summary
+     */
+    private static ResultSummary summarize(final String content) {
+
+        return ResultSummarizer.summarize(new ByteArrayInputStream(content.getBytes(StandardCharsets.US_ASCII)));
+    }
+}
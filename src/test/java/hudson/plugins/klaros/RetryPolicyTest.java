@@ -0,0 +1,204 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+import org.apache.commons.httpclient.ConnectTimeoutException;
+import org.apache.commons.httpclient.NoHttpResponseException;
+import org.junit.Test;
+
+/**
+ * Checks which failures the {@link RetryPolicy} repeats, its delays and the states of the
+ * {@link CircuitBreaker}.
+ */
+public class RetryPolicyTest {
+
+    /**
+     * The delay doubles with each attempt, half of it is random, and it never exceeds the maximum.
+     */
+    @Test
+    public void growsDelayExponentially() {
+
+        final RetryPolicy policy = new RetryPolicy(3, 1000L, 0, 0L);
+        for (int i = 0; i < 100; i++) {
+            assertBetween(500L, 1000L, policy.getDelay(0, -1L));
+            assertBetween(4000L, 8000L, policy.getDelay(3, -1L));
+            assertBetween(RetryPolicy.MAX_RETRY_DELAY / 2, RetryPolicy.MAX_RETRY_DELAY, policy.getDelay(40, -1L));
+        }
+        assertEquals(0L, new RetryPolicy(3, 0L, 0, 0L).getDelay(5, -1L));
+    }
+
+    /**
+     * A delay requested by the server is honored up to the maximum delay.
+     */
+    @Test
+    public void honorsRetryAfter() {
+
+        final RetryPolicy policy = new RetryPolicy(3, 1000L, 0, 0L);
+
+        assertEquals(0L, policy.getDelay(2, 0L));
+        assertEquals(5000L, policy.getDelay(2, 5000L));
+        assertEquals(RetryPolicy.MAX_RETRY_DELAY, policy.getDelay(2, RetryPolicy.MAX_RETRY_DELAY * 10));
+    }
+
+    /**
+     * Negative settings are treated as disabled.
+     */
+    @Test
+    public void clampsSettings() {
+
+        final RetryPolicy policy = new RetryPolicy(-1, -1L, -1, -1L);
+
+        assertEquals(0, policy.getRetries());
+        assertEquals(0, policy.getFailureThreshold());
+        assertEquals(0L, policy.getOpenDuration());
+    }
+
+    /**
+     * Only status codes sent before the server imported the request are repeated, proxy failures still
+     * count for the circuit breaker.
+     */
+    @Test
+    public void classifiesStatusCodes() {
+
+        for (int status : new int[] {408, 429, 503 }) {
+            assertTrue(String.valueOf(status), RetryPolicy.isTransient(status));
+            assertTrue(String.valueOf(status), RetryPolicy.isServerFailure(status));
+        }
+        for (int status : new int[] {502, 504 }) {
+            assertFalse(String.valueOf(status), RetryPolicy.isTransient(status));
+            assertTrue(String.valueOf(status), RetryPolicy.isServerFailure(status));
+        }
+        for (int status : new int[] {200, 400, 401, 404, 415, 500 }) {
+            assertFalse(String.valueOf(status), RetryPolicy.isTransient(status));
+            assertFalse(String.valueOf(status), RetryPolicy.isServerFailure(status));
+        }
+    }
+
+    /**
+     * Only failures before the request was sent are repeated, missing files say nothing about the server.
+     */
+    @Test
+    public void classifiesFailures() {
+
+        assertTrue(RetryPolicy.isTransient(new ConnectException()));
+        assertTrue(RetryPolicy.isTransient(new ConnectTimeoutException()));
+        assertTrue(RetryPolicy.isTransient(new NoHttpResponseException()));
+        assertFalse(RetryPolicy.isTransient(new SocketTimeoutException()));
+        assertFalse(RetryPolicy.isTransient(new SocketException("Connection reset")));
+        assertFalse(RetryPolicy.isTransient(new IOException()));
+
+        assertTrue(RetryPolicy.isConnectionFailure(new SocketTimeoutException()));
+        assertFalse(RetryPolicy.isConnectionFailure(new FileNotFoundException()));
+        assertFalse(RetryPolicy.isConnectionFailure(new IllegalStateException()));
+    }
+
+    /**
+     * The breaker opens after the configured number of consecutive failures and fails fast while open.
+     */
+    @Test
+    public void opensAfterConsecutiveFailures() {
+
+        final CircuitBreaker breaker = CircuitBreaker.get("http://opens/", new RetryPolicy(0, 0L, 3, 60000L));
+
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    /**
+     * Once the open duration has passed, a single probe is let through. Its failure opens the breaker again,
+     * its success closes it, and a probe failing before reaching the server is given up.
+     */
+    @Test
+    public void probesAfterOpenDuration() {
+
+        final CircuitBreaker breaker = CircuitBreaker.get("http://probes/", new RetryPolicy(0, 0L, 1, 0L));
+
+        breaker.recordFailure();
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        assertTrue(breaker.allowRequest());
+        breaker.release();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    /**
+     * A breaker without threshold never opens, and each URL has a single breaker taking the latest settings.
+     */
+    @Test
+    public void sharesBreakerPerUrl() {
+
+        final CircuitBreaker breaker = CircuitBreaker.get("http://shared/", new RetryPolicy(0, 0L, 0, 0L));
+        for (int i = 0; i < 10; i++) {
+            breaker.recordFailure();
+        }
+        assertTrue(breaker.allowRequest());
+
+        assertSame(breaker, CircuitBreaker.get("http://shared/", new RetryPolicy(0, 0L, 1, 60000L)));
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        assertFalse(breaker.allowRequest());
+    }
+
+    /**
+     * Assert that a value is within a range.
+     *
+     * @param min the minimum
+     * @param max the maximum
+     * @param value the value
+     */
+    private static void assertBetween(final long min, final long max, final long value) {
+
+        assertTrue(value + " not within " + min + ".." + max, value >= min && value <= max);
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stub of the Klaros-Testmanagement importer resource. It accepts every upload after the
+ * configured latency, except for a configurable share of failed imports and periodic bursts during which
+ * every upload is answered with 503 Service Unavailable. All other requests are answered with 404, so the
+ * publisher falls back to its default formats.
+ * <p>
+ * If recording is enabled, the result files of accepted uploads are kept, with zip archives unpacked into
+ * their entries, so tests can compare what different upload paths imported.
+ */
+final class StubImporter implements HttpHandler {
+
+    /** The context path of the stub application. */
+    static final String CONTEXT = "/klaros-web";
+
+    /** The path of the importer resource. */
+    static final String IMPORTER = CONTEXT + "/seam/resource/rest/importer";
+
+    /** The status code of failed imports. */
+    static final int ERROR_STATUS = 500;
+
+    private final HttpServer server;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final long latency;
+
+    private final double errorRate;
+
+    private final long burstInterval;
+
+    private final long burstLength;
+
+    private final long started = System.currentTimeMillis();
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong accepted = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong unavailable = new AtomicLong();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final Queue<Long> latencies = new ConcurrentLinkedQueue<>();
+
+    private final Queue<Import> imports = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean recording;
+
+    /**
+     * Start a new stub importer on a free port of the loopback interface.
+     *
+     * @param latency the time to wait before answering an upload in milliseconds
+     * @param errorRate the share of uploads to fail, between 0 and 1
+     * @param burstInterval the interval between the start of two 503 bursts in milliseconds, zero for none
+     * @param burstLength the length of a 503 burst in milliseconds
+     * @throws IOException if the server could not be started
+     */
+    StubImporter(final long latency, final double errorRate, final long burstInterval, final long burstLength)
+        throws IOException {
+
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.burstInterval = burstInterval;
+        this.burstLength = burstLength;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Gets the Klaros application URL of the stub.
+     *
+     * @return the application url
+     */
+    String getUrl() {
+
+        return "http://localhost:" + server.getAddress().getPort() + CONTEXT;
+    }
+
+    @Override
+    public void handle(final HttpExchange exchange) throws IOException {
+
+        final long start = System.nanoTime();
+        try {
+            if (!"PUT".equals(exchange.getRequestMethod())
+                || !IMPORTER.equals(exchange.getRequestURI().getPath())) {
+                respond(exchange, 404, "Not Found");
+                return;
+            }
+            requests.incrementAndGet();
+            final byte[] body = recording ? read(exchange.getRequestBody()) : null;
+            bytes.addAndGet(body != null ? body.length : drain(exchange.getRequestBody()));
+            if (latency > 0) {
+                TimeUnit.MILLISECONDS.sleep(latency);
+            }
+
+            if (isUnavailable()) {
+                unavailable.incrementAndGet();
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                respond(exchange, 503, "Service Unavailable");
+            } else if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                failed.incrementAndGet();
+                respond(exchange, ERROR_STATUS, "Import failed");
+            } else {
+                accepted.incrementAndGet();
+                if (body != null) {
+                    record(exchange, body);
+                }
+                respond(exchange, 200, "OK");
+            }
+            latencies.add(System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Checks whether the stub is within a 503 burst.
+     *
+     * @return true if uploads are to be answered with 503
+     */
+    private boolean isUnavailable() {
+
+        return burstInterval > 0 && (System.currentTimeMillis() - started) % burstInterval < burstLength;
+    }
+
+    /**
+     * Read and discard the request body.
+     *
+     * @param in the request body
+     * @return the number of bytes read
+     * @throws IOException if the request body could not be read
+     */
+    private static long drain(final InputStream in) throws IOException {
+
+        final byte[] buffer = new byte[8192];
+        long count = 0;
+        int len;
+        while ((len = in.read(buffer)) >= 0) {
+            count += len;
+        }
+        return count;
+    }
+
+    /**
+     * Read the request body.
+     *
+     * @param in the request body
+     * @return the body
+     * @throws IOException if the request body could not be read
+     */
+    private static byte[] read(final InputStream in) throws IOException {
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int len;
+        while ((len = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Record the result files of an accepted upload.
+     *
+     * @param exchange the exchange
+     * @param body the request body as sent
+     * @throws IOException if the request body could not be decoded
+     */
+    private void record(final HttpExchange exchange, final byte[] body) throws IOException {
+
+        final String type = getParameter(exchange.getRequestURI().getRawQuery(), "type");
+        byte[] content = body;
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            content = read(new GZIPInputStream(new ByteArrayInputStream(body)));
+        }
+        final String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType != null && contentType.startsWith(ZipBundleRequestEntity.CONTENT_TYPE)) {
+            try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(content))) {
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    if (!entry.isDirectory()) {
+                        imports.add(new Import(type, read(zip)));
+                    }
+                }
+            }
+        } else {
+            imports.add(new Import(type, content));
+        }
+    }
+
+    /**
+     * Gets a parameter of a raw query string.
+     *
+     * @param query the raw query string, may be null
+     * @param name the parameter name
+     * @return the decoded value or null if the parameter is missing
+     * @throws IOException if the value could not be decoded
+     */
+    private static String getParameter(final String query, final String name) throws IOException {
+
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split("&")) {
+            final int pos = parameter.indexOf('=');
+            if (pos > 0 && name.equals(parameter.substring(0, pos))) {
+                return URLDecoder.decode(parameter.substring(pos + 1), "UTF-8");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Send a plain text response.
+     *
+     * @param exchange the exchange
+     * @param status the status code
+     * @param message the response body
+     * @throws IOException if the response could not be sent
+     */
+    private static void respond(final HttpExchange exchange, final int status, final String message)
+        throws IOException {
+
+        final byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Reset all counters and recorded latencies.
+     */
+    void reset() {
+
+        requests.set(0);
+        accepted.set(0);
+        failed.set(0);
+        unavailable.set(0);
+        bytes.set(0);
+        latencies.clear();
+        imports.clear();
+    }
+
+    /**
+     * Enable or disable recording the result files of accepted uploads.
+     *
+     * @param recording true to record
+     */
+    void setRecording(final boolean recording) {
+
+        this.recording = recording;
+    }
+
+    /**
+     * Gets the recorded result files of accepted uploads.
+     *
+     * @return the imports in the order they were accepted
+     */
+    List<Import> getImports() {
+
+        return new ArrayList<>(imports);
+    }
+
+    /**
+     * Gets the number of uploads received.
+     *
+     * @return the number of uploads
+     */
+    long getRequests() {
+
+        return requests.get();
+    }
+
+    /**
+     * Gets the number of accepted uploads.
+     *
+     * @return the number of accepted uploads
+     */
+    long getAccepted() {
+
+        return accepted.get();
+    }
+
+    /**
+     * Gets the number of failed imports.
+     *
+     * @return the number of failed imports
+     */
+    long getFailed() {
+
+        return failed.get();
+    }
+
+    /**
+     * Gets the number of uploads answered with 503.
+     *
+     * @return the number of unavailable responses
+     */
+    long getUnavailable() {
+
+        return unavailable.get();
+    }
+
+    /**
+     * Gets the number of request body bytes received.
+     *
+     * @return the number of bytes
+     */
+    long getBytes() {
+
+        return bytes.get();
+    }
+
+    /**
+     * Gets a percentile of the time spent handling uploads, from receiving the request until sending the
+     * response.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency in milliseconds or zero if there were no uploads
+     */
+    double getLatency(final double percentile) {
+
+        final List<Long> sorted = new ArrayList<>(latencies);
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        Collections.sort(sorted);
+        final int index = (int) Math.ceil(percentile / 100 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index)) / 1e6;
+    }
+
+    /**
+     * Stop the server.
+     */
+    void stop() {
+
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * A result file imported by the stub.
+     */
+    static final class Import {
+
+        private final String type;
+
+        private final byte[] content;
+
+        /**
+         * Instantiates a new import.
+         *
+         * @param type the result format given with the upload
+         * @param content the uncompressed result file content
+         */
+        Import(final String type, final byte[] content) {
+
+            this.type = type;
+            this.content = content;
+        }
+
+        /**
+         * Gets the result format given with the upload.
+         *
+         * @return the format
+         */
+        String getType() {
+
+            return type;
+        }
+
+        /**
+         * Gets the uncompressed result file content.
+         *
+         * @return the content
+         */
+        byte[] getContent() {
+
+            return content;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * Checks the limits and the order in which the {@link UploadThrottle} grants its leases.
+ */
+public class UploadThrottleTest {
+
+    private static final long TIMEOUT = 10000L;
+
+    /**
+     * No more than the maximum number of leases are held at the same time.
+     *
+     * @throws InterruptedException if interrupted
+     */
+    @Test
+    public void limitsConcurrentUploads() throws InterruptedException {
+
+        final UploadThrottle throttle = UploadThrottle.get("http://limit", 2, 0L);
+        final UploadThrottle.Session session = throttle.open("job", UploadThrottle.PRIORITY_NORMAL, 1);
+
+        assertTrue(session.acquire(1L, TIMEOUT));
+        assertTrue(session.acquire(1L, TIMEOUT));
+        assertFalse(session.acquire(1L, 50L));
+        session.release();
+        assertTrue(session.acquire(1L, TIMEOUT));
+        session.close();
+    }
+
+    /**
+     * Closing a session returns its leases and ends its waiting requests.
+     *
+     * @throws InterruptedException if interrupted
+     */
+    @Test
+    public void returnsLeasesOnClose() throws InterruptedException {
+
+        final UploadThrottle throttle = UploadThrottle.get("http://close", 1, 0L);
+        final UploadThrottle.Session holder = throttle.open("holder", UploadThrottle.PRIORITY_NORMAL, 1);
+        final UploadThrottle.Session other = throttle.open("other", UploadThrottle.PRIORITY_NORMAL, 1);
+        assertTrue(holder.acquire(1L, TIMEOUT));
+
+        final AtomicBoolean granted = new AtomicBoolean(true);
+        final Thread waiter = new Thread() {
+
+            @Override
+            public void run() {
+
+                try {
+                    granted.set(other.acquire(1L, TIMEOUT));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        start(waiter);
+        other.close();
+        waiter.join(TIMEOUT);
+        assertFalse(granted.get());
+        assertFalse(other.acquire(1L, TIMEOUT));
+
+        holder.close();
+        final UploadThrottle.Session next = throttle.open("next", UploadThrottle.PRIORITY_NORMAL, 1);
+        assertTrue(next.acquire(1L, 50L));
+        next.close();
+    }
+
+    /**
+     * The starts of the uploads are spaced by the time their bytes take at the maximum rate.
+     *
+     * @throws InterruptedException if interrupted
+     */
+    @Test
+    public void limitsUploadRate() throws InterruptedException {
+
+        final UploadThrottle throttle = UploadThrottle.get("http://rate", 0, 1024L * 1024L);
+        final UploadThrottle.Session session = throttle.open("job", UploadThrottle.PRIORITY_NORMAL, 1);
+
+        final long started = System.nanoTime();
+        assertTrue(session.acquire(512L * 1024L, TIMEOUT));
+        assertTrue(session.acquire(512L * 1024L, TIMEOUT));
+        assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(400L));
+
+        // The next start lies beyond the timeout
+        assertFalse(session.acquire(1L, 100L));
+        session.close();
+    }
+
+    /**
+     * Waiting requests of a higher priority class are served first.
+     *
+     * @throws InterruptedException if interrupted
+     */
+    @Test
+    public void servesHigherPriorityFirst() throws InterruptedException {
+
+        final UploadThrottle throttle = UploadThrottle.get("http://priority", 1, 0L);
+        final UploadThrottle.Session holder = throttle.open("holder", UploadThrottle.PRIORITY_NORMAL, 1);
+        assertTrue(holder.acquire(1L, TIMEOUT));
+
+        final List<String> served = Collections.synchronizedList(new ArrayList<String>());
+        final List<Thread> threads = Arrays.asList(
+            request(throttle.open("low", UploadThrottle.PRIORITY_LOW, 1), "low", served),
+            request(throttle.open("normal", UploadThrottle.PRIORITY_NORMAL, 1), "normal", served),
+            request(throttle.open("high", UploadThrottle.PRIORITY_HIGH, 1), "high", served));
+        holder.release();
+        join(threads);
+
+        assertEquals(Arrays.asList("high", "normal", "low"), served);
+        holder.close();
+    }
+
+    /**
+     * Within a priority class the jobs share the uploads by their weight rather than in arrival order.
+     *
+     * @throws InterruptedException if interrupted
+     */
+    @Test
+    public void sharesUploadsByWeight() throws InterruptedException {
+
+        final UploadThrottle throttle = UploadThrottle.get("http://weight", 1, 0L);
+        final UploadThrottle.Session holder = throttle.open("holder", UploadThrottle.PRIORITY_NORMAL, 1);
+        assertTrue(holder.acquire(1L, TIMEOUT));
+
+        final UploadThrottle.Session light = throttle.open("light", UploadThrottle.PRIORITY_NORMAL, 1);
+        final UploadThrottle.Session heavy = throttle.open("heavy", UploadThrottle.PRIORITY_NORMAL, 3);
+        final List<String> served = Collections.synchronizedList(new ArrayList<String>());
+        final List<Thread> threads = Arrays.asList(request(light, "light", served),
+            request(light, "light", served), request(heavy, "heavy", served), request(heavy, "heavy", served),
+            request(heavy, "heavy", served));
+        holder.release();
+        join(threads);
+
+        assertEquals(Arrays.asList("light", "heavy", "heavy", "heavy", "light"), served);
+        holder.close();
+    }
+
+    /**
+     * Start a thread requesting a single lease for a session, and wait until the request is queued.
+     *
+     * @param session the session
+     * @param name the name recorded once the lease is granted
+     * @param served the names in the order the leases were granted
+     * @return the thread
+     * @throws InterruptedException if interrupted
+     */
+    private static Thread request(final UploadThrottle.Session session, final String name,
+        final List<String> served) throws InterruptedException {
+
+        final Thread thread = new Thread() {
+
+            @Override
+            public void run() {
+
+                try {
+                    if (session.acquire(1L, TIMEOUT)) {
+                        served.add(name);
+                        session.release();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        start(thread);
+        return thread;
+    }
+
+    /**
+     * Start a thread and wait until it waits for a lease.
+     *
+     * @param thread the thread
+     * @throws InterruptedException if interrupted
+     */
+    private static void start(final Thread thread) throws InterruptedException {
+
+        thread.setDaemon(true);
+        thread.start();
+        while (thread.getState() != Thread.State.TIMED_WAITING) {
+            assertTrue(thread.isAlive());
+            Thread.sleep(1L);
+        }
+    }
+
+    /**
+     * Wait for threads to end.
+     *
+     * @param threads the threads
+     * @throws InterruptedException if interrupted
+     */
+    private static void join(final List<Thread> threads) throws InterruptedException {
+
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT);
+            assertFalse(thread.isAlive());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Checks the expansion of {@link VariableTemplate}s and the encoding of {@link QueryString}s.
+ */
+public class VariableTemplateTest {
+
+    private static final Map<String, String> NONE = Collections.emptyMap();
+
+    /**
+     * References are replaced by the variable values, the primary variables win.
+     */
+    @Test
+    public void expandsReferences() {
+
+        final Map<String, String> environment = new HashMap<>();
+        environment.put("BUILD_NUMBER", "42");
+        environment.put("NODE", "linux");
+        final Map<String, String> parameters = new HashMap<>();
+        parameters.put("NODE", "windows");
+        parameters.put("SUT", "SUT00001");
+
+        final VariableTemplate template =
+            VariableTemplate.compile("${SUT}-${NODE}#${BUILD_NUMBER}${BUILD_NUMBER}");
+
+        assertFalse(template.isConstant());
+        assertEquals("SUT00001-linux#4242", template.expand(environment, parameters));
+    }
+
+    /**
+     * Unknown references and unterminated references are kept verbatim.
+     */
+    @Test
+    public void keepsUnresolvedReferences() {
+
+        final Map<String, String> environment = Collections.singletonMap("A", "a");
+
+        assertEquals("a-${B}-a", VariableTemplate.compile("${A}-${B}-${A}").expand(environment, NONE));
+        assertEquals("a-${A", VariableTemplate.compile("${A}-${A").expand(environment, NONE));
+        assertEquals("$A {A} a", VariableTemplate.compile("$A {A} ${A}").expand(environment, NONE));
+    }
+
+    /**
+     * Values are inserted literally, even if they look like references or regular expression replacements.
+     */
+    @Test
+    public void insertsValuesLiterally() {
+
+        final Map<String, String> environment = new HashMap<>();
+        environment.put("A", "${B}");
+        environment.put("B", "$1\\");
+
+        assertEquals("${B}/$1\\", VariableTemplate.compile("${A}/${B}").expand(environment, NONE));
+    }
+
+    /**
+     * Values without references are constant, null values stay null.
+     */
+    @Test
+    public void compilesConstants() {
+
+        final VariableTemplate template = VariableTemplate.compile("P00001");
+
+        assertTrue(template.isConstant());
+        assertEquals("P00001", template.expand(NONE, NONE));
+        assertEquals("", VariableTemplate.compile("").expand(NONE, NONE));
+        assertNull(VariableTemplate.compile(null));
+    }
+
+    /**
+     * Parameter values are URL encoded and joined with ampersands, encoded fragments are appended as is.
+     */
+    @Test
+    public void buildsQueryStrings() {
+
+        final QueryString query =
+            new QueryString().add("config", "P 1&2=3").addEncoded("").addEncoded("env=ENV%201").add("sut", null)
+                .add("user", "m\u00fcller/+");
+
+        assertEquals("config=P+1%262%3D3&env=ENV%201&sut=&user=m%C3%BCller%2F%2B", query.toString());
+        assertEquals("", new QueryString().addEncoded(null).toString());
+    }
+}
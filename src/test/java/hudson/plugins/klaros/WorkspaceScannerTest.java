@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2009,2010,2015 verit Informationssysteme GmbH, Caroline Albuquerque, Torsten Stolpmann
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.klaros;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import hudson.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.tools.ant.DirectoryScanner;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Scans a fixture tree with the {@link WorkspaceScanner} and checks that it finds the same files as the Ant
+ * file set Jenkins builds for the same specification.
+ */
+public class WorkspaceScannerTest {
+
+    private static final List<String> FILES = Arrays.asList(
+        "a.xml",
+        "TEST-root.xml",
+        "notes.txt",
+        "target/surefire-reports/TEST-a.xml",
+        "target/surefire-reports/TEST-b.xml",
+        "target/surefire-reports/output.txt",
+        "target/surefire-reports/TEST-old.xml~",
+        "target/classes/TEST-class.xml",
+        "module/target/surefire-reports/TEST-c.xml",
+        "module/sub/deep/target/test-results/TEST-d.xml",
+        "module/sub/deep/target/test-results/TEST-dd.xml",
+        "module/CVS/TEST-cvs.xml",
+        ".svn/TEST-svn.xml",
+        ".git/objects/x.xml",
+        "results/x.xml",
+        "results/y/z.xml",
+        "results/y/z/w.xml",
+        "resultsx/x.xml",
+        "dir with space/TEST-space.xml");
+
+    private static final List<String> SPECS = Arrays.asList(
+        "**/*.xml",
+        "*.xml",
+        "**",
+        "target/surefire-reports/*.xml",
+        "target/surefire-reports/TEST-?.xml",
+        "**/target/**/TEST-*.xml",
+        "**/surefire-reports/",
+        "results/",
+        "results/**",
+        "results/*/*.xml",
+        "results*/**/*.xml",
+        "module/**/TEST-?.xml",
+        "module/**/deep/**",
+        "target/surefire-reports/TEST-a.xml,module/**/*.xml",
+        " **/TEST-*.xml , a.xml ",
+        "module\\target\\**\\*.xml",
+        "**/*.xml~",
+        "**/CVS/*.xml",
+        "dir with space/*.xml",
+        "nomatch/*.xml",
+        "target/surefire-reports",
+        "*/target/*/*.xml");
+
+    /** The directory holding the fixture tree. */
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File baseDir;
+
+    /**
+     * Create the fixture tree.
+     *
+     * @throws IOException if a file could not be created
+     */
+    @Before
+    public void createTree() throws IOException {
+
+        baseDir = temp.newFolder("ws");
+        for (String path : FILES) {
+            final File file = new File(baseDir, path);
+            file.getParentFile().mkdirs();
+            assertTrue(file.createNewFile());
+        }
+    }
+
+    /**
+     * Each specification matches the same files as the Ant file set.
+     *
+     * @throws Exception if the tree could not be scanned
+     */
+    @Test
+    public void matchesAntFileSet() throws Exception {
+
+        for (String spec : SPECS) {
+            assertEquals(spec, antScan(spec), scan(new WorkspaceScanner(spec)));
+        }
+    }
+
+    /**
+     * Files modified before the given time are skipped and counted.
+     *
+     * @throws Exception if the tree could not be scanned
+     */
+    @Test
+    public void skipsOldFiles() throws Exception {
+
+        final long now = System.currentTimeMillis();
+        for (String path : FILES) {
+            assertTrue(new File(baseDir, path).setLastModified(now - 60000L));
+        }
+        assertTrue(new File(baseDir, "target/surefire-reports/TEST-b.xml").setLastModified(now));
+
+        final WorkspaceScanner scanner = new WorkspaceScanner("target/surefire-reports/*.xml");
+        scanner.setModifiedSince(now - 1000L);
+
+        assertEquals(new TreeSet<>(Arrays.asList("target/surefire-reports/TEST-b.xml")), scan(scanner));
+        assertEquals(1, scanner.getSkippedOld());
+    }
+
+    /**
+     * A specification without patterns matches nothing.
+     *
+     * @throws Exception if the tree could not be scanned
+     */
+    @Test
+    public void matchesNothingWithoutPatterns() throws Exception {
+
+        assertTrue(scan(new WorkspaceScanner(" , ")).isEmpty());
+    }
+
+    /**
+     * Scanning a missing directory fails.
+     *
+     * @throws Exception if the directory could be scanned
+     */
+    @Test(expected = IOException.class)
+    public void failsForMissingDirectory() throws Exception {
+
+        new WorkspaceScanner("**/*.xml").scan(new File(baseDir, "missing"), new WorkspaceScanner.Listener() {
+
+            @Override
+            public void found(final String path, final File file) {
+
+            }
+        });
+    }
+
+    /**
+     * Scan the fixture tree.
+     *
+     * @param scanner the scanner
+     * @return the relative paths of the found files
+     * @throws Exception if the tree could not be scanned
+     */
+    private Set<String> scan(final WorkspaceScanner scanner) throws Exception {
+
+        final Set<String> found = new TreeSet<>();
+        scanner.scan(baseDir, new WorkspaceScanner.Listener() {
+
+            @Override
+            public void found(final String path, final File file) {
+
+                assertEquals(new File(baseDir, path), file);
+                assertTrue(path, found.add(path));
+            }
+        });
+        return found;
+    }
+
+    /**
+     * Scan the fixture tree with an Ant file set.
+     *
+     * @param spec the include specification
+     * @return the relative paths of the included files
+     */
+    private Set<String> antScan(final String spec) {
+
+        final DirectoryScanner ds = Util.createFileSet(baseDir, spec).getDirectoryScanner();
+        final Set<String> found = new TreeSet<>();
+        for (String path : ds.getIncludedFiles()) {
+            found.add(path.replace(File.separatorChar, '/'));
+        }
+        return found;
+    }
+}